@@ -0,0 +1,88 @@
+package com.Jai2001.LineAudioMixer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the {@link ChannelMatrix} kernels per block, on 16 bit samples.
+ * <p>
+ * {@code copy} is the memcpy a permutation is measured against. {@code swap} swaps the pairs
+ * of the block in place of it, {@code pick} takes the last and the first channel of the block
+ * and {@code fold} mixes every input channel at a reduced gain into a stereo pair through the sparse kernel,
+ * on samples already decoded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChannelMatrixBenchmark {
+
+    /**Block size in frames.*/
+    @Param({"256", "1024"})
+    public int frames;
+
+    /**Number of input channels.*/
+    @Param({"2", "8"})
+    public int channels;
+
+    private byte[] source;
+    private byte[] target;
+    private long[] decoded;
+    private long[] mixed;
+    private ChannelMatrix swap;
+    private ChannelMatrix pick;
+    private ChannelMatrix fold;
+
+    @Setup
+    public void setup() {
+        source = new byte[frames * channels * 2];
+        target = new byte[source.length];
+        new Random(7).nextBytes(source);
+        decoded = new long[frames * channels];
+        for (int i = 0; i < decoded.length; i++) decoded[i] = (long) source[i] << 24;
+        mixed = new long[frames * 2];
+        swap = ChannelMatrix.swap(channels);
+        pick = ChannelMatrix.parse((channels - 1) + ":0, 0:1", channels, 2);
+        double[][] gains = new double[2][channels];
+        for (int c = 0; c < channels; c++) gains[c & 1][c] = 1.0 / channels;
+        fold = new ChannelMatrix(gains);
+    }
+
+    @Benchmark
+    public byte[] copy() {
+        System.arraycopy(source, 0, target, 0, source.length);
+        return target;
+    }
+
+    @Benchmark
+    public byte[] swap() {
+        swap.permute(source, target, frames, 2);
+        return target;
+    }
+
+    @Benchmark
+    public byte[] pick() {
+        pick.permute(source, target, frames, 2);
+        return target;
+    }
+
+    @Benchmark
+    public long[] fold() {
+        fold.mix(decoded, frames, mixed);
+        return mixed;
+    }
+}
@@ -0,0 +1,85 @@
+package com.Jai2001.LineAudioMixer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.LineUnavailableException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one iteration of the exchange loop: reading every input, the fan-out to every
+ * consumer and the mix bus writes.
+ * <p>
+ * Each input is routed to its own set of outputs, so the number of device writes is
+ * {@code inputs * outputs}. With {@code stalled} the first output never accepts a write, which
+ * must only fill its own queue and not slow down the loop. With a {@code quantum} every input
+ * hands on that many frames per iteration instead of the whole block.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExchangeBenchmark {
+
+    @Param({"1", "4", "8"})
+    public int inputs;
+
+    @Param({"1", "4", "8"})
+    public int outputs;
+
+    /**Bytes available on every input per iteration, 10 ms at 48 kHz stereo.*/
+    @Param({"1920"})
+    public int block;
+
+    /**Whether the first output blocks in every write, like a suspended device.*/
+    @Param({"false", "true"})
+    public boolean stalled;
+
+    /**Frames every input hands on per iteration, 0 for everything available.*/
+    @Param({"0", "128"})
+    public int quantum;
+
+    private FakeSourceDataLine first;
+
+    private AudioExchanger exchanger;
+
+    @Setup
+    public void setup() throws LineUnavailableException {
+        exchanger = new AudioExchanger(new BusySpinWaitStrategy(), false, quantum);
+        for (int i = 0; i < inputs; i++) {
+            AudioDataStream stream = exchanger.getSyncedStream(Lines.input(block));
+            for (int j = 0; j < outputs; j++) {
+                FakeSourceDataLine output = Lines.output();
+                if(first == null){
+                    first = output;
+                    output.stalled = stalled;
+                }
+                stream.addConsumer(output);
+            }
+            stream.start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        first.stalled = false;
+        exchanger.close();
+    }
+
+    @Benchmark
+    public void exchange() {
+        exchanger.exchange(false);
+    }
+}
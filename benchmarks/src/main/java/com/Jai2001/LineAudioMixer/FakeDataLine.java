@@ -0,0 +1,140 @@
+package com.Jai2001.LineAudioMixer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineListener;
+
+/**
+ * FakeDataLine is an in-memory {@link DataLine} so the mixer can be benchmarked without
+ * sound hardware.
+ * <p>
+ * Every instance gets its own {@link DataLine.Info}, so the exchanger treats each fake as a
+ * separate device.
+ */
+abstract class FakeDataLine implements DataLine {
+
+    protected final AudioFormat format;
+    protected final int bufferSize;
+    private final DataLine.Info info;
+    private boolean open;
+    private boolean running;
+    protected long framePosition;
+
+    FakeDataLine(Class<?> lineClass, AudioFormat format, int bufferSize) {
+        this.format = format;
+        this.bufferSize = bufferSize - bufferSize % format.getFrameSize();
+        this.info = new DataLine.Info(lineClass, format, this.bufferSize);
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) framePosition;
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return framePosition;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (framePosition * 1_000_000L / format.getFrameRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public DataLine.Info getLineInfo() {
+        return info;
+    }
+
+    public void open(AudioFormat format) {
+        open();
+    }
+
+    public void open(AudioFormat format, int bufferSize) {
+        open();
+    }
+
+    @Override
+    public void open() {
+        open = true;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        running = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control type: " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+}
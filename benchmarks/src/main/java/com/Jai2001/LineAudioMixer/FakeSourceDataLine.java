@@ -0,0 +1,35 @@
+package com.Jai2001.LineAudioMixer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * FakeSourceDataLine is an output that accepts and discards every write immediately, unless
+ * it is stalled.
+ */
+class FakeSourceDataLine extends FakeDataLine implements SourceDataLine {
+
+    /**Total number of bytes written, read by benchmarks so writes cannot be optimised away.*/
+    long written;
+
+    /**While set, writes block like those of a suspended device.*/
+    volatile boolean stalled;
+
+    FakeSourceDataLine(AudioFormat format, int bufferSize) {
+        super(SourceDataLine.class, format, bufferSize);
+    }
+
+    @Override
+    public int available() {
+        return bufferSize;
+    }
+
+    @Override
+    public int write(byte[] b, int off, int len) {
+        while (stalled) LockSupport.parkNanos(1_000_000L);
+        written += len;
+        framePosition += len / format.getFrameSize();
+        return len;
+    }
+}
@@ -0,0 +1,41 @@
+package com.Jai2001.LineAudioMixer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * FakeTargetDataLine is an input that always has a fixed block of noise available.
+ * <p>
+ * The noise is generated once, reads only copy it, so the benchmark measures the mixer
+ * rather than the fake.
+ */
+class FakeTargetDataLine extends FakeDataLine implements TargetDataLine {
+
+    private final byte[] noise;
+    private final int block;
+
+    /**
+     * @param format The format of the fake input.
+     * @param bufferSize The buffer size reported to the mixer.
+     * @param block The number of bytes reported as available on every poll.
+     */
+    FakeTargetDataLine(AudioFormat format, int bufferSize, int block) {
+        super(TargetDataLine.class, format, bufferSize);
+        this.block = Math.min(block - block % format.getFrameSize(), this.bufferSize);
+        this.noise = new byte[this.bufferSize];
+        new java.util.Random(42).nextBytes(noise);
+    }
+
+    @Override
+    public int available() {
+        return block;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        len = Math.min(len, noise.length);
+        System.arraycopy(noise, 0, b, off, len);
+        framePosition += len / format.getFrameSize();
+        return len;
+    }
+}
@@ -0,0 +1,102 @@
+package com.Jai2001.LineAudioMixer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link AudioConsumer#adjustVolume(int)} per block size.
+ * <p>
+ * {@code scalar} and {@code vector} run the constant gain kernels directly, {@code adjustVolume}
+ * goes through the consumer at a constant gain and {@code ramp} changes the volume before
+ * every block so the ramping path is measured. Forks are started with the incubator module,
+ * so {@code adjustVolume} uses the vector kernel whenever the JDK provides it. The Vector API
+ * is only fast once C2 compiled it, hence the longer warmup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class GainBenchmark {
+
+    /**Block size in frames of 16 bit stereo.*/
+    @Param({"64", "256", "1024", "4096"})
+    public int frames;
+
+    private byte[] source;
+    private byte[] target;
+    private AudioConsumer consumer;
+    private AudioConsumer meteredConsumer;
+    private AudioConsumer[] peers;
+    private SampleCodec codec;
+    private int gain;
+    private boolean louder;
+
+    @Setup
+    public void setup() {
+        source = new byte[frames * 4];
+        target = new byte[source.length];
+        new Random(7).nextBytes(source);
+        consumer = new AudioConsumer(null, 0.8, source, SampleCodec.forFormat(Lines.STEREO_48K));
+        gain = AudioConsumer.toFixedPoint(0.8);
+        codec = SampleCodec.forFormat(Lines.STEREO_48K);
+        meteredConsumer = new AudioConsumer(null, 0.8, source, codec);
+        meteredConsumer.setMeter(new LevelMeter());
+        peers = new AudioConsumer[]{meteredConsumer};
+    }
+
+    @Benchmark
+    public byte[] scalar() {
+        SampleCodec.Pcm16LittleEndian.scale(source, target, 0, source.length, gain, gain);
+        return target;
+    }
+
+    @Benchmark
+    public byte[] vector() {
+        if (AudioConsumer.KERNEL == null) throw new IllegalStateException("Vector kernel not available");
+        AudioConsumer.KERNEL.scale(source, target, 0, source.length, gain);
+        return target;
+    }
+
+    @Benchmark
+    public byte[] adjustVolume() {
+        consumer.adjustVolume(source.length);
+        return consumer.buffer;
+    }
+
+    @Benchmark
+    public byte[] ramp() {
+        louder = !louder;
+        consumer.setVolume(louder ? 0.9 : 0.8);
+        consumer.adjustVolume(source.length);
+        return consumer.buffer;
+    }
+
+    @Benchmark
+    public long metered() {
+        return codec.applyGainAndMeasure(source, target, 0, source.length, gain, gain);
+    }
+
+    @Benchmark
+    public byte[] meteredProcess() {
+        return meteredConsumer.process(source.length, peers, 0);
+    }
+
+    @Benchmark
+    public long measure() {
+        return codec.measure(source, source.length);
+    }
+}
@@ -0,0 +1,26 @@
+package com.Jai2001.LineAudioMixer;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Shared formats and sizes for the benchmarks.
+ */
+final class Lines {
+
+    /**48 kHz 16 bit stereo, the format most devices open with.*/
+    static final AudioFormat STEREO_48K = new AudioFormat(48000, 16, 2, true, false);
+
+    /**Buffer size of a typical device, roughly 100 ms at 48 kHz stereo.*/
+    static final int BUFFER_SIZE = 19200;
+
+    private Lines() {
+    }
+
+    static FakeTargetDataLine input(int block) {
+        return new FakeTargetDataLine(STEREO_48K, BUFFER_SIZE, block);
+    }
+
+    static FakeSourceDataLine output() {
+        return new FakeSourceDataLine(STEREO_48K, BUFFER_SIZE);
+    }
+}
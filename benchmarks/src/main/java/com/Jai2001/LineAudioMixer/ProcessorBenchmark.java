@@ -0,0 +1,83 @@
+package com.Jai2001.LineAudioMixer;
+
+import com.Jai2001.LineAudioMixer.Processing.BiquadFilter;
+import com.Jai2001.LineAudioMixer.Processing.BrickwallLimiter;
+import com.Jai2001.LineAudioMixer.Processing.Compressor;
+import com.Jai2001.LineAudioMixer.Processing.Processor;
+import com.Jai2001.LineAudioMixer.Processing.ProcessorChain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one {@link ProcessorChain} stage per block size, on 48 kHz stereo.
+ * <p>
+ * The time per block should grow linearly with the block size. A block of {@code frames}
+ * frames lasts {@code frames / 48} milliseconds, which is the budget the whole loop has for
+ * it, so every stage should stay orders of magnitude below that. {@code chain} runs all
+ * three stages plus the conversion in and out of the chain.
+ * <p>
+ * Run with {@code -prof gc} to confirm the stages allocate nothing per block.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessorBenchmark {
+
+    /**Block size in frames of stereo.*/
+    @Param({"64", "256", "1024", "4096"})
+    public int frames;
+
+    /**Stage measured.*/
+    @Param({"biquad", "compressor", "limiter", "chain"})
+    public String stage;
+
+    private ProcessorChain chain;
+    private long[] source;
+    private long[] samples;
+
+    @Setup
+    public void setup() {
+        Processor[] stages;
+        switch (stage) {
+            case "biquad":
+                stages = new Processor[]{new BiquadFilter(BiquadFilter.Type.PEAKING, 1000, 0.707, 6)};
+                break;
+            case "compressor":
+                stages = new Processor[]{new Compressor(-20, 4, 5, 50, 6)};
+                break;
+            case "limiter":
+                stages = new Processor[]{new BrickwallLimiter(-0.3f, 1.5f, 50)};
+                break;
+            default:
+                stages = new Processor[]{new BiquadFilter(BiquadFilter.Type.PEAKING, 1000, 0.707, 6),
+                        new Compressor(-20, 4, 5, 50, 6), new BrickwallLimiter(-0.3f, 1.5f, 50)};
+        }
+        chain = new ProcessorChain(stages).prepare(48000, 2, frames);
+        source = new long[frames * 2];
+        samples = new long[source.length];
+        Random random = new Random(7);
+        for (int i = 0; i < source.length; i++) source[i] = (long) (random.nextGaussian() * 0.3 * Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long[] process() {
+        System.arraycopy(source, 0, samples, 0, source.length);
+        chain.process(samples, frames);
+        return samples;
+    }
+}
@@ -0,0 +1,70 @@
+package com.Jai2001.LineAudioMixer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.LineUnavailableException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding and removing consumers on an {@link AudioDataStream} while the exchange loop runs.
+ * <p>
+ * One thread keeps running the loop over a stream with a fixed set of consumers, while
+ * another repeatedly adds and removes one more. The loop's time per iteration shows how
+ * much reconfiguration disturbs the audio thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class RoutingBenchmark {
+
+    private AudioExchanger exchanger;
+    private AudioDataStream stream;
+    private FakeSourceDataLine churn;
+
+    @Setup(Level.Trial)
+    public void setup() throws LineUnavailableException {
+        exchanger = new AudioExchanger(new BusySpinWaitStrategy());
+        stream = exchanger.getSyncedStream(Lines.input(1920));
+        for (int i = 0; i < 4; i++) {
+            stream.addConsumer(Lines.output());
+        }
+        stream.start();
+        churn = Lines.output();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        exchanger.close();
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void exchange() {
+        exchanger.exchange(false);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void addRemove() throws LineUnavailableException {
+        stream.addConsumer(churn);
+        stream.removeConsumer(churn);
+    }
+}
@@ -0,0 +1,184 @@
+package com.Jai2001.LineAudioMixer;
+
+import com.Jai2001.LineAudioMixer.Endpoints.UdpSourceDataLine;
+import com.Jai2001.LineAudioMixer.Endpoints.UdpTargetDataLine;
+
+import javax.sound.sampled.LineUnavailableException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Checks the network lines end to end over localhost, without any sound hardware.
+ * <p>
+ * A {@link UdpTargetDataLine} is bound to port 0 and read at the frame rate on its own thread,
+ * as the exchanger would. Then it is fed twice:
+ * <ul>
+ *     <li>by a {@link UdpSourceDataLine}, which must arrive complete, with nothing lost, late
+ *     or dropped;</li>
+ *     <li>by hand made packets in the same layout, with every tenth packet left out, every
+ *     seventh pair sent in reverse order and a packet of 100 ms ago sent again. The missing
+ *     packets must be counted as lost and concealed, the reversed ones put back in order and
+ *     the old one discarded as late.</li>
+ * </ul>
+ * Once a feed ends the receiver underruns and conceals every packet until it is stopped, so
+ * underruns are only printed.
+ * Run it with {@code java -cp target/benchmarks.jar com.Jai2001.LineAudioMixer.UdpLoopbackCheck}.
+ * It prints the counters of both runs and exits with status 1 if a check fails.
+ */
+public final class UdpLoopbackCheck {
+
+    /**Number of packets sent in each run, a second of audio.*/
+    private static final int PACKETS = 200;
+
+    private static final int PAYLOAD = (int) (Lines.STEREO_48K.getFrameRate() * UdpSourceDataLine.PACKET_MILLIS / 1000)
+            * Lines.STEREO_48K.getFrameSize();
+
+    private static final long PACKET_NANOS = UdpSourceDataLine.PACKET_MILLIS * 1_000_000L;
+
+    /**Time given to the receiver to play out what was sent.*/
+    private static final long SETTLE_NANOS = 200_000_000L;
+
+    private UdpLoopbackCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = clean() & lossy();
+        System.out.println(passed ? "All checks passed" : "Checks failed");
+        if(!passed) System.exit(1);
+    }
+
+    /**
+     * Sends a second of audio through a {@link UdpSourceDataLine}, paced at the frame rate.
+     */
+    private static boolean clean() throws LineUnavailableException, InterruptedException {
+        UdpTargetDataLine receiver = receiver();
+        UdpSourceDataLine sender = new UdpSourceDataLine(loopback(receiver), Lines.STEREO_48K);
+        sender.open();
+        sender.start();
+        Thread reader = reader(receiver);
+        byte[] block = new byte[PAYLOAD];
+        long due = System.nanoTime();
+        for (int i = 0; i < PACKETS; i++) {
+            sender.write(block, 0, block.length);
+            due += PACKET_NANOS;
+            LockSupport.parkNanos(due - System.nanoTime());
+        }
+        LockSupport.parkNanos(SETTLE_NANOS);
+        sender.close();
+        stop(receiver, reader);
+        print("clean", receiver);
+        boolean passed = check(sender.getPackets() == PACKETS, "sent " + sender.getPackets() + " packets instead of " + PACKETS);
+        passed &= check(sender.getSendErrors() == 0, sender.getSendErrors() + " send errors");
+        passed &= check(receiver.getReceived() == PACKETS, "received " + receiver.getReceived() + " packets instead of " + PACKETS);
+        passed &= check(receiver.getLost() == 0, receiver.getLost() + " packets lost");
+        passed &= check(receiver.getLate() == 0, receiver.getLate() + " packets late");
+        passed &= check(receiver.getDropped() == 0, receiver.getDropped() + " packets dropped");
+        return passed;
+    }
+
+    /**
+     * Sends packets by hand, leaving some out, reordering others and repeating an old one.
+     */
+    private static boolean lossy() throws LineUnavailableException, InterruptedException, IOException {
+        UdpTargetDataLine receiver = receiver();
+        Thread reader = reader(receiver);
+        ByteBuffer packet = ByteBuffer.allocate(UdpSourceDataLine.HEADER + PAYLOAD);
+        int skipped = 0;
+        int sent = 0;
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(loopback(receiver));
+            long due = System.nanoTime();
+            for (int sequence = 0; sequence < PACKETS; sequence++) {
+                if(sequence % 10 == 9){
+                    skipped++;
+                }else if(sequence % 7 == 0 && sequence > 0 && (sequence + 1) % 10 != 9){
+                    send(channel, packet, sequence + 1);
+                    send(channel, packet, sequence);
+                    sent += 2;
+                    sequence++;
+                    due += PACKET_NANOS;
+                }else{
+                    send(channel, packet, sequence);
+                    sent++;
+                }
+                if(sequence == PACKETS / 2){
+                    send(channel, packet, sequence - 20);
+                    sent++;
+                }
+                due += PACKET_NANOS;
+                LockSupport.parkNanos(due - System.nanoTime());
+            }
+            // Keep the feed going so the last skipped packet is played out as lost rather than as an underrun.
+            for (int sequence = PACKETS; sequence < PACKETS + 10; sequence++) {
+                send(channel, packet, sequence);
+                sent++;
+                due += PACKET_NANOS;
+                LockSupport.parkNanos(due - System.nanoTime());
+            }
+        }
+        LockSupport.parkNanos(SETTLE_NANOS);
+        stop(receiver, reader);
+        print("lossy", receiver);
+        boolean passed = check(receiver.getReceived() == sent, "received " + receiver.getReceived() + " packets instead of " + sent);
+        passed &= check(receiver.getLate() == 1, receiver.getLate() + " packets late instead of 1");
+        passed &= check(receiver.getLost() + receiver.getDropped() >= skipped,
+                receiver.getLost() + " packets lost and " + receiver.getDropped() + " dropped, fewer than the " + skipped + " left out");
+        passed &= check(receiver.getLost() <= skipped, receiver.getLost() + " packets lost, more than the " + skipped + " left out");
+        passed &= check(receiver.getConcealments() >= receiver.getLost(),
+                receiver.getConcealments() + " concealments for " + receiver.getLost() + " lost packets");
+        return passed;
+    }
+
+    private static UdpTargetDataLine receiver() throws LineUnavailableException {
+        UdpTargetDataLine receiver = new UdpTargetDataLine(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), Lines.STEREO_48K);
+        receiver.open();
+        receiver.start();
+        return receiver;
+    }
+
+    private static InetSocketAddress loopback(UdpTargetDataLine receiver) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getLocalAddress().getPort());
+    }
+
+    /**
+     * Starts a thread reading a packet at a time, blocking until it is due like a device.
+     */
+    private static Thread reader(UdpTargetDataLine receiver) {
+        Thread reader = new Thread(() -> {
+            byte[] block = new byte[PAYLOAD];
+            while (receiver.isRunning()) receiver.read(block, 0, block.length);
+        }, "Reader");
+        reader.setDaemon(true);
+        reader.start();
+        return reader;
+    }
+
+    private static void stop(UdpTargetDataLine receiver, Thread reader) throws InterruptedException {
+        receiver.stop();
+        reader.join(1000);
+        receiver.close();
+    }
+
+    private static void send(DatagramChannel channel, ByteBuffer packet, int sequence) throws IOException {
+        packet.clear();
+        packet.putInt(sequence);
+        packet.position(packet.limit());
+        packet.flip();
+        channel.write(packet);
+    }
+
+    private static void print(String run, UdpTargetDataLine receiver) {
+        System.out.println(run + ": received " + receiver.getReceived() + ", lost " + receiver.getLost() + ", late "
+                + receiver.getLate() + ", dropped " + receiver.getDropped() + ", underruns " + receiver.getUnderruns()
+                + ", concealments " + receiver.getConcealments() + ", target depth " + receiver.getTargetDepth());
+    }
+
+    private static boolean check(boolean condition, String failure) {
+        if(!condition) System.out.println("FAILED: " + failure);
+        return condition;
+    }
+}
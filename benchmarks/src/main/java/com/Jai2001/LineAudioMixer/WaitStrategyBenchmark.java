@@ -0,0 +1,56 @@
+package com.Jai2001.LineAudioMixer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in one {@link WaitStrategy#idle(long)} call, which is the latency a strategy adds
+ * before new input is picked up. {@link WakeUpBenchmark} measures the wake-up latency against
+ * real input and the CPU time the waiting costs.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WaitStrategyBenchmark {
+
+    @Param({"spin", "yield", "park", "block"})
+    public String strategy;
+
+    private WaitStrategy wait;
+
+    @Setup
+    public void setup() {
+        switch (strategy) {
+            case "spin":
+                wait = new BusySpinWaitStrategy();
+                break;
+            case "yield":
+                wait = new YieldingWaitStrategy();
+                break;
+            case "park":
+                wait = new ParkingWaitStrategy();
+                break;
+            default:
+                wait = new BlockingWaitStrategy();
+        }
+    }
+
+    @Benchmark
+    public void idle() throws InterruptedException {
+        wait.idle(System.nanoTime());
+    }
+}
@@ -0,0 +1,46 @@
+package com.Jai2001.LineAudioMixer;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reports the CPU usage {@link WakeUpBenchmark} measured for its waiter in each iteration as the
+ * secondary results {@code ·busyCpu} and {@code ·idleCpu}, in percent of a core.
+ * <p>
+ * JMH sums {@code @AuxCounters} over the iterations, which makes no sense for a share of a core,
+ * so the values are handed over here and averaged instead. Enable it with
+ * {@code -prof com.Jai2001.LineAudioMixer.WaiterCpuProfiler}; the results then appear in the
+ * summary and in {@code -rf json} like any other secondary result.
+ */
+public class WaiterCpuProfiler implements InternalProfiler {
+
+    @Override
+    public String getDescription() {
+        return "CPU usage of the WakeUpBenchmark waiter, in percent of a core";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams,
+                                                       IterationResult result) {
+        double busy = WakeUpBenchmark.busyCpu;
+        double idle = WakeUpBenchmark.idleCpu;
+        WakeUpBenchmark.busyCpu = Double.NaN;
+        WakeUpBenchmark.idleCpu = Double.NaN;
+        if (Double.isNaN(busy) || Double.isNaN(idle)) return Collections.emptyList();
+        return List.of(new ScalarResult("busyCpu", busy, "%", AggregationPolicy.AVG),
+                new ScalarResult("idleCpu", idle, "%", AggregationPolicy.AVG));
+    }
+}
@@ -0,0 +1,156 @@
+package com.Jai2001.LineAudioMixer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Both sides of the trade-off of every {@link WaitStrategy}: how long a loop waiting with it
+ * takes to notice new input, and how much CPU it burns while doing so.
+ * <p>
+ * A waiter thread runs the same loop as the exchanger, calling {@link WaitStrategy#idle(long)}
+ * and then checking for input. Each operation publishes a new input and waits until the waiter
+ * has picked it up, so the score is the wake-up latency plus one unpark of the benchmark
+ * thread, which is the same for every strategy. Like a capture thread, the benchmark thread
+ * signals the waiter for the blocking strategy.
+ * <p>
+ * The CPU time of the waiter is read from {@link ThreadMXBean} over every iteration and over
+ * half a second without any input after it, in percent of a core. Run with
+ * {@code -prof com.Jai2001.LineAudioMixer.WaiterCpuProfiler} to get them as the secondary
+ * results {@code busyCpu} and {@code idleCpu}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WakeUpBenchmark {
+
+    /**How long the waiter is left without input to measure its idle CPU usage.*/
+    private static final long IDLE_MILLIS = 500;
+
+    @Param({"spin", "yield", "park", "block"})
+    public String strategy;
+
+    private WaitStrategy wait;
+    private Thread waiter;
+    private volatile Thread producer;
+    private volatile boolean running;
+    private volatile long published;
+    private volatile long seen;
+    private ThreadMXBean threads;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (strategy) {
+            case "spin":
+                wait = new BusySpinWaitStrategy();
+                break;
+            case "yield":
+                wait = new YieldingWaitStrategy();
+                break;
+            case "park":
+                wait = new ParkingWaitStrategy();
+                break;
+            default:
+                wait = new BlockingWaitStrategy();
+        }
+        threads = ManagementFactory.getThreadMXBean();
+        running = true;
+        waiter = new Thread(new loop(), "Waiter");
+        waiter.setDaemon(true);
+        waiter.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(waiter);
+        waiter.join(1000);
+    }
+
+    /**
+     * CPU usage of the waiter over the last iteration, in percent of a core, NaN until measured.
+     * Read and reset by {@link WaiterCpuProfiler}.
+     */
+    static volatile double busyCpu = Double.NaN;
+
+    /**
+     * CPU usage of the waiter without input after the last iteration, in percent of a core,
+     * NaN until measured. Read and reset by {@link WaiterCpuProfiler}.
+     */
+    static volatile double idleCpu = Double.NaN;
+
+    private long cpuStart;
+    private long wallStart;
+
+    @Setup(Level.Iteration)
+    public void startCpu() {
+        cpuStart = threads.getThreadCpuTime(waiter.getId());
+        wallStart = System.nanoTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopCpu() throws InterruptedException {
+        busyCpu = cpuShare();
+        startCpu();
+        Thread.sleep(IDLE_MILLIS);
+        idleCpu = cpuShare();
+    }
+
+    /**
+     * @return The CPU time of the waiter since {@link #startCpu()}, in percent of the wall time.
+     */
+    private double cpuShare() {
+        long used = threads.getThreadCpuTime(waiter.getId()) - cpuStart;
+        return used * 100.0 / Math.max(1, System.nanoTime() - wallStart);
+    }
+
+    @Benchmark
+    public long wakeUp() {
+        producer = Thread.currentThread();
+        long stamp = System.nanoTime();
+        published = stamp;
+        if (wait.blocksOnRead()) LockSupport.unpark(waiter);
+        while (seen != stamp) LockSupport.park(this);
+        return stamp;
+    }
+
+    /**
+     * The exchanger's loop without the exchange: wait, then pick up whatever was published.
+     */
+    private class loop implements Runnable {
+        public void run() {
+            long loopStart = System.nanoTime();
+            while (running) {
+                try {
+                    wait.idle(loopStart);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                loopStart = System.nanoTime();
+                long stamp = published;
+                if (stamp != seen) {
+                    seen = stamp;
+                    LockSupport.unpark(producer);
+                }
+            }
+        }
+    }
+}
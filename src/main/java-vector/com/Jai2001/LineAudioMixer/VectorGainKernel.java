@@ -0,0 +1,58 @@
+package com.Jai2001.LineAudioMixer;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteOrder;
+
+/**
+ * VectorGainKernel is the {@link GainKernel} built on the incubating Vector API.
+ * <p>
+ * Samples are loaded as shorts, widened to longs, multiplied by the fixed point gain,
+ * shifted back and clamped to the 16 bit range before being narrowed again, so the output
+ * is identical to the scalar loop of {@link SampleCodec.Pcm16LittleEndian}. The short species is chosen
+ * so it has as many lanes as the preferred long species, which keeps every conversion a
+ * single shape change.
+ * <p>
+ * This class is only compiled by the {@code vector} profile and only loaded when the
+ * {@code jdk.incubator.vector} module is present at runtime.
+ */
+class VectorGainKernel implements GainKernel {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    private static final VectorSpecies<Short> SHORTS =
+            ShortVector.SPECIES_64.withShape(VectorShape.forBitSize(Math.max(64, LONGS.vectorBitSize() / 4)));
+
+    private static final int STEP = SHORTS.length() * 2;
+
+    VectorGainKernel() {
+        if (SHORTS.length() != LONGS.length()) throw new IllegalStateException("No matching short species");
+    }
+
+    @Override
+    public void scale(byte[] source, byte[] target, int targetOffset, int bytes, int gain) {
+        int end = bytes - bytes % 2;
+        int i = 0;
+        for (; i + STEP <= end; i += STEP) {
+            ShortVector samples = ShortVector.fromByteArray(SHORTS, source, i, ByteOrder.LITTLE_ENDIAN);
+            LongVector scaled = ((LongVector) samples.convertShape(VectorOperators.S2L, LONGS, 0))
+                    .mul(gain)
+                    .lanewise(VectorOperators.ASHR, AudioConsumer.GAIN_BITS)
+                    .max(Short.MIN_VALUE)
+                    .min(Short.MAX_VALUE);
+            ((ShortVector) scaled.convertShape(VectorOperators.L2S, SHORTS, 0))
+                    .intoByteArray(target, targetOffset + i, ByteOrder.LITTLE_ENDIAN);
+        }
+        for (; i < end; i += 2) {
+            short combined = (short) ((source[i] & 0xff) | ((source[i + 1] & 0xff) << 8));
+            long scaled = ((long) combined * gain) >> AudioConsumer.GAIN_BITS;
+            combined = (short) (scaled > Short.MAX_VALUE ? Short.MAX_VALUE : Math.max(scaled, Short.MIN_VALUE));
+            target[targetOffset + i] = (byte) combined;
+            target[targetOffset + i + 1] = (byte) (combined >> 8);
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.Jai2001.LineAudioMixer;
 
+import com.Jai2001.LineAudioMixer.Monitoring.ConsumerStats;
+import com.Jai2001.LineAudioMixer.Processing.ProcessorChain;
 
+import javax.management.ObjectName;
 import javax.sound.sampled.SourceDataLine;
+import java.util.Arrays;
 
 /**
  * AudioConsumer represents an audio output stream with volume control.
@@ -10,29 +14,125 @@ import javax.sound.sampled.SourceDataLine;
  * and the original byte array for the audio data.
  * <p>
  * The volume property controls the volume scaling applied to the samples
- * before writing them to the output line.
+ * before writing them to the output line. It is applied as a Q16 fixed point gain
+ * with saturation, so loud settings clip instead of wrapping around.
+ * <p>
+ * Volume changes made through {@link #setVolume(double)} are handed to the audio thread
+ * through a volatile target gain, and the next block ramps linearly from the old gain
+ * to the new one to avoid zipper noise.
  * <p>
  * The adjustVolume() method reads samples from the original byte array,
- * combines the stereo samples, scales them by the volume, and writes them
- * to the buffer.
+ * decodes them with the {@link SampleCodec} of the input format, scales them
+ * by the gain, and writes them to the buffer.
+ * <p>
+ * Consumers of one stream that would produce the same block share it through
+ * {@link #process(int, AudioConsumer[], int)}: only the first of them runs the gain, and a
+ * consumer at unity gain without a permutation mixes the stream's block directly.
+ * <p>
+ * A {@link ChannelMatrix} maps the input's channels to the output's. Permutations are copied
+ * in the gain pass, other matrices are applied by the {@link MixBus} on decoded samples.
+ * <p>
+ * A {@link ProcessorChain} of effects can be attached to run after the gain, on the
+ * decoded block just before it is mixed.
  * <p>
- * This buffer can then be written to the SourceDataLine for playback.
+ * While a {@link LevelMeter} is set, the peak and RMS level of every block after the gain are
+ * measured in the same pass that applies the gain. Without a meter nothing is measured.
+ * <p>
+ * This buffer is then mixed into the {@link MixBus} of its output, which writes it to
+ * the SourceDataLine for playback. The bus tracks how much audio is queued in the output and
+ * steers it towards the lowest latency the device sustains, see {@link #getLatency()}.
  */
 public class AudioConsumer {
+    /**Vectorized gain kernel, or null if the scalar loop is used.*/
+    static final GainKernel KERNEL = GainKernel.vectorized();
+
+    /**Number of fractional bits of the fixed point gain.*/
+    public static final int GAIN_BITS = 16;
+
+    /**Fixed point gain of a volume of 1.*/
+    public static final int UNITY_GAIN = 1 << GAIN_BITS;
+
     public SourceDataLine line;
 
-    /**The volume scaling factor applied to samples.*/
-    public double volume;
+    /**The volume scaling factor applied to samples, only to be changed through {@link #setVolume(double)}.*/
+    public volatile double volume;
+
+    /**Fixed point gain requested by the last call to {@link #setVolume(double)}.*/
+    private volatile int targetGain;
+
+    /**Fixed point gain the last block ended at, only touched by the audio thread.*/
+    private int gain;
 
-    /**Byte array containing the volume adjusted samples.*/
+    /**Byte array containing the volume adjusted samples, taken from the {@link BlockPool} the
+     * first time this consumer has to process a block itself.*/
     public byte[] buffer;
 
+    /**Pooled block backing {@link #buffer}, or null if none was needed yet.*/
+    private BlockPool.Block processed;
+
+    /**Reference to the pooled block backing {@link #original}, if it is pooled.*/
+    BlockPool.Block source;
+
     /**The original byte array containing the raw audio data.*/
     public final byte[] original;
 
-    public boolean swap = false;
+    /**Maps the input's channels to the output's, null if they pass through unchanged. Only
+     * replaced through {@link #setMatrix(ChannelMatrix)}.*/
+    private volatile ChannelMatrix matrix;
+
+    /**Format specialized kernels for the samples in {@link #original}.*/
+    public final SampleCodec codec;
+
+    /**The {@link MixBus} of the output this consumer is routed to, or null if not attached.*/
+    public MixBus bus;
+
+    /**Position in the bus accumulator this consumer's next block is mixed at.*/
+    int busCursor = 0;
+
+    /**Latency histograms of this route, assigned when it is added to a stream.*/
+    public ConsumerStats stats;
+
+    /**Name the stats are registered under with JMX.*/
+    ObjectName statsName;
+
+    /**Converts to the output's sample rate, or null if input and output rates match.*/
+    public Resampler resampler;
+
+    /**Scratch block the input is decoded into before resampling or processing, null if neither is used.*/
+    long[] decoded;
+
+    /**Scratch block a {@link ChannelMatrix.Kind#SPARSE} matrix writes its output channels to.*/
+    long[] remixed;
+
+    /**The output channels of a {@link ChannelMatrix.Kind#SPARSE} matrix encoded for the taps.*/
+    private byte[] remixedBlock;
+
+    /**Effects run on this route after the gain, or null. Replaced as a whole through
+     * {@link AudioDataStream#setConsumerChain(SourceDataLine, ProcessorChain)}.*/
+    volatile ProcessorChain chain;
+
+    /**Taps recording every block this consumer mixes.*/
+    volatile RecordingTap[] taps = RecordingTap.NONE;
+
+    /**Meter the levels of this route are published to, or null if nobody shows them.*/
+    private volatile LevelMeter meter;
+
+    /**The block produced by the last call to {@link #process(int, AudioConsumer[], int)}.*/
+    byte[] block;
+
+    /**Packed levels of the last {@link #block}, valid if {@link #blockMetered}.*/
+    private long blockLevels;
+    private boolean blockMetered;
 
-    public short swapBuffer = 0;
+    /**Number of bytes of the last {@link #block}, which differs from the input's if the matrix changes the channel count.*/
+    int blockBytes;
+
+    /**Channel matrix the last {@link #block} was produced with, the {@link MixBus} applies it if it is sparse.*/
+    ChannelMatrix blockMatrix;
+
+    /**Gain and target gain the last {@link #block} was produced with.*/
+    private int blockFrom;
+    private int blockTo;
 
     /**
      * Constructs an AudioConsumer.
@@ -40,45 +140,255 @@ public class AudioConsumer {
      * @param line The SourceDataLine for audio output.
      * @param volume The initial volume scaling factor.
      * @param original A byte array that should always contain the raw audio data pre-adjustment.
+     * @param codec The {@link SampleCodec} for the format of the raw audio data.
      */
-    public AudioConsumer(SourceDataLine line, double volume, byte[] original){
+    public AudioConsumer(SourceDataLine line, double volume, byte[] original, SampleCodec codec){
         this.line = line;
-        this.volume = volume;
+        this.codec = codec;
         this.original = original;
-        this.buffer = new byte[original.length];
+        setVolume(volume);
+        this.gain = targetGain;
+    }
+
+    /**
+     * Converts a volume scaling factor to a Q16 fixed point gain.
+     *
+     * Gains within one step of {@link #UNITY_GAIN} are snapped to it, so rounding in the
+     * volume curve doesn't cost a consumer its pass-through.
+     *
+     * @param volume The volume scaling factor.
+     * @return The fixed point gain, clamped to the range of an int.
+     */
+    public static int toFixedPoint(double volume){
+        long fixed = Math.max(0, Math.min(Integer.MAX_VALUE, Math.round(volume * UNITY_GAIN)));
+        return Math.abs(fixed - UNITY_GAIN) <= 1 ? UNITY_GAIN : (int) fixed;
+    }
+
+    /**
+     * Sets the volume scaling factor. Safe to call from any thread, the audio thread
+     * ramps to the new gain over its next block.
+     *
+     * @param volume The new volume scaling factor.
+     */
+    public void setVolume(double volume){
+        this.volume = volume;
+        this.targetGain = toFixedPoint(volume);
     }
 
     /**
      * Adjusts the volume of audio samples and writes them to the buffer.
      * <p>
-     * This iterates through the provided number of samples from the original
-     * byte array. It combines the interleaved stereo samples into a single
-     * short value, scales that value by the volume property, then writes the
-     * adjusted samples to the buffer field.
+     * This iterates through the provided number of bytes from the original
+     * byte array using the {@link SampleCodec} picked for the input format,
+     * scales every sample by the gain, then writes the adjusted samples to
+     * the buffer field in the same format.
+     * <p>
+     * If the volume changed since the last block the gain is ramped across this block.
+     * A {@link ChannelMatrix.Kind#PERMUTATION} matrix is applied on the way, copying the
+     * samples into their output channels before they are scaled in place.
      *
-     * @param samples The number of samples to process.
+     * @param samples The number of bytes to process.
      */
     public void adjustVolume(int samples) {
-        if(samples!=0) {
-            swapBuffer = original[0];
-            for (int i = 0; i < samples; i+=2) {
-                short right = original[i+1];
-                short left= original[i];
-                right = (short) ((right & 0xff) << 8);
-                left = (short) (left & 0xff);
-                short combined = (short) (right | left) ;
-                combined = (short) (combined * volume);
-                if(swap){
-                    short next = combined;
-                    combined = swapBuffer;
-                    swapBuffer = next;
-                }
-                buffer[i] = (byte) combined;
-                buffer[i+1] = (byte) (combined >> 8);
+        adjustVolume(samples, targetGain, matrix, false);
+    }
+
+    private long adjustVolume(int samples, int target, ChannelMatrix routing, boolean measure) {
+        if(samples == 0) return 0;
+        int bytes = samples;
+        byte[] from = original;
+        int capacity = routing == null ? original.length : original.length / routing.inputs * Math.max(routing.inputs, routing.outputs);
+        if(processed == null || processed.data.length < capacity){
+            if(processed != null) processed.release();
+            processed = BlockPool.SHARED.acquire(capacity);
+            buffer = processed.data;
+        }
+        if(routing != null && routing.kind == ChannelMatrix.Kind.PERMUTATION){
+            int frames = samples / (codec.sampleBytes * routing.inputs);
+            routing.permute(original, buffer, frames, codec.sampleBytes);
+            bytes = frames * routing.outputs * codec.sampleBytes;
+            from = buffer;
+        }
+        long levels = 0;
+        if(measure) levels = codec.applyGainAndMeasure(from, buffer, 0, bytes, gain, target);
+        else if(from != buffer || gain != UNITY_GAIN || target != UNITY_GAIN) codec.applyGain(from, buffer, 0, bytes, gain, target);
+        gain = target;
+        blockBytes = bytes;
+        return levels;
+    }
 
+    /**
+     * Produces the block this consumer mixes into its bus, sharing work with the other
+     * consumers of the same stream.
+     * <p>
+     * A consumer at unity gain that is not ramping and has no permutation to apply returns
+     * the stream's block itself. Otherwise, if one of the consumers processed before it in
+     * this iteration started from the same gain, ramped to the same target and uses the same
+     * {@link ChannelMatrix}, its block is returned. Only if neither applies is
+     * {@link #adjustVolume(int)} run. A {@link ChannelMatrix.Kind#SPARSE} matrix is applied
+     * later by the {@link MixBus}, on decoded samples.
+     * <p>
+     * With a {@link LevelMeter} set, the levels come from the gain pass, from the peer whose
+     * block is shared if it measured it, or else from a pass over the block.
+     *
+     * @param samples The number of bytes to process.
+     * @param peers The consumers of the same stream, in the order they are processed.
+     * @param index The index of this consumer in peers.
+     * @return The block to mix, valid until the next iteration, {@link #blockBytes} long.
+     */
+    public byte[] process(int samples, AudioConsumer[] peers, int index) {
+        int from = gain;
+        int target = targetGain;
+        ChannelMatrix routing = matrix;
+        blockFrom = from;
+        blockTo = target;
+        blockMatrix = routing;
+        blockMetered = false;
+        blockBytes = samples;
+        LevelMeter levels = meter;
+        boolean permute = routing != null && routing.kind == ChannelMatrix.Kind.PERMUTATION;
+        if(from == UNITY_GAIN && target == UNITY_GAIN && !permute){
+            if(levels != null) measured(levels, codec.measure(original, samples));
+            return block = original;
+        }
+        for (int i = 0; i < index; i++) {
+            AudioConsumer peer = peers[i];
+            if(peer.blockFrom == from && peer.blockTo == target && peer.original == original
+                    && (peer.blockMatrix == routing || (routing != null && routing.equals(peer.blockMatrix)))){
+                gain = target;
+                blockBytes = peer.blockBytes;
+                if(levels != null) measured(levels, peer.blockMetered ? peer.blockLevels : codec.measure(peer.block, blockBytes));
+                return block = peer.block;
             }
         }
+        if(levels != null) measured(levels, adjustVolume(samples, target, routing, true));
+        else adjustVolume(samples, target, routing, false);
+        return block = buffer;
+    }
+
+    /**
+     * Replaces the channel matrix of this route. Safe to call from any thread, it takes
+     * effect on the next block.
+     *
+     * @param matrix A matrix from the input's channels to the output's channels, or null to
+     * pass the channels through unchanged.
+     */
+    void setMatrix(ChannelMatrix matrix){
+        ChannelMatrix compiled = matrix == null || matrix.kind == ChannelMatrix.Kind.IDENTITY ? null : matrix;
+        if(compiled != null){
+            boolean sparse = compiled.kind == ChannelMatrix.Kind.SPARSE;
+            int capacity = original.length / codec.sampleBytes / compiled.inputs * Math.max(compiled.inputs, compiled.outputs);
+            if((sparse || decoded != null) && (decoded == null || decoded.length < capacity)) decoded = new long[capacity];
+            if(sparse && (remixed == null || remixed.length < capacity)) remixed = new long[capacity];
+            if(sparse && (remixedBlock == null || remixedBlock.length < capacity * codec.sampleBytes)) remixedBlock = new byte[capacity * codec.sampleBytes];
+        }
+        this.matrix = compiled;
+    }
+
+    /**
+     * @return The channel matrix of this route, null if the channels pass through unchanged.
+     */
+    public ChannelMatrix getMatrix(){
+        return matrix;
+    }
 
+    /**
+     * @return The number of channels this route delivers to its bus.
+     */
+    public int getChannels(){
+        ChannelMatrix routing = matrix;
+        return routing == null ? codec.format.getChannels() : routing.outputs;
+    }
 
+    private void measured(LevelMeter levels, long block) {
+        blockLevels = block;
+        blockMetered = true;
+        levels.add(block);
+    }
+
+    /**
+     * Starts or stops measuring the levels of this route. Safe to call from any thread, it
+     * takes effect on the next block.
+     *
+     * @param meter The meter to publish to, or null to stop measuring.
+     */
+    public void setMeter(LevelMeter meter){
+        this.meter = meter;
+    }
+
+    /**
+     * @return The meter the levels of this route are published to, or null.
+     */
+    public LevelMeter getMeter(){
+        return meter;
+    }
+
+    /**
+     * Starts recording every block this consumer mixes to a tap, after its gain and channel
+     * matrix but before its effects and resampling.
+     *
+     * @param tap A tap in the sample format and rate of the input with {@link #getChannels()}
+     * channels, not attached anywhere else. Set the matrix first, the tap does not follow it.
+     */
+    public synchronized void addTap(RecordingTap tap){
+        taps = RecordingTap.add(taps, tap);
+    }
+
+    /**
+     * Offers the last block to the taps of this route in its output channels. A block produced
+     * with a {@link ChannelMatrix.Kind#SPARSE} matrix still holds the input's channels, so it is
+     * run through the matrix first, in the scratch the {@link MixBus} overwrites when mixing it.
+     *
+     * @param current The taps of this route, not empty.
+     */
+    void offerToTaps(RecordingTap[] current){
+        byte[] tapped = block;
+        int bytes = blockBytes;
+        ChannelMatrix routing = blockMatrix;
+        if(routing != null && routing.kind == ChannelMatrix.Kind.SPARSE){
+            int count = bytes / codec.sampleBytes;
+            int frames = count / routing.inputs;
+            Arrays.fill(decoded, 0, count, 0);
+            codec.accumulate(block, bytes, decoded, 0);
+            routing.mix(decoded, frames, remixed);
+            codec.encode(remixed, frames * routing.outputs, remixedBlock);
+            tapped = remixedBlock;
+            bytes = frames * routing.outputs * codec.sampleBytes;
+        }
+        for (int t = 0; t < current.length; t++) current[t].offer(tapped, 0, bytes);
+    }
+
+    /**
+     * Stops recording to a tap. The tap can be closed afterwards.
+     *
+     * @param tap The tap to detach.
+     */
+    public synchronized void removeTap(RecordingTap tap){
+        taps = RecordingTap.remove(taps, tap);
+    }
+
+    /**
+     * Gives this consumer's blocks back to the {@link BlockPool}. Only called once the audio
+     * thread no longer uses the consumer.
+     */
+    void release(){
+        if(processed != null){
+            processed.release();
+            processed = null;
+            buffer = null;
+        }
+        if(source != null){
+            source.release();
+            source = null;
+        }
+    }
+
+    /**
+     * @return The controller steering the queue depth of this consumer's output, or null if
+     * it is not attached to a bus.
+     */
+    public LatencyController getLatency(){
+        MixBus current = bus;
+        return current == null ? null : current.getLatency();
     }
 }
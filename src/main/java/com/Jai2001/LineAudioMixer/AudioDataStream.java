@@ -1,19 +1,38 @@
 package com.Jai2001.LineAudioMixer;
 
+import com.Jai2001.LineAudioMixer.Monitoring.CaptureOverrunEvent;
+import com.Jai2001.LineAudioMixer.Monitoring.ConsumerStats;
+import com.Jai2001.LineAudioMixer.Monitoring.InputStallEvent;
+import com.Jai2001.LineAudioMixer.Monitoring.Jmx;
+import com.Jai2001.LineAudioMixer.Monitoring.StreamStats;
+import com.Jai2001.LineAudioMixer.Processing.ProcessorChain;
+
+import javax.management.ObjectName;
 import javax.sound.sampled.Line;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.TargetDataLine;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * AudioDataStream represents an audio stream with a {@link TargetDataLine} input
  * and multiple {@link SourceDataLine} outputs.
  * <p>
- * It contains a map of {@link AudioConsumer}s for each output, along with arrays
- * to store the map entries.
+ * It contains a map of {@link AudioConsumer}s for each output. Each consumer is mixed into
+ * the {@link MixBus} of its output.
+ * <p>
+ * Changes to the consumers are made while holding the lock of the {@link AudioExchanger}
+ * and published to its loop as a new {@link RoutingSnapshot}. Outputs and inputs that are
+ * no longer routed are only detached and closed once the loop has moved past them.
+ * <p>
+ * The buffer holds audio data read from the input before sending to outputs. Only whole frames
+ * are handed on, a partial frame left by a read is carried over to the start of the next one.
  * <p>
- * The buffer holds audio data read from the input before sending to outputs.
+ * With a fixed quantum every fill hands on exactly that many frames or nothing, collecting
+ * reads until a whole quantum is there, and the buffer and every block derived from it only
+ * hold one quantum instead of the input's whole buffer.
  * <p>
  * Consumers can be added, removed, and have their volume adjusted.
  * <p>
@@ -22,21 +41,77 @@ import java.util.HashMap;
  */
 public class AudioDataStream {
 
-    /**A {@link HashMap} mapping {@link Line.Info} to {@link AudioConsumer} for each audio output.*/
-    protected final HashMap<Line.Info, AudioConsumer> consumers;
+    /**Exponent of the volume curve, chosen so a linear volume of 1 is exactly unity gain.*/
+    private static final double DECIBEL_CURVE = Math.log(1000);
 
-    /**Array of {@link AudioConsumer} entries from the map.*/
-    protected AudioConsumer[] consumersList;
+    /**How long draining an output waits for its writer's queue, in nanoseconds.*/
+    private static final long DRAIN_TIMEOUT = 1_000_000_000L;
+
+    /**A map of {@link Line.Info} to {@link AudioConsumer} for each audio output, only changed while holding {@link #lock()}.*/
+    protected final ConcurrentHashMap<Line.Info, AudioConsumer> consumers;
 
     /**The {@link TargetDataLine} for audio input.*/
     protected final TargetDataLine input;
 
-    /**Byte array to hold audio data read from input.*/
+    /**Byte array to hold audio data read from input, at least as long as the input's buffer.*/
     protected final byte[] buffer;
 
+    /**Pooled block backing {@link #buffer}, also referenced by every consumer.*/
+    private final BlockPool.Block bufferBlock;
+
+    /**Whether {@link #stop()} was called, after which the stream can not be started again.*/
+    private boolean stopped;
+
+    /**Format specialized kernels for the input, shared by every consumer.*/
+    protected final SampleCodec codec;
+
     /**Flag indicating if the stream is running.*/
-    protected boolean started;
+    protected volatile boolean started;
+
+    /**Ring the capture thread writes into, or null when the exchanger reads the input directly.*/
+    protected final AudioRingBuffer ring;
+
+    /**Dedicated thread reading from the input, only used when {@link #ring} is present.*/
+    protected Thread captureThread;
+
+    /**Smallest whole number of frames a blocking read waits for, roughly a millisecond or one quantum.*/
+    protected final int minimumRead;
+
+    /**Size of a frame of the input in bytes.*/
+    protected final int frameSize;
+
+    /**Bytes every fill hands on in fixed quantum mode, or 0 to hand on whatever was read.*/
+    protected final int quantumBytes;
+
+    /**Bytes handed on by the last fill, the carried bytes follow them in the buffer.*/
+    private int handed;
+
+    /**Bytes read but not handed on yet, a partial frame or an incomplete quantum.*/
+    private int carry;
+
+    /**Latency histograms of this stream, published through JMX while it runs.*/
+    public final StreamStats stats;
+
+    /**Name the stats are registered under with JMX.*/
+    private ObjectName statsName;
+
+    /**The exchanger this stream belongs to, signalled whenever the capture thread queues input.*/
+    protected volatile AudioExchanger exchanger;
+
+    /**Flight recorder event of the current run of empty reads, or null while input is flowing.*/
+    private InputStallEvent stall;
 
+    /**Number of empty reads in the current run.*/
+    private long emptyReads;
+
+    /**Effects run on every block read before it reaches the consumers, or null.*/
+    private volatile ProcessorChain inputChain;
+
+    /**Scratch block the input is decoded into for the {@link #inputChain}.*/
+    private long[] inputDecoded;
+
+    /**Taps recording every block read, after the input chain.*/
+    private volatile RecordingTap[] taps = RecordingTap.NONE;
 
 
 
@@ -46,35 +121,129 @@ public class AudioDataStream {
      * @param input The TargetDataLine to read audio data from.
      */
     public AudioDataStream(TargetDataLine input) {
+        this(input, false);
+    }
+
+    /**
+     * Constructs an AudioDataStream with the given input TargetDataLine.
+     *
+     * @param input The TargetDataLine to read audio data from.
+     * @param threadedCapture Whether to read the input on its own capture thread into a
+     * {@link AudioRingBuffer} instead of from the exchange loop.
+     */
+    public AudioDataStream(TargetDataLine input, boolean threadedCapture) {
+        this(input, threadedCapture, 0);
+    }
+
+    /**
+     * Constructs an AudioDataStream with the given input TargetDataLine.
+     *
+     * @param input The TargetDataLine to read audio data from.
+     * @param threadedCapture Whether to read the input on its own capture thread into a
+     * {@link AudioRingBuffer} instead of from the exchange loop.
+     * @param quantum The number of frames every fill hands on, or 0 to hand on whatever the
+     * input delivered.
+     */
+    public AudioDataStream(TargetDataLine input, boolean threadedCapture, int quantum) {
+        if(quantum < 0) throw new IllegalArgumentException("Negative quantum " + quantum);
         this.input = input;
-        this.buffer = new byte[input.getBufferSize()];
-        consumers = new HashMap<>();
-        consumersList = new AudioConsumer[0];
+        this.frameSize = Math.max(1, input.getFormat().getFrameSize());
+        this.quantumBytes = quantum * frameSize;
+        this.bufferBlock = BlockPool.SHARED.acquire(quantum > 0 ? quantumBytes : input.getBufferSize());
+        this.buffer = bufferBlock.data;
+        this.codec = SampleCodec.forFormat(input.getFormat());
+        consumers = new ConcurrentHashMap<>();
         started = false;
+        stats = new StreamStats(input.getLineInfo().toString(), this::getCaptureOverruns);
+        ring = threadedCapture ? new AudioRingBuffer(input.getBufferSize() * 2) : null;
+        int frames = Math.max(1, (int) (input.getFormat().getFrameRate() / 1000));
+        int bufferSize = input.getBufferSize();
+        minimumRead = quantum > 0 ? quantumBytes : Math.min(frames * frameSize, bufferSize - bufferSize % frameSize);
     }
 
     /**
      * Adds an audio output consumer for the given SourceDataLine.
      * <p>
-     * Opens, starts, and creates an {@link AudioConsumer} for the output line.
-     * Adds it to the consumers map and list.
+     * Creates an {@link AudioConsumer} for the output line and attaches it to the
+     * {@link MixBus} for that output, which opens and starts the line if needed.
+     * Adds it to the consumers map and publishes the new routing.
      *
      * @param output The SourceDataLine to add as an output.
      * @throws LineUnavailableException If the line cannot be opened.
+     * @throws IllegalStateException If the stream was stopped.
      */
     public void addConsumer(SourceDataLine output) throws LineUnavailableException {
-        if(!output.isOpen()) output.open();
-        output.start();
-        AudioConsumer consumer = new AudioConsumer(output, scaleToDecibels(1), buffer);
-        consumers.putIfAbsent(output.getLineInfo(),consumer);
-        consumersList = consumers.values().toArray(new AudioConsumer[0]);
+        synchronized (lock()){
+            if(stopped) throw new IllegalStateException("Stream was stopped");
+            if(consumers.containsKey(output.getLineInfo())) return;
+            AudioConsumer consumer = new AudioConsumer(output, 1, buffer, codec);
+            MixBus bus = exchanger != null ? exchanger.getMixBus(output) : new MixBus(output);
+            bus.attach(consumer);
+            consumer.source = bufferBlock.retain();
+            consumer.stats = new ConsumerStats(input.getLineInfo().toString(), output.getLineInfo().toString(),
+                    () -> consumer.bus == null ? null : consumer.bus.writeTime, consumer::getLatency);
+            consumer.statsName = Jmx.register("Route", consumer.stats);
+            consumers.put(output.getLineInfo(),consumer);
+            publish();
+        }
+    }
+
+    /**
+     * @return The lock routing changes are made under, the exchanger's if this stream has one.
+     */
+    private Object lock(){
+        AudioExchanger owner = exchanger;
+        return owner != null ? owner : this;
+    }
+
+    /**
+     * Publishes the current consumers to the exchanger's loop, if this stream has an exchanger.
+     */
+    private void publish(){
+        AudioExchanger owner = exchanger;
+        if(owner != null) owner.publish();
+    }
+
+    /**
+     * Runs an action once the exchanger's loop no longer uses what it releases, or right away
+     * if this stream has no exchanger.
+     *
+     * @param action What to do with the released resources.
+     */
+    private void retire(Runnable action){
+        AudioExchanger owner = exchanger;
+        if(owner != null) owner.retire(action);
+        else action.run();
+    }
+
+    /**
+     * Unregisters a consumer that was dropped from the routing and detaches it from its
+     * {@link MixBus}, removing the bus from the exchanger if nothing else uses it. Its blocks
+     * go back to the {@link BlockPool}.
+     *
+     * @param consumer The consumer to release.
+     * @param drain Whether to let the output play out what is queued if this was the last
+     * consumer of its bus.
+     */
+    private void release(AudioConsumer consumer, boolean drain){
+        Jmx.unregister(consumer.statsName);
+        MixBus bus = consumer.bus;
+        if(bus != null){
+            if(drain && bus.contributors.length == 1) bus.drain(DRAIN_TIMEOUT);
+            synchronized (lock()){
+                if(bus.detach(consumer) && exchanger != null) exchanger.removeMixBus(bus);
+            }
+        }
+        consumer.release();
     }
 
     /**
      * Scales a linear volume value to decibels using an exponential scale.
      * <p>
      * The formula used is:
-     * <I>decibels = 0.001e<SUP>(6.908*linear)</SUP></I>
+     * <I>decibels = 0.001e<SUP>(ln(1000)*linear)</SUP></I>
+     * <p>
+     * The exponent is exactly ln(1000), about 6.908, so a linear volume of 1 maps to unity.
      * <p>
      * This scales the linear volume range, for example from 0.1 to 1.5 to an exponential
      * decibel range of -100 to ~31.63 dB.
@@ -86,7 +255,7 @@ public class AudioDataStream {
      * @return The volume in decibels upwards of -100dB.
      */
     public static double scaleToDecibels(double linear){
-        return linear < 0.1 ? 0: 0.001 * Math.exp(6.908 * linear);
+        return linear < 0.1 ? 0: 0.001 * Math.exp(DECIBEL_CURVE * linear);
     }
 
     /**
@@ -98,15 +267,151 @@ public class AudioDataStream {
      * @return The equivalent linear volume value.
      */
     public static double scaleFromDecibels(double exponential){
-        return Math.log(exponential* 1000)/6.908;
+        return Math.log(exponential* 1000)/DECIBEL_CURVE;
     }
 
+    /**
+     * Swaps the left and right channel of every pair on the given output consumer, see
+     * {@link ChannelMatrix#swap(int, int)}, or goes back to the channels the output started with.
+     *
+     * @param output The {@link SourceDataLine} of the consumer.
+     * @param swap Whether to swap.
+     */
     public void setSwapped(SourceDataLine output, boolean swap) {
-        if(consumers.containsKey(output.getLineInfo())){
-            consumers.get(output.getLineInfo()).swap = swap;
+        AudioConsumer consumer = consumers.get(output.getLineInfo());
+        if(consumer == null || consumer.bus == null) return;
+        int inputs = codec.format.getChannels();
+        int outputs = consumer.bus.getCodec().format.getChannels();
+        setConsumerMatrix(output, swap ? ChannelMatrix.swap(inputs, outputs) : ChannelMatrix.fit(inputs, outputs));
+    }
+
+    /**
+     * Replaces the channel matrix of the given output consumer. Takes effect on the next block
+     * without stopping the stream.
+     *
+     * @param output The {@link SourceDataLine} of the consumer.
+     * @param matrix A matrix from this stream's channels to the channels the output was opened
+     * with, or null to fit the channels as when the output was added.
+     * @throws IllegalArgumentException If the matrix does not match the channels of the input or the output.
+     */
+    public void setConsumerMatrix(SourceDataLine output, ChannelMatrix matrix){
+        synchronized (lock()){
+            AudioConsumer consumer = consumers.get(output.getLineInfo());
+            if(consumer == null || consumer.bus == null) return;
+            int inputs = codec.format.getChannels();
+            int outputs = consumer.bus.getCodec().format.getChannels();
+            if(matrix == null) matrix = ChannelMatrix.fit(inputs, outputs);
+            if(matrix.inputs != inputs || matrix.outputs != outputs){
+                throw new IllegalArgumentException("Expected a matrix from " + inputs + " to " + outputs + " channels but got "
+                        + matrix.inputs + " to " + matrix.outputs);
+            }
+            consumer.setMatrix(matrix);
         }
     }
 
+    /**
+     * @param output The {@link SourceDataLine} of the consumer.
+     * @return The channel matrix of the given output consumer, an identity matrix if its
+     * channels pass through unchanged, or null if the output is not attached.
+     */
+    public ChannelMatrix getConsumerMatrix(SourceDataLine output){
+        AudioConsumer consumer = consumers.get(output.getLineInfo());
+        if(consumer == null) return null;
+        ChannelMatrix matrix = consumer.getMatrix();
+        return matrix != null ? matrix : ChannelMatrix.identity(codec.format.getChannels());
+    }
+
+    /**
+     * Replaces the effects run on the given output consumer after its gain. Takes effect on
+     * the next block without stopping the stream.
+     *
+     * @param output The {@link SourceDataLine} of the consumer.
+     * @param chain The effects, prepared here for this stream's format, or null to remove
+     * them. Must not be used by another consumer or stream.
+     */
+    public void setConsumerChain(SourceDataLine output, ProcessorChain chain){
+        AudioConsumer consumer = consumers.get(output.getLineInfo());
+        if(consumer == null) return;
+        if(chain != null){
+            int inputs = codec.format.getChannels();
+            int channels = consumer.getChannels();
+            int frames = buffer.length / codec.sampleBytes / inputs;
+            int capacity = frames * Math.max(inputs, channels);
+            if(consumer.decoded == null || consumer.decoded.length < capacity) consumer.decoded = new long[capacity];
+            chain.prepare(codec.format.getSampleRate(), channels, frames);
+        }
+        consumer.chain = chain;
+    }
+
+    /**
+     * Starts or stops measuring the levels of the given output consumer, after its gain.
+     *
+     * @param output The {@link SourceDataLine} of the consumer.
+     * @param meter The meter the levels are published to, or null to stop measuring.
+     */
+    public void setConsumerMeter(SourceDataLine output, LevelMeter meter){
+        AudioConsumer consumer = consumers.get(output.getLineInfo());
+        if(consumer != null) consumer.setMeter(meter);
+    }
+
+    /**
+     * Replaces the effects run on every block read from the input, before any consumer sees
+     * it. Takes effect on the next block without stopping the stream.
+     *
+     * @param chain The effects, prepared here for this stream's format, or null to remove
+     * them. Must not be used by another consumer or stream.
+     */
+    public void setInputChain(ProcessorChain chain){
+        if(chain != null){
+            int channels = codec.format.getChannels();
+            if(inputDecoded == null) inputDecoded = new long[buffer.length / codec.sampleBytes];
+            chain.prepare(codec.format.getSampleRate(), channels, inputDecoded.length / channels);
+        }
+        inputChain = chain;
+    }
+
+    /**
+     * Starts recording every block read from the input, after its effects, to a tap.
+     *
+     * @param tap A tap in the format of the input, not attached anywhere else.
+     */
+    public synchronized void addTap(RecordingTap tap){
+        taps = RecordingTap.add(taps, tap);
+    }
+
+    /**
+     * Stops recording the input to a tap. The tap can be closed afterwards.
+     *
+     * @param tap The tap to detach.
+     */
+    public synchronized void removeTap(RecordingTap tap){
+        taps = RecordingTap.remove(taps, tap);
+    }
+
+    /**
+     * Starts recording every block of a route to a tap, after its gain and channel matrix but
+     * before its effects and resampling, see {@link AudioConsumer#addTap(RecordingTap)}.
+     *
+     * @param output The {@link SourceDataLine} of the consumer to record.
+     * @param tap A tap in the sample format and rate of the input with the route's
+     * {@link AudioConsumer#getChannels()} channels, not attached anywhere else.
+     */
+    public void addTap(SourceDataLine output, RecordingTap tap){
+        AudioConsumer consumer = consumers.get(output.getLineInfo());
+        if(consumer != null) consumer.addTap(tap);
+    }
+
+    /**
+     * Stops recording a route to a tap. The tap can be closed afterwards.
+     *
+     * @param output The {@link SourceDataLine} of the recorded consumer.
+     * @param tap The tap to detach.
+     */
+    public void removeTap(SourceDataLine output, RecordingTap tap){
+        AudioConsumer consumer = consumers.get(output.getLineInfo());
+        if(consumer != null) consumer.removeTap(tap);
+    }
+
     /**
      * Sets the volume for the given output consumer.
      *
@@ -120,9 +425,8 @@ public class AudioDataStream {
 
 
     public void setConsumerVolume(SourceDataLine output, double volume){
-        if(consumers.containsKey(output.getLineInfo())){
-            consumers.get(output.getLineInfo()).volume = scaleToDecibels(volume);;
-        }
+        AudioConsumer consumer = consumers.get(output.getLineInfo());
+        if(consumer != null) consumer.setVolume(scaleToDecibels(volume));
     }
     /**
      * Gets the linear volume level for the given output consumer.
@@ -135,10 +439,8 @@ public class AudioDataStream {
      * {@link #scaleFromDecibels(double)}.
      */
     public double getConsumerVolume(SourceDataLine output){
-        if(consumers.containsKey(output.getLineInfo())){
-            return scaleFromDecibels(consumers.get(output.getLineInfo()).volume);
-        }
-        return -1;
+        AudioConsumer consumer = consumers.get(output.getLineInfo());
+        return consumer != null ? scaleFromDecibels(consumer.volume) : -1;
     }
 
     /**
@@ -146,14 +448,18 @@ public class AudioDataStream {
      *
      * @param output The {@link SourceDataLine} of the consumer to remove.
      * <p>
-     * This flushes and stops the output line, then removes it
-     * from the consumers map and list.
+     * This removes it from the consumers map and publishes the new routing. Once the loop
+     * has moved past it, the consumer is detached from its {@link MixBus}, which flushes and
+     * stops the output line if nothing else uses it. Removing the last consumer stops the stream.
      */
     public void removeConsumer(SourceDataLine output){
-        output.flush();
-        output.stop();
-        consumers.remove(output.getLineInfo());
-        consumersList = consumers.values().toArray(new AudioConsumer[0]);
+        synchronized (lock()){
+            AudioConsumer consumer = consumers.remove(output.getLineInfo());
+            if(consumer == null) return;
+            publish();
+            retire(() -> release(consumer, false));
+            if(consumers.isEmpty()) stop();
+        }
     }
 
     /**
@@ -163,32 +469,200 @@ public class AudioDataStream {
      * Sets the started flag to true.
      *
      * @throws LineUnavailableException If the input line cannot be opened.
+     * @throws IllegalStateException If the stream was stopped.
      */
     public void start() throws LineUnavailableException {
-        if(!started){
-            if(!input.isOpen()) input.open();
-            input.start();
-            started = true;
+        synchronized (lock()){
+            if(stopped) throw new IllegalStateException("Stream was stopped");
+            if(!started){
+                if(!input.isOpen()) input.open();
+                input.start();
+                started = true;
+                statsName = Jmx.register("Stream", stats);
+                if(ring != null){
+                    captureThread = new Thread(new capture(), "Capture " + input.getLineInfo());
+                    captureThread.setDaemon(true);
+                    captureThread.setPriority(Thread.MAX_PRIORITY);
+                    captureThread.start();
+                }
+                publish();
+            }
         }
+    }
+
+    /**
+     * Fills {@link #buffer} with the next block of input.
+     * <p>
+     * With threaded capture this drains whatever the capture thread has queued in the
+     * {@link #ring}, otherwise it reads whatever the input has available. Bytes carried over
+     * from the last fill come first. Only whole frames are handed on, and in fixed quantum mode
+     * only a whole quantum, the rest is carried over to the next fill.
+     * <p>
+     * If an input {@link ProcessorChain} is set, the block is decoded, run through it and
+     * encoded back in place. The result is then offered to every {@link RecordingTap}.
+     * <p>
+     * A run of reads that return nothing is reported as an {@link InputStallEvent} once data
+     * arrives again.
+     *
+     * @param block Whether a direct read should wait for at least {@link #minimumRead} bytes
+     * instead of only taking what is already available.
+     * @return The number of bytes placed in the buffer, or -1 if the input has reached its end.
+     */
+    public int fill(boolean block) {
+        int carried = carry;
+        if(carried > 0 && handed > 0) System.arraycopy(buffer, handed, buffer, 0, carried);
+        int limit = quantumBytes > 0 ? quantumBytes : buffer.length - buffer.length % frameSize;
+        int room = limit - carried;
+        int read;
+        if(ring != null){
+            read = quantumBytes > 0 && ring.available() < room ? 0 : ring.read(buffer, carried, room);
+        }else{
+            int request = input.available();
+            if(block && request < minimumRead) request = minimumRead;
+            request = Math.min(request, room);
+            request -= request % frameSize;
+            read = request > 0 ? input.read(buffer, carried, request) : 0;
+        }
+        if(read == -1){
+            carry = 0;
+            handed = 0;
+            return -1;
+        }
+        int total = carried + read;
+        int bytesRead = quantumBytes > 0 ? (total >= quantumBytes ? quantumBytes : 0) : total - total % frameSize;
+        carry = total - bytesRead;
+        handed = bytesRead;
+        ProcessorChain chain = inputChain;
+        if(chain != null && bytesRead > 0){
+            int count = bytesRead / codec.sampleBytes;
+            long[] decoded = inputDecoded;
+            Arrays.fill(decoded, 0, count, 0);
+            codec.accumulate(buffer, bytesRead, decoded, 0);
+            chain.process(decoded, count / codec.format.getChannels());
+            codec.encode(decoded, count, buffer);
+        }
+        if(bytesRead > 0){
+            RecordingTap[] current = taps;
+            for (int i = 0; i < current.length; i++) current[i].offer(buffer, 0, bytesRead);
+        }
+        if(bytesRead == 0){
+            if(stall == null){
+                stall = new InputStallEvent();
+                stall.begin();
+            }
+            emptyReads++;
+        }else if(stall != null){
+            if(stall.shouldCommit()){
+                stall.line = input.getLineInfo().toString();
+                stall.emptyReads = emptyReads;
+                stall.commit();
+            }
+            stall = null;
+            emptyReads = 0;
+        }
+        return bytesRead;
+    }
 
+    /**
+     * @return The number of blocks the capture thread dropped because the ring was full,
+     * always zero without threaded capture.
+     */
+    public long getCaptureOverruns(){
+        return ring == null ? 0 : ring.getOverruns();
+    }
+
+    /**
+     * @return Whether another whole quantum is waiting, so the next fill will not come back empty.
+     * Always false outside fixed quantum mode, where a fill takes everything available.
+     */
+    boolean hasQuantum(){
+        if(quantumBytes == 0) return false;
+        int waiting = ring != null ? ring.available() : input.available();
+        return carry + waiting >= quantumBytes;
+    }
+
+    /**
+     * @return The number of frames every fill hands on, or 0 if it hands on whatever was read.
+     */
+    public int getQuantum(){
+        return quantumBytes / frameSize;
     }
 
     /**
      * Stops the audio stream and closes the lines.
      * <p>
-     * Loops through and drains each {@link AudioConsumer} output.
-     * Clears the consumers map and list.
-     * <p>
-     * Stops and closes the input {@link TargetDataLine} if active.
+     * Clears the consumers map, removes the stream from its exchanger and publishes the new
+     * routing. Once the loop has moved past the stream, each {@link AudioConsumer} output is
+     * drained if nothing else uses it and detached, then the input {@link TargetDataLine} is
+     * stopped and closed and the stream's block goes back to the {@link BlockPool}. Stopping
+     * a stream again does nothing.
      */
     public void stop(){
-        started = false;
-        for (AudioConsumer output : consumers.values()) {
-            output.line.drain();
+        synchronized (lock()){
+            if(stopped) return;
+            stopped = true;
+            started = false;
+            AudioConsumer[] released = consumers.values().toArray(new AudioConsumer[0]);
+            consumers.clear();
+            ObjectName name = statsName;
+            statsName = null;
+            Thread capturing = captureThread;
+            captureThread = null;
+            if(exchanger != null) exchanger.removeSyncedStream(this);
+            publish();
+            retire(() -> {
+                Jmx.unregister(name);
+                for (AudioConsumer output : released) {
+                    release(output, true);
+                }
+                if(input.isActive())input.stop();
+                input.close();
+                if(capturing != null) capturing.interrupt();
+                bufferBlock.release();
+            });
+        }
+    }
+
+    /**
+     * Inner class that runs the capture loop when threaded capture is enabled.
+     */
+    private class capture implements Runnable {
+        /**
+         * Reads from the input into a private block and hands each block to the {@link #ring}.
+         * <p>
+         * Each read asks for whatever is available, but never less than roughly a millisecond of
+         * whole frames, so the thread blocks inside the driver instead of spinning. In fixed
+         * quantum mode each read asks for exactly one quantum.
+         */
+        public void run(){
+            BlockPool.Block pooled = BlockPool.SHARED.acquire(Math.max(minimumRead, input.getBufferSize()));
+            byte[] block = pooled.data;
+            int bytesRead;
+            AudioExchanger owner;
+            Thread waiting;
+            try {
+                while (started && !Thread.currentThread().isInterrupted()){
+                    int request = quantumBytes > 0 ? quantumBytes : Math.min(Math.max(input.available(), minimumRead), block.length);
+                    request -= request % frameSize;
+                    bytesRead = input.read(block, 0, request);
+                    if(bytesRead == -1) break;
+                    if(bytesRead <= 0) continue;
+                    if(ring.write(block, 0, bytesRead)){
+                        owner = exchanger;
+                        if(owner != null && (waiting = owner.exchangeThread) != null) LockSupport.unpark(waiting);
+                    }else{
+                        CaptureOverrunEvent overrun = new CaptureOverrunEvent();
+                        if(overrun.shouldCommit()){
+                            overrun.line = input.getLineInfo().toString();
+                            overrun.dropped = bytesRead;
+                            overrun.commit();
+                        }
+                    }
+                }
+            } finally {
+                pooled.release();
+            }
         }
-        consumers.clear();
-        if(input.isActive())input.stop();
-        input.close();
     }
 
 }
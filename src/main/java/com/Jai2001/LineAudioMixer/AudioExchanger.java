@@ -1,8 +1,20 @@
 package com.Jai2001.LineAudioMixer;
 
+import com.Jai2001.LineAudioMixer.Monitoring.ExchangerStats;
+import com.Jai2001.LineAudioMixer.Monitoring.Jmx;
+import com.Jai2001.LineAudioMixer.Monitoring.LoopOverrunEvent;
+
+import javax.management.ObjectName;
 import javax.sound.sampled.Line;
+import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.TargetDataLine;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * AudioExchanger is used to synchronize multiple audio streams.
@@ -11,23 +23,69 @@ import java.util.concurrent.ConcurrentHashMap;
  * of their {@link TargetDataLine}.
  * <p>
  * When a new TargetDataLine is passed to {@code getSyncedStream()}, if no existing
- * AudioDataStream exists for it, a new one is created and added to the map. All the
- * streams are stored in the {@code producerList} array.
+ * AudioDataStream exists for it, a new one is created and added to the map.
+ * <p>
+ * The main loop does not read that map. Every change to the routing, made while holding the
+ * exchanger's lock, publishes a new immutable {@link RoutingSnapshot} that the loop picks up
+ * at the start of its next iteration without locking. Lines and buses dropped from the
+ * routing are handed to {@link #retire(Runnable)}, and only closed once the loop has moved
+ * past every snapshot that still referenced them.
  * <p>
  * The main loop iterates through each producer AudioDataStream, reads available data
  * from the TargetDataLine into a buffer, then writes that buffer to each subscribed
- * consumer.
+ * consumer's {@link MixBus}. After every producer was read, each bus hands the sum of
+ * its consumers to the {@link OutputWriter} of its output once. Every output is written on
+ * its own thread, so a device blocking in its write never stalls the loop.
+ * <p>
+ * With threaded capture each stream reads its input on its own capture thread into a
+ * lock-free {@link AudioRingBuffer}, and the main loop only drains those rings, so a slow
+ * device no longer holds up the others.
+ * <p>
+ * What the loop does between iterations is decided by a {@link WaitStrategy}, which can be
+ * swapped at runtime to trade CPU usage against latency.
  * <p>
- * Sleeping can be toggled on/off. When on, the thread sleeps based on the time since
- * the last loop iteration and estimated time per loop iteration.
+ * With a fixed quantum every stream hands on exactly that many frames per iteration, so every
+ * stage processes blocks of the same size and latency no longer depends on how much a device
+ * happened to have available. While a stream still has another whole quantum waiting the loop
+ * runs the next iteration right away instead of waiting.
  * <p>
- * Statistics like loop duration, sleep time, etc. can also be measured when enabled.
+ * Statistics like loop duration and transfer time can also be measured when enabled.
+ * Latency histograms of the loop, every stream, route and output are always recorded and
+ * published through JMX, see {@link ExchangerStats}. Loop periods over a threshold, stalled
+ * inputs, starved outputs and short writes are emitted as Java Flight Recorder events, see
+ * the {@code Monitoring} package. Those are filtered by JFR itself and cost next to nothing
+ * while no recording has them enabled.
  */
 public class AudioExchanger {
     final ConcurrentHashMap<Line.Info, AudioDataStream> syncedStreams;
-    static AudioDataStream[] producerList;
-    boolean allowSleep;
-    boolean allowMeasure;
+    final ConcurrentHashMap<Line.Info, MixBus> mixBuses;
+
+    /**The routing the main loop runs, replaced as a whole on every change.*/
+    volatile RoutingSnapshot routing;
+
+    /**Value of {@link #activeEpoch} between iterations.*/
+    private static final long IDLE = Long.MAX_VALUE;
+
+    /**Value of {@link #activeEpoch} while an iteration has not read its snapshot yet.*/
+    private static final long ENTERING = Long.MIN_VALUE;
+
+    /**Epoch of the snapshot the running iteration uses.*/
+    private volatile long activeEpoch = IDLE;
+
+    /**Resources waiting for the main loop to move past the snapshot they were dropped from.*/
+    private final LinkedBlockingQueue<Retired> retired;
+
+    /**Thread closing retired resources, started on first use.*/
+    private Thread retirer;
+    volatile WaitStrategy waitStrategy;
+
+    /**What the writer of every output does when its queue is full.*/
+    private OutputWriter.OverflowPolicy overflowPolicy = OutputWriter.OverflowPolicy.DROP_OLDEST;
+    volatile boolean allowMeasure;
+    final boolean threadedCapture;
+
+    /**Frames every stream hands on per iteration, or 0 for whatever was available.*/
+    final int quantum;
     long timeSinceLast;
     long loopStart;
     long transferTime;
@@ -37,17 +95,60 @@ public class AudioExchanger {
 
     private boolean started;
 
+    /**Set by {@link #close()}, ends the main loop.*/
+    private volatile boolean closed;
+
+    /**Loop period histogram, published through JMX.*/
+    public final ExchangerStats stats;
+
+    /**Name the stats are registered under with JMX.*/
+    private final ObjectName statsName;
+
+    /**The thread running the main loop, signalled by capture threads when they queue input.*/
+    volatile Thread exchangeThread;
+
+    /**
+     * Constructs an AudioExchanger.
+     *
+     * @param waitStrategy What the main loop does between iterations, see {@link WaitStrategy}.
+     * It can be changed later via {@link #setWaitStrategy(WaitStrategy)}.
+     */
+    public AudioExchanger(WaitStrategy waitStrategy) {
+        this(waitStrategy, false);
+    }
+
     /**
      * Constructs an AudioExchanger.
      *
-     * @param sleep Whether to allow the main loop to sleep between iterations to
-     * reduce CPU usage. Sleeping can be toggled via {@link #toggleSleep(boolean)}.
+     * @param waitStrategy What the main loop does between iterations, see {@link WaitStrategy}.
+     * It can be changed later via {@link #setWaitStrategy(WaitStrategy)}.
+     * @param threadedCapture Whether every stream should capture on its own thread into a
+     * ring buffer that the main loop drains, instead of the main loop reading each input.
      */
-    public AudioExchanger(boolean sleep) {
+    public AudioExchanger(WaitStrategy waitStrategy, boolean threadedCapture) {
+        this(waitStrategy, threadedCapture, 0);
+    }
+
+    /**
+     * Constructs an AudioExchanger.
+     *
+     * @param waitStrategy What the main loop does between iterations, see {@link WaitStrategy}.
+     * It can be changed later via {@link #setWaitStrategy(WaitStrategy)}.
+     * @param threadedCapture Whether every stream should capture on its own thread into a
+     * ring buffer that the main loop drains, instead of the main loop reading each input.
+     * @param quantum The number of frames every stream hands on per iteration, for example
+     * 64, 128 or 256, or 0 to hand on whatever each input has available.
+     */
+    public AudioExchanger(WaitStrategy waitStrategy, boolean threadedCapture, int quantum) {
+        if(quantum < 0) throw new IllegalArgumentException("Negative quantum " + quantum);
+        this.threadedCapture = threadedCapture;
+        this.quantum = quantum;
         syncedStreams = new ConcurrentHashMap<>();
-        producerList = new AudioDataStream[0];
-        allowSleep = sleep;
-        allowMeasure = sleep;
+        mixBuses = new ConcurrentHashMap<>();
+        routing = RoutingSnapshot.EMPTY;
+        retired = new LinkedBlockingQueue<>();
+        this.waitStrategy = waitStrategy;
+        allowMeasure = false;
         timeSinceLast = 0;
         loopStart = 0;
         transferTime = 0;
@@ -55,6 +156,8 @@ public class AudioExchanger {
         maxWait = 0;
         infoBuilder = new StringBuilder();
         started = false;
+        stats = new ExchangerStats(() -> this.waitStrategy, () -> routing.producers.length);
+        statsName = Jmx.register("Exchanger", stats);
     }
 
     /**
@@ -69,15 +172,34 @@ public class AudioExchanger {
         started = true;
         Runnable loop = new doExchange();
         if(background){
-            Thread exchanger = new Thread(loop);
+            Thread exchanger = new Thread(loop, "Exchanger");
             exchanger.setDaemon(daemon);
+            exchangeThread = exchanger;
             exchanger.start();
         }else {
+            exchangeThread = Thread.currentThread();
             loop.run();
         }
 
     }
 
+    /**
+     * Stops every stream, ends the main loop after its current iteration and unregisters the
+     * stats from JMX, which would otherwise keep the exchanger and its buffers reachable.
+     * The exchanger can not be started again.
+     */
+    public void close(){
+        closed = true;
+        for (AudioDataStream stream : new ArrayList<>(syncedStreams.values())) {
+            stream.stop();
+        }
+        synchronized (this) {
+            // Runs after everything retired before it, then ends the retirer.
+            if(retirer != null) retire(() -> Thread.currentThread().interrupt());
+        }
+        Jmx.unregister(statsName);
+    }
+
     /**
      * Gets an {@link AudioDataStream} that is synchronized with the other streams.
      * <p>
@@ -87,29 +209,244 @@ public class AudioExchanger {
      * @param input The TargetDataLine to synchronize.
      * @return The AudioDataStream for the given input TargetDataLine.
      */
-    public AudioDataStream getSyncedStream(TargetDataLine input) {
+    public synchronized AudioDataStream getSyncedStream(TargetDataLine input) {
         Line.Info key = input.getLineInfo();
         AudioDataStream syncedStream = syncedStreams.get(key);
         if (syncedStream == null) {
-            syncedStream = new AudioDataStream(input);
+            syncedStream = new AudioDataStream(input, threadedCapture, quantum);
+            syncedStream.exchanger = this;
             syncedStreams.put(key, syncedStream);
-            producerList = syncedStreams.values().toArray(new AudioDataStream[0]);
         }
         maxWait = Math.max(maxWait,(long) 1e9 / (long) input.getFormat().getSampleRate());
         return syncedStream;
     }
 
     /**
-     * Toggles whether the main loop is allowed to sleep between iterations.
+     * Gets the {@link MixBus} for an output, creating it if no input is routed to it yet.
+     *
+     * @param output The SourceDataLine the bus should write to.
+     * @return The MixBus shared by every consumer of that output.
+     */
+    public synchronized MixBus getMixBus(SourceDataLine output) {
+        return mixBuses.computeIfAbsent(output.getLineInfo(), info -> {
+            MixBus bus = new MixBus(output);
+            bus.setOverflowPolicy(overflowPolicy);
+            return bus;
+        });
+    }
+
+    /**
+     * Sets what the writer of every output, current and future, does when its queue is full.
+     *
+     * @param policy The new {@link OutputWriter.OverflowPolicy}.
+     */
+    public synchronized void setOverflowPolicy(OutputWriter.OverflowPolicy policy) {
+        overflowPolicy = policy;
+        for (MixBus bus : mixBuses.values()) bus.setOverflowPolicy(policy);
+    }
+
+    /**
+     * @return What the writer of every output does when its queue is full.
+     */
+    public synchronized OutputWriter.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Removes a {@link MixBus} that no longer has any consumers.
+     *
+     * @param bus The bus to remove.
+     */
+    synchronized void removeMixBus(MixBus bus) {
+        mixBuses.remove(bus.getLine().getLineInfo(), bus);
+    }
+
+    /**
+     * Removes a stream that was stopped, so the next request for its input creates a new one.
      *
-     * @param measure Whether to collect timing statistics. Statistics will only be
-     * collected if sleeping is enabled.
-     * @return The new value of allowSleep after toggling.
+     * @param stream The stream to remove.
      */
-    public boolean toggleSleep(boolean measure) {
+    synchronized void removeSyncedStream(AudioDataStream stream) {
+        syncedStreams.remove(stream.input.getLineInfo(), stream);
+    }
+
+    /**
+     * Builds a {@link RoutingSnapshot} of every started stream with consumers and publishes it
+     * to the main loop. Called after every change to the routing, while holding this
+     * exchanger's lock.
+     */
+    synchronized void publish() {
+        List<AudioDataStream> producers = new ArrayList<>();
+        List<AudioConsumer[]> consumers = new ArrayList<>();
+        Map<MixBus, List<AudioConsumer>> contributors = new LinkedHashMap<>();
+        for (AudioDataStream stream : syncedStreams.values()) {
+            if(!stream.started || stream.consumers.isEmpty()) continue;
+            AudioConsumer[] list = stream.consumers.values().toArray(new AudioConsumer[0]);
+            producers.add(stream);
+            consumers.add(list);
+            for (AudioConsumer consumer : list) {
+                if(consumer.bus != null) contributors.computeIfAbsent(consumer.bus, bus -> new ArrayList<>()).add(consumer);
+            }
+        }
+        routing = new RoutingSnapshot(routing.epoch + 1,
+                producers.toArray(new AudioDataStream[0]),
+                consumers.toArray(new AudioConsumer[0][]),
+                contributors.keySet().toArray(new MixBus[0]),
+                contributors.values().stream().map(list -> list.toArray(new AudioConsumer[0])).toArray(AudioConsumer[][]::new));
+    }
+
+    /**
+     * Runs an action once the main loop no longer uses the current or any older snapshot.
+     * <p>
+     * Used to close lines and detach buses that were just dropped from the routing. The
+     * action runs on a separate thread, so it may block.
+     *
+     * @param action What to do with the retired resources.
+     */
+    synchronized void retire(Runnable action) {
+        retired.add(new Retired(routing.epoch, action));
+        if(retirer == null){
+            retirer = new Thread(new reclaim(), "Retirer");
+            retirer.setDaemon(true);
+            retirer.start();
+        }
+    }
+
+    /**
+     * An action waiting for the main loop to reach an epoch.
+     */
+    private static class Retired {
+        final long epoch;
+        final Runnable action;
+
+        Retired(long epoch, Runnable action) {
+            this.epoch = epoch;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Inner class that runs retired actions once the main loop has moved past them.
+     */
+    private class reclaim implements Runnable {
+        public void run(){
+            while (true){
+                Retired next;
+                try {
+                    next = retired.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (activeEpoch < next.epoch){
+                    LockSupport.parkNanos(this, 100_000L);
+                }
+                try {
+                    next.action.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets what the main loop does between iterations. Takes effect on the next iteration.
+     *
+     * @param waitStrategy The new {@link WaitStrategy}.
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * @return The {@link WaitStrategy} currently used by the main loop.
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Sets whether the main loop collects the timing statistics shown by {@link #getExtraInfo()}.
+     *
+     * @param measure Whether to collect timing statistics.
+     */
+    public void setMeasure(boolean measure) {
         allowMeasure = measure;
-        allowSleep = !allowSleep;
-        return allowSleep;
+    }
+
+    /**
+     * Runs a single iteration of the exchange loop without waiting.
+     * <p>
+     * The iteration runs on the {@link RoutingSnapshot} current when it starts, and announces
+     * its epoch so retired resources of older snapshots can be closed.
+     * <p>
+     * Iterates through each producer AudioDataStream and reads available data, or drains its
+     * capture ring, into a buffer. Each subscribed consumer then processes the buffer, sharing
+     * blocks with consumers of identical settings, and mixes it into its {@link MixBus}.
+     * Finally every bus queues its mix for the writer of its output once.
+     *
+     * @param blockingRead Whether direct reads should wait for a minimum amount of input.
+     * @return Whether a stream in fixed quantum mode already has its next quantum waiting.
+     */
+    boolean exchange(boolean blockingRead){
+        int bytesRead;
+        AudioDataStream stream;
+        AudioConsumer output;
+        byte[] block;
+        RecordingTap[] taps;
+        MixBus bus;
+        activeEpoch = ENTERING;
+        RoutingSnapshot snapshot = routing;
+        activeEpoch = snapshot.epoch;
+        long previousStart = loopStart;
+        loopStart = System.nanoTime();
+        if(previousStart != 0) stats.loopPeriod.record(loopStart - previousStart);
+        transferTime = 0;
+        boolean backlog = false;
+        long readStart;
+        long processStart;
+        long consumerStart;
+        long consumerEnd;
+        AudioDataStream[] producers = snapshot.producers;
+        for (int j = 0, producerLength = producers.length; j < producerLength; j++) {
+            stream = producers[j];
+            readStart = System.nanoTime();
+            if(allowMeasure) pollStart = readStart;
+            if ((bytesRead = stream.fill(blockingRead)) != -1) {
+                processStart = System.nanoTime();
+                stream.stats.readTime.record(processStart - readStart);
+                consumerStart = processStart;
+                AudioConsumer[] consumersList = snapshot.consumers[j];
+                for (int i = 0, consumersListLength = consumersList.length; i < consumersListLength; i++) {
+                    output = consumersList[i];
+                    block = output.process(bytesRead, consumersList, i);
+                    taps = output.taps;
+                    if(taps.length > 0) output.offerToTaps(taps);
+                    if((bus = output.bus) != null) bus.mix(output, block, output.blockBytes);
+                    consumerEnd = System.nanoTime();
+                    output.stats.processTime.record(consumerEnd - consumerStart);
+                    consumerStart = consumerEnd;
+                }
+                stream.stats.processTime.record(consumerStart - processStart);
+                if(allowMeasure)
+                    transferTime += consumerStart - pollStart;
+                if(bytesRead > 0 && stream.hasQuantum()) backlog = true;
+            }
+        }
+        long writeStart = System.nanoTime();
+        long writeEnd;
+        if(allowMeasure) pollStart = writeStart;
+        MixBus[] buses = snapshot.buses;
+        for (int j = 0, busLength = buses.length; j < busLength; j++) {
+            buses[j].flush(snapshot.contributors[j]);
+            writeEnd = System.nanoTime();
+            buses[j].writeTime.record(writeEnd - writeStart);
+            writeStart = writeEnd;
+        }
+        if(allowMeasure) transferTime += writeStart - pollStart;
+        if(allowMeasure) timeSinceLast = writeStart - loopStart;
+        activeEpoch = IDLE;
+        return backlog;
     }
 
     /**
@@ -119,49 +456,39 @@ public class AudioExchanger {
         /**
          * Runs the main loop that exchanges audio data between the synchronized streams.
          * <p>
-         * The loop iterates through each producer AudioDataStream and reads available data into
-         * a buffer. It then writes the buffer to each subscribed consumer AudioDataStream.
+         * Every iteration is one call to {@link #exchange(boolean)}. Between iterations the
+         * current {@link WaitStrategy} decides how to wait. A strategy that blocks on read makes
+         * direct reads wait for input instead, and measurement can be enabled to collect timing
+         * stats. In fixed quantum mode the wait is skipped while a quantum is already waiting.
          * <p>
-         * Sleeping and measurement can be enabled to reduce CPU usage and collect timing stats.
+         * A {@link LoopOverrunEvent} spans the wait and the exchange of every iteration. It never
+         * leaves the iteration, so with the event disabled the JIT removes the allocation.
          */
         public void run(){
-            int bytesRead;
-            AudioDataStream stream;
-            AudioConsumer output;
-            while (true){
-                if(allowSleep){
-                    int delay = (int) (timeSinceLast - transferTime);
-                    delay = delay < 0 || delay > maxWait * producerList.length ? 0 : delay;
+            WaitStrategy strategy;
+            boolean blockingRead;
+            boolean backlog = false;
+            LoopOverrunEvent period;
+            RoutingSnapshot snapshot;
+            while (!closed){
+                period = new LoopOverrunEvent();
+                period.begin();
+                strategy = waitStrategy;
+                blockingRead = strategy.blocksOnRead() && !threadedCapture;
+                if(!blockingRead && !backlog){
                     try {
-                        Thread.sleep(0L, delay);
+                        strategy.idle(loopStart);
                     } catch (InterruptedException e) {
                         throw new RuntimeException(e);
                     }
                 }
-                loopStart = System.nanoTime();
-                transferTime = 0;
-                for (int j = 0, producerLength = AudioExchanger.producerList.length; j < producerLength; j++) {
-                    stream = AudioExchanger.producerList[j];
-                    if(stream.started){
-                        if (stream.consumers.isEmpty()) {
-                            stream.stop();
-                            syncedStreams.remove(stream.input.getLineInfo());
-                        } else {
-                            if(allowMeasure) pollStart = System.nanoTime();
-                            bytesRead = stream.input.available();
-                            if ((bytesRead = stream.input.read(stream.buffer, 0, bytesRead)) != -1) {
-                                for (int i = 0, consumersListLength = stream.consumersList.length; i < consumersListLength; i++) {
-                                    output = stream.consumersList[i];
-                                    output.adjustVolume(bytesRead);
-                                    output.line.write(output.buffer, 0, bytesRead);
-                                }
-                                if(allowMeasure)
-                                    transferTime += System.nanoTime() - pollStart;
-                            }
-                        }
-                    }
+                backlog = exchange(blockingRead);
+                if(period.shouldCommit()){
+                    snapshot = routing;
+                    period.streams = snapshot.producers.length;
+                    period.outputs = snapshot.buses.length;
+                    period.commit();
                 }
-                if(allowMeasure) timeSinceLast = System.nanoTime() - loopStart;
             }
         }
 
@@ -175,6 +502,7 @@ public class AudioExchanger {
      *     <li>Average loop duration</li>
      *     <li>Average sleep time</li>
      *     <li>Total audio transfer time</li>
+     *     <li>99th percentile of the loop period</li>
      *     <li>Other stats if enabled</li>
      * </ul>
      */
@@ -186,9 +514,26 @@ public class AudioExchanger {
         infoBuilder.append(timeSinceLast);
         infoBuilder.append(", Transfer Time: ");
         infoBuilder.append(transferTime);
+        infoBuilder.append(", Loop Period p99: ");
+        infoBuilder.append(stats.loopPeriod.percentile(0.99));
         return infoBuilder.toString();
     }
 
+    /**
+     * @return The number of frames every stream hands on per iteration, or 0 if streams hand on
+     * whatever their input has available.
+     */
+    public int getQuantum(){
+        return quantum;
+    }
+
+    /**
+     * @return Whether streams created by this exchanger capture on their own threads.
+     */
+    public boolean isThreadedCapture(){
+        return threadedCapture;
+    }
+
     public boolean isStarted(){
         return started;
     }
@@ -0,0 +1,81 @@
+package com.Jai2001.LineAudioMixer;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * AudioLines finds devices and their lines through {@link AudioSystem}.
+ * <p>
+ * Shared by the window and the headless launcher, so both pick the same line of a device.
+ */
+public final class AudioLines {
+
+    private AudioLines() {
+    }
+
+    /**
+     * Gets the first line of a device that is of the given class.
+     *
+     * @param device The device to get the line from. It is opened if needed.
+     * @param targetClass The class of line wanted, usually {@code TargetDataLine} or {@code SourceDataLine}.
+     * @return The line, not yet opened.
+     * @throws LineUnavailableException If the device has no line of that class.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends DataLine> T getLine(Mixer device, Class<T> targetClass) throws LineUnavailableException {
+        device.open();
+        Line.Info[] inputs = device.getSourceLineInfo();
+        Line.Info[] outputs = device.getTargetLineInfo();
+        Stream<Line.Info> both = Stream.concat(Arrays.stream(inputs),Arrays.stream(outputs));
+        both = both.filter(o-> o.getLineClass() == targetClass);
+        Optional<Line.Info> potentialMatch = both.findFirst();
+        if(potentialMatch.isEmpty()) throw new LineUnavailableException();
+        return (T) device.getLine(potentialMatch.get());
+    }
+
+    /**
+     * Gets the first line of a device that is of the given class, or null if it has none.
+     *
+     * @param device The device to get the line from.
+     * @param targetClass The class of line wanted.
+     * @return The line, or null.
+     */
+    public static <T extends DataLine> T getLineOrNull(Mixer device, Class<T> targetClass){
+        try {
+            return getLine(device, targetClass);
+        } catch (LineUnavailableException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds a device by name that supports lines of the given class, among the devices of
+     * the {@link DeviceRegistry}.
+     * <p>
+     * An exact match of the name wins, otherwise the first device whose name contains the
+     * given name, ignoring case, is used.
+     *
+     * @param name The name of the device as shown in the device lists.
+     * @param lineClass The class of line the device must support.
+     * @return The device.
+     * @throws LineUnavailableException If no device matches.
+     */
+    public static Mixer findMixer(String name, Class<? extends DataLine> lineClass) throws LineUnavailableException {
+        List<DeviceRegistry.Device> candidates = DeviceRegistry.SHARED.getDevices(lineClass);
+        for (DeviceRegistry.Device device : candidates) {
+            if(device.getName().equals(name)) return device.mixer;
+        }
+        String lowered = name.toLowerCase();
+        for (DeviceRegistry.Device device : candidates) {
+            if(device.getName().toLowerCase().contains(lowered)) return device.mixer;
+        }
+        throw new LineUnavailableException("No " + lineClass.getSimpleName() + " device named " + name);
+    }
+}
@@ -0,0 +1,109 @@
+package com.Jai2001.LineAudioMixer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AudioRingBuffer is a preallocated, lock-free single-producer/single-consumer byte ring.
+ * <p>
+ * Exactly one thread may call {@link #write(byte[], int, int)} and exactly one other thread
+ * may call {@link #read(byte[], int, int)}. The read and write positions are published with
+ * ordered stores so neither side ever takes a lock or allocates.
+ * <p>
+ * Writes are all-or-nothing: a block that does not fit is rejected and counted as an overrun,
+ * which keeps whole frames together as long as every block written is frame aligned.
+ */
+public class AudioRingBuffer {
+
+    /**Backing storage, sized to a power of two.*/
+    private final byte[] data;
+
+    /**Mask used to wrap the free running positions into {@link #data}.*/
+    private final int mask;
+
+    /**Total bytes ever read, only advanced by the consumer.*/
+    private final AtomicLong readPosition;
+
+    /**Total bytes ever written, only advanced by the producer.*/
+    private final AtomicLong writePosition;
+
+    /**Number of blocks rejected because the ring was full.*/
+    private final AtomicLong overruns;
+
+    /**
+     * Constructs an AudioRingBuffer.
+     *
+     * @param minimumCapacity The minimum number of bytes the ring should hold. The actual
+     * capacity is rounded up to the next power of two.
+     */
+    public AudioRingBuffer(int minimumCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minimumCapacity) - 1) << 1;
+        this.data = new byte[capacity];
+        this.mask = capacity - 1;
+        this.readPosition = new AtomicLong();
+        this.writePosition = new AtomicLong();
+        this.overruns = new AtomicLong();
+    }
+
+    /**
+     * Writes a block into the ring. Only to be called from the producer thread.
+     *
+     * @param src The array holding the block.
+     * @param offset The offset of the block in src.
+     * @param length The number of bytes to write.
+     * @return true if the block was written, false if there was not enough room.
+     */
+    public boolean write(byte[] src, int offset, int length) {
+        long write = writePosition.get();
+        if (data.length - (write - readPosition.get()) < length) {
+            overruns.incrementAndGet();
+            return false;
+        }
+        int start = (int) (write & mask);
+        int first = Math.min(length, data.length - start);
+        System.arraycopy(src, offset, data, start, first);
+        System.arraycopy(src, offset + first, data, 0, length - first);
+        writePosition.lazySet(write + length);
+        return true;
+    }
+
+    /**
+     * Reads up to length bytes out of the ring. Only to be called from the consumer thread.
+     *
+     * @param dst The array to copy into.
+     * @param offset The offset in dst to start at.
+     * @param length The maximum number of bytes to read.
+     * @return The number of bytes actually read, which may be zero.
+     */
+    public int read(byte[] dst, int offset, int length) {
+        long read = readPosition.get();
+        int count = (int) Math.min(length, writePosition.get() - read);
+        if (count <= 0) return 0;
+        int start = (int) (read & mask);
+        int first = Math.min(count, data.length - start);
+        System.arraycopy(data, start, dst, offset, first);
+        System.arraycopy(data, 0, dst, offset + first, count - first);
+        readPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * @return The number of bytes currently waiting to be read.
+     */
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * @return The capacity of the ring in bytes.
+     */
+    public int capacity() {
+        return data.length;
+    }
+
+    /**
+     * @return The number of blocks dropped because the ring was full.
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+}
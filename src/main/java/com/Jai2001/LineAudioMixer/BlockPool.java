@@ -0,0 +1,115 @@
+package com.Jai2001.LineAudioMixer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BlockPool hands out reference counted audio blocks in fixed power of two sizes.
+ * <p>
+ * Streams, consumers and capture threads take their blocks from the pool instead of
+ * allocating them, and give them back when they are retired. Adding and removing pipes
+ * repeatedly then reuses the same blocks instead of creating garbage, and the memory in use
+ * follows the number of blocks actually needed rather than the number of routes.
+ * <p>
+ * Blocks are heap arrays. {@code TargetDataLine.read} and {@code SourceDataLine.write} only
+ * take {@code byte[]}, so direct buffers would cost an extra copy on every read and write.
+ */
+public final class BlockPool {
+
+    /**The pool shared by every stream.*/
+    public static final BlockPool SHARED = new BlockPool();
+
+    /**Smallest block handed out, smaller requests are rounded up to it.*/
+    public static final int MIN_BLOCK = 256;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BLOCK);
+
+    /**Free blocks per size class, class n holding blocks of {@code MIN_BLOCK << n} bytes.*/
+    private final ConcurrentLinkedQueue<Block>[] free;
+
+    private final AtomicLong allocated = new AtomicLong();
+
+    public BlockPool() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ConcurrentLinkedQueue<Block>[] classes = new ConcurrentLinkedQueue[31 - MIN_SHIFT];
+        for (int i = 0; i < classes.length; i++) classes[i] = new ConcurrentLinkedQueue<>();
+        free = classes;
+    }
+
+    /**
+     * Takes a block of at least the given size from the pool, allocating one if none is free.
+     *
+     * @param bytes The smallest size needed.
+     * @return A block with a reference count of one, to be given back through {@link Block#release()}.
+     */
+    public Block acquire(int bytes) {
+        int sizeClass = sizeClass(bytes);
+        Block block = free[sizeClass].poll();
+        if(block == null){
+            block = new Block(this, sizeClass, new byte[MIN_BLOCK << sizeClass]);
+            allocated.addAndGet(block.data.length);
+        }
+        block.refs.set(1);
+        return block;
+    }
+
+    private static int sizeClass(int bytes) {
+        if(bytes <= MIN_BLOCK) return 0;
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * @return The total size in bytes of every block this pool allocated.
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * @return The number of blocks currently free in the pool.
+     */
+    public int getFree() {
+        int count = 0;
+        for (ConcurrentLinkedQueue<Block> queue : free) count += queue.size();
+        return count;
+    }
+
+    /**
+     * A block of samples owned by everyone holding a reference to it.
+     */
+    public static final class Block {
+
+        /**The samples, at least as long as requested.*/
+        public final byte[] data;
+
+        private final BlockPool pool;
+        private final int sizeClass;
+        private final AtomicInteger refs = new AtomicInteger();
+
+        private Block(BlockPool pool, int sizeClass, byte[] data) {
+            this.pool = pool;
+            this.sizeClass = sizeClass;
+            this.data = data;
+        }
+
+        /**
+         * Adds a reference, which must later be given back through {@link #release()}.
+         *
+         * @return This block.
+         */
+        public Block retain() {
+            if(refs.getAndIncrement() <= 0) throw new IllegalStateException("Block was already released");
+            return this;
+        }
+
+        /**
+         * Gives back a reference, returning the block to its pool when it was the last.
+         */
+        public void release() {
+            int left = refs.decrementAndGet();
+            if(left == 0) pool.free[sizeClass].offer(this);
+            else if(left < 0) throw new IllegalStateException("Block was released too often");
+        }
+    }
+}
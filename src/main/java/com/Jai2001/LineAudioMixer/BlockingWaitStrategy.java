@@ -0,0 +1,47 @@
+package com.Jai2001.LineAudioMixer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * BlockingWaitStrategy lets the exchange loop wait for input instead of polling for it.
+ * <p>
+ * When the exchanger reads its inputs directly, each read blocks inside the driver until at
+ * least a minimum block is available, so no extra waiting is needed. With threaded capture
+ * the exchange thread parks until a capture thread signals that it queued a block, with the
+ * given timeout as a safety net.
+ * <p>
+ * This uses the least CPU. With direct reads one quiet device delays the others, so it pairs
+ * best with threaded capture.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+    /**Longest time to park without being signalled, in nanoseconds.*/
+    private final long timeout;
+
+    /**
+     * Constructs a BlockingWaitStrategy with a timeout of {@link ParkingWaitStrategy#DEFAULT_PERIOD}.
+     */
+    public BlockingWaitStrategy() {
+        this(ParkingWaitStrategy.DEFAULT_PERIOD);
+    }
+
+    /**
+     * Constructs a BlockingWaitStrategy.
+     *
+     * @param timeout The longest time to park without being signalled, in nanoseconds.
+     */
+    public BlockingWaitStrategy(long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void idle(long loopStart) throws InterruptedException {
+        LockSupport.parkNanos(this, timeout);
+        if (Thread.interrupted()) throw new InterruptedException();
+    }
+
+    @Override
+    public boolean blocksOnRead() {
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package com.Jai2001.LineAudioMixer;
+
+/**
+ * BusySpinWaitStrategy never gives up the CPU between iterations.
+ * <p>
+ * This keeps one core at 100% but picks up new input as soon as the driver makes it
+ * available, which gives the lowest and least jittery latency. Best suited to dedicated
+ * machines with cores to spare.
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public void idle(long loopStart) {
+        Thread.onSpinWait();
+    }
+}
@@ -0,0 +1,384 @@
+package com.Jai2001.LineAudioMixer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ChannelMatrix maps the channels of an input to the channels of an output, each output
+ * channel being the sum of any input channels, each with its own gain.
+ * <p>
+ * The matrix is compiled once into the cheapest kernel that implements it:
+ * <ul>
+ *     <li>{@link Kind#IDENTITY} when every channel goes to itself at unity gain. Nothing runs at all.</li>
+ *     <li>{@link Kind#PERMUTATION} when every output channel is a copy of exactly one input channel at
+ *     unity gain, like swapping left and right or picking two channels out of eight. Whole samples
+ *     are copied in the input's format by {@link #permute(byte[], byte[], int, int)}.</li>
+ *     <li>{@link Kind#SPARSE} otherwise. Only the non-zero gains are kept, per output channel, and
+ *     {@link #mix(long[], int, long[])} multiplies and adds them on decoded samples.</li>
+ * </ul>
+ * Gains are Q16 fixed point, like the volume of an {@link AudioConsumer}, but may be negative
+ * to invert a channel's phase. A matrix never changes, routes replace theirs as a whole.
+ */
+public final class ChannelMatrix {
+
+    /**Views of byte arrays as whole samples, in the native byte order since samples are only moved.*/
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    /**Shift of the first and second 16 bit sample of a native order int.*/
+    private static final int FIRST = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 16;
+    private static final int SECOND = 16 - FIRST;
+
+    /**
+     * The kernels a matrix can compile to.
+     */
+    public enum Kind {
+        IDENTITY,
+        PERMUTATION,
+        SPARSE
+    }
+
+    /**Number of input channels.*/
+    public final int inputs;
+
+    /**Number of output channels.*/
+    public final int outputs;
+
+    /**Kernel the matrix compiled to.*/
+    public final Kind kind;
+
+    /**Input channel of every output channel, for {@link Kind#PERMUTATION}.*/
+    private final int[] sourceOf;
+
+    /**Byte offset in an input frame of the sample every output channel copies, for 16 and 32
+     * bit samples. Null unless the matrix is a {@link Kind#PERMUTATION}.*/
+    private final int[] shortOffsets;
+    private final int[] intOffsets;
+
+    /**If every pair of output channels comes from an aligned pair of input channels, the input
+     * pair of each output pair and whether it is swapped, so 16 bit samples move two at a time.
+     * Null otherwise.*/
+    private final int[] pairSource;
+    private final int[] pairRotation;
+
+    /**Whether every pair of channels is swapped in place, the left and right swap of any layout.*/
+    private final boolean swapsPairs;
+
+    /**Entries of output channel o are start[o] to start[o + 1] of input and gain, for {@link Kind#SPARSE}.*/
+    private final int[] start;
+    private final int[] input;
+    private final long[] gain;
+
+    /**
+     * Constructs a ChannelMatrix.
+     *
+     * @param gains The linear gain from every input channel to every output channel, indexed
+     * {@code gains[output][input]}, zero where nothing is routed.
+     */
+    public ChannelMatrix(double[][] gains) {
+        this.outputs = gains.length;
+        this.inputs = outputs == 0 ? 0 : gains[0].length;
+        if(outputs == 0 || inputs == 0) throw new IllegalArgumentException("A channel matrix needs at least one input and one output");
+        int entries = 0;
+        boolean permutation = true;
+        boolean identity = inputs == outputs;
+        int[] sources = new int[outputs];
+        for (int o = 0; o < outputs; o++) {
+            if(gains[o].length != inputs) throw new IllegalArgumentException("Row " + o + " has " + gains[o].length + " inputs instead of " + inputs);
+            int used = 0;
+            for (int i = 0; i < inputs; i++) {
+                long fixed = toGain(gains[o][i]);
+                if(fixed == 0) continue;
+                entries++;
+                used++;
+                sources[o] = i;
+                if(fixed != AudioConsumer.UNITY_GAIN) permutation = false;
+                if(i != o || fixed != AudioConsumer.UNITY_GAIN) identity = false;
+            }
+            if(used != 1){
+                permutation = false;
+                identity = false;
+            }
+        }
+        kind = identity ? Kind.IDENTITY : permutation ? Kind.PERMUTATION : Kind.SPARSE;
+        sourceOf = kind == Kind.PERMUTATION ? sources : null;
+        shortOffsets = sourceOf == null ? null : new int[outputs];
+        intOffsets = sourceOf == null ? null : new int[outputs];
+        for (int o = 0; sourceOf != null && o < outputs; o++) {
+            shortOffsets[o] = sourceOf[o] * 2;
+            intOffsets[o] = sourceOf[o] * 4;
+        }
+        int[] pairs = sourceOf != null && outputs % 2 == 0 && inputs % 2 == 0 ? new int[outputs / 2] : null;
+        int[] rotations = pairs == null ? null : new int[pairs.length];
+        for (int k = 0; pairs != null && k < pairs.length; k++) {
+            int left = sourceOf[2 * k];
+            int right = sourceOf[2 * k + 1];
+            if((left ^ 1) != right){
+                pairs = null;
+                break;
+            }
+            pairs[k] = left & ~1;
+            rotations[k] = (left & 1) * 16;
+        }
+        pairSource = pairs;
+        pairRotation = pairs == null ? null : rotations;
+        boolean swapped = pairs != null && inputs == outputs;
+        for (int k = 0; swapped && k < pairs.length; k++) swapped = pairs[k] == 2 * k && rotations[k] == 16;
+        swapsPairs = swapped;
+        if(kind == Kind.SPARSE){
+            start = new int[outputs + 1];
+            input = new int[entries];
+            gain = new long[entries];
+            int n = 0;
+            for (int o = 0; o < outputs; o++) {
+                start[o] = n;
+                for (int i = 0; i < inputs; i++) {
+                    long fixed = toGain(gains[o][i]);
+                    if(fixed == 0) continue;
+                    input[n] = i;
+                    gain[n++] = fixed;
+                }
+            }
+            start[outputs] = n;
+        }else{
+            start = null;
+            input = null;
+            gain = null;
+        }
+    }
+
+    /**
+     * Converts a linear gain to Q16 fixed point like {@link AudioConsumer#toFixedPoint(double)},
+     * keeping its sign.
+     *
+     * @param linear The gain.
+     * @return The signed fixed point gain.
+     */
+    private static long toGain(double linear) {
+        return linear < 0 ? -(long) AudioConsumer.toFixedPoint(-linear) : AudioConsumer.toFixedPoint(linear);
+    }
+
+    /**
+     * @param channels The number of channels.
+     * @return The matrix passing every channel through unchanged.
+     */
+    public static ChannelMatrix identity(int channels) {
+        double[][] gains = new double[channels][channels];
+        for (int c = 0; c < channels; c++) gains[c][c] = 1;
+        return new ChannelMatrix(gains);
+    }
+
+    /**
+     * Swaps the channels of every left and right pair, 0 with 1, 2 with 3 and so on. An odd last
+     * channel stays where it is.
+     *
+     * @param channels The number of channels.
+     * @return The matrix swapping the pairs.
+     */
+    public static ChannelMatrix swap(int channels) {
+        return swap(channels, channels);
+    }
+
+    /**
+     * Fits the input to the output's channels like {@link #fit(int, int)}, with the channels of
+     * every left and right pair of the output swapped.
+     *
+     * @param inputs The number of input channels.
+     * @param outputs The number of output channels.
+     * @return The matrix.
+     */
+    public static ChannelMatrix swap(int inputs, int outputs) {
+        double[][] gains = new double[outputs][inputs];
+        for (int o = 0; o < outputs; o++) {
+            int partner = (o ^ 1) < outputs ? o ^ 1 : o;
+            if(inputs == 1) gains[o][0] = 1;
+            else if(partner < inputs) gains[o][partner] = 1;
+        }
+        return new ChannelMatrix(gains);
+    }
+
+    /**
+     * The matrix a route uses when none was given: a mono input goes to every output channel,
+     * otherwise channel n goes to channel n and channels without a counterpart are dropped or
+     * stay silent.
+     *
+     * @param inputs The number of input channels.
+     * @param outputs The number of output channels.
+     * @return The matrix.
+     */
+    public static ChannelMatrix fit(int inputs, int outputs) {
+        double[][] gains = new double[outputs][inputs];
+        for (int o = 0; o < outputs; o++) {
+            if(inputs == 1) gains[o][0] = 1;
+            else if(o < inputs) gains[o][o] = 1;
+        }
+        return new ChannelMatrix(gains);
+    }
+
+    /**
+     * Parses a matrix written as comma separated {@code input:output} or
+     * {@code input:output:gain} entries with zero based channels, for example {@code 0:1, 1:0}
+     * to swap stereo, {@code 0:0:0.5, 1:0:0.5} to fold it down to mono or
+     * {@code 0:0:0.5, 1:0:0.5, 0:1:0.5, 1:1:-0.5} to turn it into mid and side. Negative gains
+     * invert the phase.
+     *
+     * @param spec The entries.
+     * @param inputs The number of input channels.
+     * @param outputs The number of output channels.
+     * @return The matrix.
+     * @throws IllegalArgumentException If the entries are malformed or name a channel that does not exist.
+     */
+    public static ChannelMatrix parse(String spec, int inputs, int outputs) {
+        double[][] gains = new double[outputs][inputs];
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if(entry.isEmpty()) continue;
+            String[] parts = entry.split(":");
+            if(parts.length < 2 || parts.length > 3) throw new IllegalArgumentException("Malformed channel entry " + entry);
+            try {
+                int in = Integer.parseInt(parts[0].trim());
+                int out = Integer.parseInt(parts[1].trim());
+                if(in < 0 || in >= inputs || out < 0 || out >= outputs){
+                    throw new IllegalArgumentException("Channel entry " + entry + " is outside " + inputs + " inputs and " + outputs + " outputs");
+                }
+                gains[out][in] += parts.length == 3 ? Double.parseDouble(parts[2].trim()) : 1;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed channel entry " + entry);
+            }
+        }
+        return new ChannelMatrix(gains);
+    }
+
+    /**
+     * Copies whole samples from input channels to output channels, for {@link Kind#PERMUTATION}.
+     * <p>
+     * Swapping every pair rotates the block an int at a time. Aligned pairs of 16 bit samples
+     * move as one int, and so do the two 16 bit samples of a stereo output frame. Anything else
+     * is copied a frame at a time, each output sample read from its precomputed offset in the
+     * input frame, so both arrays are walked once front to back.
+     * <p>
+     * Not every permutation costs what a copy does. Measured on one core with
+     * {@code ChannelMatrixBenchmark} at 1024 frames, swapping takes about twice as long as
+     * copying the block. A pick gathers every sample on its own and can't be vectorized like a
+     * copy: picking 2 of 8 channels takes about 2.4 µs, against 0.23 µs for copying all 8. That
+     * is still around 0.01 % of the 21 ms the block lasts, and far below the sparse kernel with
+     * its decoding and encoding, which the permutation replaces.
+     *
+     * @param source Frames of {@link #inputs} samples.
+     * @param target The array frames of {@link #outputs} samples are written to, not source.
+     * @param frames The number of frames.
+     * @param sampleBytes The size of one sample.
+     */
+    public void permute(byte[] source, byte[] target, int frames, int sampleBytes) {
+        int[] sources = sourceOf;
+        int inFrame = inputs * sampleBytes;
+        int outFrame = outputs * sampleBytes;
+        int end = frames * outFrame;
+        if(pairSource != null && sampleBytes == 2){
+            if(swapsPairs){
+                for (int i = 0; i < end; i += 4) INT.set(target, i, Integer.rotateLeft((int) INT.get(source, i), 16));
+                return;
+            }
+            for (int k = 0; k < pairSource.length; k++) {
+                int rotation = pairRotation[k];
+                for (int in = pairSource[k] * 2, out = 4 * k; out < end; in += inFrame, out += outFrame) {
+                    INT.set(target, out, Integer.rotateLeft((int) INT.get(source, in), rotation));
+                }
+            }
+            return;
+        }
+        int channels = sources.length;
+        if(channels == 2 && sampleBytes == 2){
+            int left = shortOffsets[0];
+            int right = shortOffsets[1];
+            for (int in = 0, out = 0; out < end; in += inFrame, out += 4) {
+                INT.set(target, out, ((short) SHORT.get(source, in + left) & 0xFFFF) << FIRST
+                        | ((short) SHORT.get(source, in + right) & 0xFFFF) << SECOND);
+            }
+            return;
+        }
+        switch (sampleBytes) {
+            case 2:
+                int[] shorts = shortOffsets;
+                for (int in = 0, out = 0; out < end; in += inFrame) {
+                    for (int o = 0; o < channels; o++, out += 2) SHORT.set(target, out, (short) SHORT.get(source, in + shorts[o]));
+                }
+                break;
+            case 4:
+                int[] ints = intOffsets;
+                for (int in = 0, out = 0; out < end; in += inFrame) {
+                    for (int o = 0; o < channels; o++, out += 4) INT.set(target, out, (int) INT.get(source, in + ints[o]));
+                }
+                break;
+            default:
+                for (int in = 0, out = 0; out < end; in += inFrame) {
+                    for (int o = 0; o < channels; o++, out += sampleBytes) {
+                        System.arraycopy(source, in + sources[o] * sampleBytes, target, out, sampleBytes);
+                    }
+                }
+        }
+    }
+
+    /**
+     * Multiplies decoded frames by the matrix, for {@link Kind#SPARSE}.
+     *
+     * @param source Frames of {@link #inputs} decoded samples.
+     * @param frames The number of frames.
+     * @param target The array frames of {@link #outputs} samples are written to, not source.
+     */
+    public void mix(long[] source, int frames, long[] target) {
+        int[] first = start;
+        int[] channel = input;
+        long[] weight = gain;
+        for (int f = 0, in = 0, out = 0; f < frames; f++, in += inputs, out += outputs) {
+            for (int o = 0; o < outputs; o++) {
+                long sum = 0;
+                for (int e = first[o], end = first[o + 1]; e < end; e++) {
+                    sum += (source[in + channel[e]] * weight[e]) >> AudioConsumer.GAIN_BITS;
+                }
+                target[out + o] = sum;
+            }
+        }
+    }
+
+    /**
+     * @return The entries in the format read by {@link #parse(String, int, int)}.
+     */
+    @Override
+    public String toString() {
+        List<String> entries = new ArrayList<>();
+        for (int o = 0; o < outputs; o++) {
+            switch (kind) {
+                case IDENTITY:
+                    entries.add(o + ":" + o);
+                    break;
+                case PERMUTATION:
+                    entries.add(sourceOf[o] + ":" + o);
+                    break;
+                default:
+                    for (int e = start[o]; e < start[o + 1]; e++) {
+                        entries.add(input[e] + ":" + o + (gain[e] == AudioConsumer.UNITY_GAIN ? "" : ":" + (double) gain[e] / AudioConsumer.UNITY_GAIN));
+                    }
+            }
+        }
+        return String.join(", ", entries);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(!(other instanceof ChannelMatrix)) return false;
+        ChannelMatrix matrix = (ChannelMatrix) other;
+        return matrix.inputs == inputs && matrix.outputs == outputs && matrix.kind == kind
+                && Arrays.equals(matrix.sourceOf, sourceOf) && Arrays.equals(matrix.start, start)
+                && Arrays.equals(matrix.input, input) && Arrays.equals(matrix.gain, gain);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(sourceOf) * 31 + Arrays.hashCode(gain) + inputs * 7 + outputs;
+    }
+}
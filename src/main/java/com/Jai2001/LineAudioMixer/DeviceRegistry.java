@@ -0,0 +1,322 @@
+package com.Jai2001.LineAudioMixer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * DeviceRegistry keeps the list of audio devices and what they support, so nothing has to
+ * ask {@link AudioSystem} or open a device just to show or find it.
+ * <p>
+ * Listing the devices is cheap and done on demand, probing them is not: the line formats
+ * and buffer sizes of a device are only known once its lines were fetched, which opens the
+ * device. That happens once per device on the background thread started by {@link #start()},
+ * which also lists the devices again every {@link #PERIOD} to notice devices being plugged
+ * in or removed. Only devices that were not known before are probed.
+ * <p>
+ * Devices are told apart by the name, vendor, description and version of their
+ * {@link Mixer.Info}, not by the info itself: {@code Mixer.Info} only equals itself, and the
+ * sound providers may list fresh infos for every device once one is plugged in or removed.
+ * A device listed with a new info keeps its probe results but takes the new info and mixer.
+ * <p>
+ * The devices are published as an immutable list that is replaced as a whole, and every
+ * change is reported to the {@link Listener}s on the thread that noticed it.
+ */
+public final class DeviceRegistry {
+
+    /**The registry used by the window and the routing.*/
+    public static final DeviceRegistry SHARED = new DeviceRegistry();
+
+    /**Time between two listings of the devices, 2 seconds.*/
+    public static final long PERIOD = 2000;
+
+    /**
+     * What is known about a device. Replaced, never changed, once the device was probed.
+     */
+    public static final class Device {
+        public final Mixer.Info info;
+        /**Identifies the device across listings, see {@link #key(Mixer.Info)}.*/
+        public final String key;
+        public final Mixer mixer;
+        /**Whether the device has capture lines.*/
+        public final boolean input;
+        /**Whether the device has playback lines.*/
+        public final boolean output;
+        /**Whether the fields below were filled in by probing the device.*/
+        public final boolean probed;
+        /**Default format of the capture line, or null if unknown.*/
+        public final AudioFormat inputFormat;
+        /**Default format of the playback line, or null if unknown.*/
+        public final AudioFormat outputFormat;
+        /**Buffer size of the capture line in bytes, or {@link AudioSystem#NOT_SPECIFIED}.*/
+        public final int inputBufferSize;
+        /**Buffer size of the playback line in bytes, or {@link AudioSystem#NOT_SPECIFIED}.*/
+        public final int outputBufferSize;
+        /**Formats the capture line supports, empty if unknown.*/
+        public final List<AudioFormat> inputFormats;
+        /**Formats the playback line supports, empty if unknown.*/
+        public final List<AudioFormat> outputFormats;
+
+        private Device(Mixer.Info info, Mixer mixer, boolean input, boolean output, boolean probed,
+                       DataLine inputLine, DataLine outputLine) {
+            this.info = info;
+            this.key = key(info);
+            this.mixer = mixer;
+            this.input = input;
+            this.output = output;
+            this.probed = probed;
+            this.inputFormat = inputLine == null ? null : inputLine.getFormat();
+            this.outputFormat = outputLine == null ? null : outputLine.getFormat();
+            this.inputBufferSize = inputLine == null ? AudioSystem.NOT_SPECIFIED : inputLine.getBufferSize();
+            this.outputBufferSize = outputLine == null ? AudioSystem.NOT_SPECIFIED : outputLine.getBufferSize();
+            this.inputFormats = formats(inputLine);
+            this.outputFormats = formats(outputLine);
+        }
+
+        /**
+         * Copies what is known about a device that was listed again with a new info.
+         */
+        private Device(Device known, Mixer.Info info, Mixer mixer) {
+            this.info = info;
+            this.key = known.key;
+            this.mixer = mixer;
+            this.input = known.input;
+            this.output = known.output;
+            this.probed = known.probed;
+            this.inputFormat = known.inputFormat;
+            this.outputFormat = known.outputFormat;
+            this.inputBufferSize = known.inputBufferSize;
+            this.outputBufferSize = known.outputBufferSize;
+            this.inputFormats = known.inputFormats;
+            this.outputFormats = known.outputFormats;
+        }
+
+        private static List<AudioFormat> formats(DataLine line) {
+            if(line == null || !(line.getLineInfo() instanceof DataLine.Info)) return Collections.emptyList();
+            return Collections.unmodifiableList(Arrays.asList(((DataLine.Info) line.getLineInfo()).getFormats()));
+        }
+
+        /**
+         * @param lineClass {@code TargetDataLine} or {@code SourceDataLine}.
+         * @return Whether the device has lines of that class.
+         */
+        public boolean supports(Class<?> lineClass) {
+            return lineClass == TargetDataLine.class ? input : lineClass == SourceDataLine.class && output;
+        }
+
+        /**
+         * @return The name of the device.
+         */
+        public String getName() {
+            return info.getName();
+        }
+    }
+
+    /**
+     * Told about devices appearing, disappearing and finishing their probe.
+     */
+    public interface Listener {
+        /**
+         * Called after the list of devices changed, on the thread that changed it.
+         *
+         * @param added Devices that were not listed before.
+         * @param removed Devices that are no longer listed.
+         * @param probed Devices that replace an earlier entry of the same device, after being
+         * probed or after being listed with a new info.
+         */
+        void devicesChanged(List<Device> added, List<Device> removed, List<Device> probed);
+    }
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**The devices in the order {@link AudioSystem} lists them, replaced as a whole.*/
+    private volatile List<Device> devices;
+
+    private Thread prober;
+
+    private DeviceRegistry() {
+    }
+
+    /**
+     * Starts the background thread that probes new devices and watches for devices being
+     * added or removed. Does nothing if it is already running.
+     */
+    public synchronized void start() {
+        if(prober != null) return;
+        prober = new Thread(new probe(), "Device probe");
+        prober.setDaemon(true);
+        prober.setPriority(Thread.MIN_PRIORITY);
+        prober.start();
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    public synchronized void stop() {
+        if(prober == null) return;
+        prober.interrupt();
+        prober = null;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return Every device, listing them first if that never happened.
+     */
+    public List<Device> getDevices() {
+        List<Device> current = devices;
+        return current == null ? scan() : current;
+    }
+
+    /**
+     * @param lineClass {@code TargetDataLine} or {@code SourceDataLine}.
+     * @return Every device that has lines of that class.
+     */
+    public List<Device> getDevices(Class<?> lineClass) {
+        List<Device> matching = new ArrayList<>();
+        for (Device device : getDevices()) {
+            if(device.supports(lineClass)) matching.add(device);
+        }
+        return matching;
+    }
+
+    /**
+     * @param info The info of a device.
+     * @return The string identifying the device across listings, made of the name, vendor,
+     * description and version of its info.
+     */
+    public static String key(Mixer.Info info) {
+        return info.getName() + '\n' + info.getVendor() + '\n' + info.getDescription() + '\n' + info.getVersion();
+    }
+
+    /**
+     * @param info The info of a device, from this or an earlier listing.
+     * @return The latest entry of that device, or null if it is not listed.
+     */
+    public Device get(Mixer.Info info) {
+        String key = key(info);
+        for (Device device : getDevices()) {
+            if(device.key.equals(key)) return device;
+        }
+        return null;
+    }
+
+    /**
+     * Lists the devices again and reports the difference to the listeners. Devices that are
+     * still listed keep their entry, or what was probed of it if they are listed with a new
+     * info, so they are not probed again. Identical devices are matched in listing order.
+     *
+     * @return The devices now listed.
+     */
+    public List<Device> scan() {
+        List<Device> added = new ArrayList<>();
+        List<Device> replaced = new ArrayList<>();
+        List<Device> removed;
+        List<Device> next;
+        synchronized (this) {
+            List<Device> known = devices == null ? new ArrayList<>() : new ArrayList<>(devices);
+            next = new ArrayList<>();
+            for (Mixer.Info info : AudioSystem.getMixerInfo()) {
+                Device device = take(known, key(info));
+                if(device != null && device.info != info){
+                    device = new Device(device, info, AudioSystem.getMixer(info));
+                    replaced.add(device);
+                }else if(device == null){
+                    Mixer mixer = AudioSystem.getMixer(info);
+                    device = new Device(info, mixer,
+                            mixer.isLineSupported(new Line.Info(TargetDataLine.class)),
+                            mixer.isLineSupported(new Line.Info(SourceDataLine.class)),
+                            false, null, null);
+                    added.add(device);
+                }
+                next.add(device);
+            }
+            removed = known;
+            if(devices != null && added.isEmpty() && removed.isEmpty() && replaced.isEmpty()) return devices;
+            devices = Collections.unmodifiableList(next);
+        }
+        notify(added, removed, replaced);
+        return devices;
+    }
+
+    /**
+     * Removes the first entry of a device from a list.
+     *
+     * @return The entry, or null if the device is not in the list.
+     */
+    private static Device take(List<Device> known, String key) {
+        for (int i = 0; i < known.size(); i++) {
+            if(known.get(i).key.equals(key)) return known.remove(i);
+        }
+        return null;
+    }
+
+    /**
+     * Fetches the lines of a device to learn its formats and buffer sizes, and replaces its
+     * entry if it is still listed. This opens the device.
+     *
+     * @param device The entry to probe.
+     * @return The probed entry.
+     */
+    public Device probe(Device device) {
+        if(device.probed) return device;
+        DataLine inputLine = device.input ? AudioLines.getLineOrNull(device.mixer, TargetDataLine.class) : null;
+        DataLine outputLine = device.output ? AudioLines.getLineOrNull(device.mixer, SourceDataLine.class) : null;
+        Device probed = new Device(device.info, device.mixer, device.input, device.output, true, inputLine, outputLine);
+        synchronized (this) {
+            List<Device> current = devices;
+            int index = current == null ? -1 : current.indexOf(device);
+            if(index < 0) return probed;
+            List<Device> next = new ArrayList<>(current);
+            next.set(index, probed);
+            devices = Collections.unmodifiableList(next);
+        }
+        notify(Collections.emptyList(), Collections.emptyList(), Collections.singletonList(probed));
+        return probed;
+    }
+
+    private void notify(List<Device> added, List<Device> removed, List<Device> probed) {
+        if(added.isEmpty() && removed.isEmpty() && probed.isEmpty()) return;
+        for (Listener listener : listeners) {
+            listener.devicesChanged(added, removed, probed);
+        }
+    }
+
+    /**
+     * Inner class that runs the probing thread.
+     */
+    private class probe implements Runnable {
+        /**
+         * Probes every device not probed yet, then lists the devices again every {@link #PERIOD}
+         * until interrupted.
+         */
+        public void run(){
+            try {
+                while (!Thread.currentThread().isInterrupted()){
+                    scan();
+                    for (Device device : getDevices()) {
+                        if(Thread.currentThread().isInterrupted()) return;
+                        probe(device);
+                    }
+                    Thread.sleep(PERIOD);
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+}
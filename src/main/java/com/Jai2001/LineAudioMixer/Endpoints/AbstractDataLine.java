@@ -0,0 +1,243 @@
+package com.Jai2001.LineAudioMixer.Endpoints;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * AbstractDataLine is the base of lines that are not backed by a sound device, such as files
+ * and network streams, so they can be routed like any captured or playback line.
+ * <p>
+ * It keeps the open and running state, the frame position and the listeners. The
+ * {@link DataLine.Info} of a line is identified by its name, so the exchanger treats two lines
+ * of the same file or address as the same device, just like two lines of one mixer.
+ * The format is fixed by the subclass, opening with another format is rejected.
+ */
+public abstract class AbstractDataLine implements DataLine {
+
+    protected final AudioFormat format;
+    protected final int bufferSize;
+    private final DataLine.Info info;
+    private final CopyOnWriteArrayList<LineListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean open;
+    private volatile boolean running;
+
+    /**Number of frames read or written since the line was opened.*/
+    protected volatile long framePosition;
+
+    /**
+     * Constructs an AbstractDataLine.
+     *
+     * @param lineClass The interface of the line, {@code TargetDataLine} or {@code SourceDataLine}.
+     * @param format The format of the line.
+     * @param bufferSize The buffer size reported to the mixer, rounded down to whole frames.
+     * @param name The name identifying the line, such as the file it plays.
+     */
+    protected AbstractDataLine(Class<?> lineClass, AudioFormat format, int bufferSize, String name) {
+        int frameSize = Math.max(1, format.getFrameSize());
+        this.format = format;
+        this.bufferSize = Math.max(frameSize, bufferSize - bufferSize % frameSize);
+        this.info = new Info(lineClass, format, this.bufferSize, name);
+    }
+
+    /**
+     * Line info that is equal to the info of every other line with the same name.
+     */
+    static final class Info extends DataLine.Info {
+        private final String name;
+
+        Info(Class<?> lineClass, AudioFormat format, int bufferSize, String name) {
+            super(lineClass, format, bufferSize);
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Info && ((Info) other).name.equals(name)
+                    && ((Info) other).getLineClass() == getLineClass();
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Called when the line is opened, before listeners are told.
+     *
+     * @throws LineUnavailableException If the line can not be opened.
+     */
+    protected void onOpen() throws LineUnavailableException {
+    }
+
+    /**
+     * Called when the line is closed, before listeners are told.
+     */
+    protected void onClose() {
+    }
+
+    /**
+     * Called when the line is started, before listeners are told.
+     */
+    protected void onStart() {
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void start() {
+        if(running) return;
+        onStart();
+        running = true;
+        notify(LineEvent.Type.START);
+    }
+
+    @Override
+    public void stop() {
+        if(!running) return;
+        running = false;
+        notify(LineEvent.Type.STOP);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) framePosition;
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return framePosition;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (framePosition * 1_000_000L / format.getFrameRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public DataLine.Info getLineInfo() {
+        return info;
+    }
+
+    /**
+     * Opens the line, which only succeeds in its own format.
+     *
+     * @param format The format requested.
+     * @throws LineUnavailableException If the line can not be opened.
+     * @throws IllegalArgumentException If the format is not the line's.
+     */
+    public void open(AudioFormat format) throws LineUnavailableException {
+        if(!format.matches(this.format)) throw new IllegalArgumentException("Unsupported format " + format);
+        open();
+    }
+
+    /**
+     * Opens the line, which only succeeds in its own format. The buffer size is fixed.
+     *
+     * @param format The format requested.
+     * @param bufferSize Ignored.
+     * @throws LineUnavailableException If the line can not be opened.
+     * @throws IllegalArgumentException If the format is not the line's.
+     */
+    public void open(AudioFormat format, int bufferSize) throws LineUnavailableException {
+        open(format);
+    }
+
+    @Override
+    public void open() throws LineUnavailableException {
+        if(open) return;
+        onOpen();
+        framePosition = 0;
+        open = true;
+        notify(LineEvent.Type.OPEN);
+    }
+
+    @Override
+    public void close() {
+        if(!open) return;
+        stop();
+        open = false;
+        onClose();
+        notify(LineEvent.Type.CLOSE);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control type: " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notify(LineEvent.Type type) {
+        if(listeners.isEmpty()) return;
+        LineEvent event = new LineEvent(this, type, framePosition);
+        for (LineListener listener : listeners) {
+            listener.update(event);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.Jai2001.LineAudioMixer.Endpoints;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.TargetDataLine;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * FileTargetDataLine plays a WAV or raw PCM file as if it was captured by a device, so files
+ * can be routed through the {@link com.Jai2001.LineAudioMixer.AudioExchanger} like any other
+ * input, also on machines without sound hardware.
+ * <p>
+ * The file is memory mapped once and read straight from the page cache, nothing is copied
+ * until a block is handed to the mixer. WAV files are parsed for their {@code fmt } and
+ * {@code data} chunks and may hold integer PCM or 32 bit float samples, raw files are read
+ * in the format they are opened with. Only the first 2 GB of audio data are played.
+ * <p>
+ * Audio is paced in real time: from {@link #start()} on, frames become available at the
+ * frame rate of the file. A reader that falls more than a buffer behind skips ahead, as a
+ * device would overrun. {@link #read(byte[], int, int)} blocks until all requested bytes are
+ * due, like the read of a captured line. At the end of the file playback either wraps to
+ * the start, if the line loops, or the line stops and reads return -1.
+ */
+public class FileTargetDataLine extends AbstractDataLine implements TargetDataLine {
+
+    /**Buffer length used when none is given, in milliseconds.*/
+    public static final int DEFAULT_BUFFER_MILLIS = 100;
+
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    /**The audio data of the file, without any header, positioned by the reader.*/
+    private final ByteBuffer data;
+
+    private final int frameSize;
+
+    /**Length of the audio data in frames.*/
+    private final long frameLength;
+
+    /**Whether playback wraps to the start at the end of the file.*/
+    private volatile boolean looping;
+
+    /**Position of the next frame handed out, in frames from the start of the data.*/
+    private long position;
+
+    /**Frame position requested by {@link #seek(long)}, or -1.*/
+    private volatile long seekTo = -1;
+
+    /**Time playback was started or last resynchronised at.*/
+    private long startNanos;
+
+    /**Frames handed out or skipped since {@link #startNanos}.*/
+    private long delivered;
+
+    /**Whether the end of a file that does not loop was reached.*/
+    private volatile boolean ended;
+
+    /**
+     * Opens a WAV file, with a buffer of {@link #DEFAULT_BUFFER_MILLIS}.
+     *
+     * @param file The path of the file.
+     * @param looping Whether playback wraps to the start at the end of the file.
+     * @return The line playing the file.
+     * @throws IOException If the file cannot be read or is not a WAV file in a supported format.
+     */
+    public static FileTargetDataLine wav(Path file, boolean looping) throws IOException {
+        ByteBuffer mapped = map(file);
+        ByteBuffer header = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if(header.remaining() < 12 || header.getInt(0) != 0x46464952 || header.getInt(8) != 0x45564157){
+            throw new IOException("Not a RIFF WAVE file: " + file);
+        }
+        AudioFormat format = null;
+        int offset = 12;
+        while (offset + 8 <= header.limit()){
+            int id = header.getInt(offset);
+            long size = header.getInt(offset + 4) & 0xFFFFFFFFL;
+            int body = offset + 8;
+            if(id == 0x20746d66){
+                format = parseFormat(header, body, file);
+            }else if(id == 0x61746164){
+                if(format == null) throw new IOException("data chunk before fmt chunk: " + file);
+                int length = (int) Math.min(size, header.limit() - body);
+                ByteBuffer audio = mapped.duplicate();
+                audio.position(body).limit(body + length);
+                return new FileTargetDataLine(file, audio.slice(), format, bufferSize(format), looping);
+            }
+            offset = (int) Math.min(header.limit(), body + size + (size & 1));
+        }
+        throw new IOException("No data chunk: " + file);
+    }
+
+    /**
+     * Opens a file of headerless PCM samples, with a buffer of {@link #DEFAULT_BUFFER_MILLIS}.
+     *
+     * @param file The path of the file.
+     * @param format The format of the samples.
+     * @param looping Whether playback wraps to the start at the end of the file.
+     * @return The line playing the file.
+     * @throws IOException If the file cannot be read.
+     */
+    public static FileTargetDataLine raw(Path file, AudioFormat format, boolean looping) throws IOException {
+        return new FileTargetDataLine(file, map(file), format, bufferSize(format), looping);
+    }
+
+    /**
+     * Opens a file, as WAV if its name ends in {@code .wav} and otherwise as raw PCM in the
+     * given format.
+     *
+     * @param file The path of the file.
+     * @param rawFormat The format of a raw file.
+     * @param looping Whether playback wraps to the start at the end of the file.
+     * @return The line playing the file.
+     * @throws IOException If the file cannot be read or is not in a supported format.
+     */
+    public static FileTargetDataLine open(Path file, AudioFormat rawFormat, boolean looping) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".wav") ? wav(file, looping) : raw(file, rawFormat, looping);
+    }
+
+    /**
+     * Constructs a FileTargetDataLine.
+     *
+     * @param file The path of the file, also used to tell lines apart.
+     * @param data The audio data, positioned at its first frame.
+     * @param format The format of the audio data.
+     * @param bufferSize The buffer size in bytes, how far behind a reader may fall before audio is skipped.
+     * @param looping Whether playback wraps to the start at the end of the file.
+     */
+    public FileTargetDataLine(Path file, ByteBuffer data, AudioFormat format, int bufferSize, boolean looping) {
+        super(TargetDataLine.class, format, bufferSize, "file:" + file.toAbsolutePath().normalize());
+        this.data = data.slice();
+        this.frameSize = Math.max(1, format.getFrameSize());
+        this.frameLength = this.data.remaining() / frameSize;
+        this.looping = looping;
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+        }
+    }
+
+    private static int bufferSize(AudioFormat format) {
+        int frames = Math.max(1, (int) (format.getFrameRate() * DEFAULT_BUFFER_MILLIS / 1000));
+        return frames * Math.max(1, format.getFrameSize());
+    }
+
+    private static AudioFormat parseFormat(ByteBuffer header, int offset, Path file) throws IOException {
+        int tag = header.getShort(offset) & 0xFFFF;
+        int channels = header.getShort(offset + 2) & 0xFFFF;
+        int rate = header.getInt(offset + 4);
+        int blockAlign = header.getShort(offset + 12) & 0xFFFF;
+        int bits = header.getShort(offset + 14) & 0xFFFF;
+        if(tag == WAVE_FORMAT_EXTENSIBLE) tag = header.getShort(offset + 24) & 0xFFFF;
+        AudioFormat.Encoding encoding;
+        if(tag == WAVE_FORMAT_PCM){
+            encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+        }else if(tag == WAVE_FORMAT_IEEE_FLOAT && bits == 32){
+            encoding = AudioFormat.Encoding.PCM_FLOAT;
+        }else{
+            throw new IOException("Unsupported WAV format tag " + tag + " with " + bits + " bits: " + file);
+        }
+        return new AudioFormat(encoding, rate, bits, channels, blockAlign, rate, false);
+    }
+
+    /**
+     * @return The length of the audio data in frames.
+     */
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    /**
+     * Moves playback to a frame. Safe to call from any thread, the reader picks it up
+     * before its next block.
+     *
+     * @param frame The frame to continue at, clamped to the length of the file.
+     */
+    public void seek(long frame) {
+        seekTo = Math.max(0, Math.min(frame, frameLength));
+    }
+
+    /**
+     * @param looping Whether playback wraps to the start at the end of the file.
+     */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    /**
+     * @return Whether playback wraps to the start at the end of the file.
+     */
+    public boolean isLooping() {
+        return looping;
+    }
+
+    @Override
+    protected void onStart() {
+        startNanos = System.nanoTime();
+        delivered = 0;
+    }
+
+    /**
+     * @return The number of frames due since playback started that have not been read, after
+     * skipping anything more than a buffer behind.
+     */
+    private long due() {
+        long target = seekTo;
+        if(target >= 0){
+            seekTo = -1;
+            position = target;
+            ended = false;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        long frames = (long) (elapsed * (double) format.getFrameRate() / 1e9) - delivered;
+        long bufferFrames = bufferSize / frameSize;
+        if(frames > bufferFrames){
+            advance(frames - bufferFrames);
+            delivered += frames - bufferFrames;
+            frames = bufferFrames;
+        }
+        return frames;
+    }
+
+    /**
+     * Moves the file position without copying, wrapping or ending at the end of the file.
+     *
+     * @param frames The number of frames to move by.
+     */
+    private void advance(long frames) {
+        if(frameLength == 0) return;
+        position += frames;
+        if(position >= frameLength){
+            if(looping) position %= frameLength;
+            else position = frameLength;
+        }
+    }
+
+    @Override
+    public int available() {
+        if(!isRunning() || ended) return 0;
+        long frames = due();
+        if(!looping){
+            if(position >= frameLength){
+                end();
+                return 0;
+            }
+            frames = Math.min(frames, frameLength - position);
+        }
+        return (int) frames * frameSize;
+    }
+
+    /**
+     * Reads whole frames of audio, blocking until all of them are due or the line is stopped.
+     *
+     * @param b The array to read into.
+     * @param off The offset in the array.
+     * @param len The number of bytes requested, rounded down to whole frames.
+     * @return The number of bytes read, or -1 if the file has ended and does not loop.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int frames = len / frameSize;
+        int done = 0;
+        while (done < frames && isRunning()){
+            long ready = Math.min(due(), frames - done);
+            if(ready == 0){
+                long remaining = frames - done;
+                LockSupport.parkNanos((long) (remaining * 1e9 / format.getFrameRate()));
+                continue;
+            }
+            while (ready > 0){
+                if(position >= frameLength){
+                    if(!looping || frameLength == 0){
+                        end();
+                        return done == 0 ? -1 : done * frameSize;
+                    }
+                    position = 0;
+                }
+                int count = (int) Math.min(ready, frameLength - position);
+                data.position((int) (position * frameSize));
+                data.get(b, off + done * frameSize, count * frameSize);
+                position += count;
+                delivered += count;
+                framePosition += count;
+                done += count;
+                ready -= count;
+            }
+        }
+        if(done == 0 && ended) return -1;
+        return done * frameSize;
+    }
+
+    private void end() {
+        ended = true;
+        stop();
+    }
+}
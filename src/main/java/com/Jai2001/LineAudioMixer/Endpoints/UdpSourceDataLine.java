@@ -0,0 +1,236 @@
+package com.Jai2001.LineAudioMixer.Endpoints;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * UdpSourceDataLine sends whatever is written to it to another machine as UDP datagrams, so a
+ * {@link com.Jai2001.LineAudioMixer.MixBus} can play to the network like to any output.
+ * <p>
+ * Written audio is cut into packets of {@link #PACKET_MILLIS} of whole frames, each prefixed
+ * by a 4 byte big endian sequence number, see {@link UdpTargetDataLine} for the receiving
+ * side. Packets are assembled in a single preallocated buffer and sent as soon as they are
+ * full, nothing is allocated while audio runs. Both ends must use the same format, it is not
+ * negotiated.
+ * <p>
+ * To keep the mixer's latency control working, the line behaves like a device with a clock:
+ * written frames drain from a virtual queue at the frame rate, {@link #available()} reports
+ * the free part of the buffer and {@link #write(byte[], int, int)} blocks while it is full.
+ * <p>
+ * The mixer writes from the writer thread of the output but asks for the free space from the
+ * exchange thread, so the virtual queue and the packet being assembled are guarded by a lock.
+ * It is never held while waiting for space.
+ */
+public class UdpSourceDataLine extends AbstractDataLine implements SourceDataLine {
+
+    /**Length of the audio in one packet, in milliseconds.*/
+    public static final int PACKET_MILLIS = 5;
+
+    /**Largest payload of one packet, kept below common MTUs.*/
+    public static final int MAX_PAYLOAD = 1400;
+
+    /**Size of the sequence number in front of every packet.*/
+    public static final int HEADER = 4;
+
+    /**Buffer length used when none is given, in milliseconds.*/
+    public static final int DEFAULT_BUFFER_MILLIS = 100;
+
+    private final InetSocketAddress target;
+    private final int frameSize;
+    private final double framesPerNano;
+
+    /**Number of payload bytes in a full packet.*/
+    private final int payload;
+
+    private DatagramChannel channel;
+
+    /**The packet being assembled, header included.*/
+    private final ByteBuffer packet;
+
+    private int sequence;
+
+    /**Guards {@link #queued}, {@link #drainedAt}, {@link #packet} and {@link #sequence}.*/
+    private final Object lock = new Object();
+
+    /**Frames in the virtual queue, drained at the frame rate.*/
+    private double queued;
+
+    /**The {@link System#nanoTime()} the queue was last drained at.*/
+    private long drainedAt;
+
+    private volatile long packets;
+    private volatile long sendErrors;
+
+    /**
+     * Constructs a UdpSourceDataLine with a buffer of {@link #DEFAULT_BUFFER_MILLIS}.
+     *
+     * @param target The address packets are sent to.
+     * @param format The format of the audio sent.
+     */
+    public UdpSourceDataLine(InetSocketAddress target, AudioFormat format) {
+        this(target, format, (int) (format.getFrameRate() * DEFAULT_BUFFER_MILLIS / 1000) * Math.max(1, format.getFrameSize()));
+    }
+
+    /**
+     * Constructs a UdpSourceDataLine.
+     *
+     * @param target The address packets are sent to.
+     * @param format The format of the audio sent.
+     * @param bufferSize The size of the virtual queue in bytes.
+     */
+    public UdpSourceDataLine(InetSocketAddress target, AudioFormat format, int bufferSize) {
+        super(SourceDataLine.class, format, bufferSize, "udp:" + target.getHostString() + ":" + target.getPort());
+        this.target = target;
+        this.frameSize = Math.max(1, format.getFrameSize());
+        this.framesPerNano = format.getFrameRate() / 1e9;
+        int frames = Math.max(1, (int) (format.getFrameRate() * PACKET_MILLIS / 1000));
+        this.payload = Math.max(1, Math.min(frames, MAX_PAYLOAD / frameSize)) * frameSize;
+        this.packet = ByteBuffer.allocateDirect(HEADER + payload);
+    }
+
+    @Override
+    protected void onOpen() throws LineUnavailableException {
+        try {
+            channel = DatagramChannel.open();
+            channel.connect(target);
+        } catch (IOException e) {
+            LineUnavailableException unavailable = new LineUnavailableException("Cannot send to " + target + ": " + e.getMessage());
+            unavailable.initCause(e);
+            throw unavailable;
+        }
+        synchronized (lock) {
+            packet.clear().position(HEADER);
+            queued = 0;
+            drainedAt = System.nanoTime();
+        }
+    }
+
+    @Override
+    protected void onClose() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        synchronized (lock) {
+            drainedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Drains the virtual queue by the frames played since it was last drained. Only called
+     * while holding the lock.
+     */
+    private void drainQueue() {
+        long now = System.nanoTime();
+        if(isRunning()) queued = Math.max(0, queued - (now - drainedAt) * framesPerNano);
+        drainedAt = now;
+    }
+
+    @Override
+    public int available() {
+        synchronized (lock) {
+            drainQueue();
+            return Math.max(0, bufferSize - (int) Math.ceil(queued) * frameSize);
+        }
+    }
+
+    /**
+     * Sends whole frames, blocking while the virtual queue is full.
+     *
+     * @param b The array holding the audio.
+     * @param off The offset in the array.
+     * @param len The number of bytes, rounded down to whole frames.
+     * @return The number of bytes written, less than len only if the line was stopped or closed.
+     */
+    @Override
+    public int write(byte[] b, int off, int len) {
+        len -= len % frameSize;
+        int done = 0;
+        while (done < len && isOpen()){
+            int space = available();
+            if(space == 0){
+                if(!isRunning()) break;
+                LockSupport.parkNanos((long) (Math.min(len - done, bufferSize) / frameSize / framesPerNano / 2) + 1);
+                continue;
+            }
+            int count = Math.min(space, len - done);
+            synchronized (lock) {
+                send(b, off + done, count);
+                queued += count / frameSize;
+            }
+            framePosition += count / frameSize;
+            done += count;
+        }
+        return done;
+    }
+
+    /**
+     * Copies bytes into the packet being assembled, sending every packet that fills up. Only
+     * called while holding the lock.
+     */
+    private void send(byte[] b, int off, int len) {
+        while (len > 0){
+            int count = Math.min(len, packet.remaining());
+            packet.put(b, off, count);
+            off += count;
+            len -= count;
+            if(!packet.hasRemaining()){
+                packet.putInt(0, sequence++);
+                packet.flip();
+                try {
+                    channel.write(packet);
+                    packets++;
+                } catch (IOException e) {
+                    sendErrors++;
+                }
+                packet.clear().position(HEADER);
+            }
+        }
+    }
+
+    /**
+     * Blocks until the virtual queue played out.
+     */
+    @Override
+    public void drain() {
+        while (isRunning() && available() < bufferSize){
+            LockSupport.parkNanos(1_000_000L);
+        }
+    }
+
+    /**
+     * Empties the virtual queue and discards a partly assembled packet.
+     */
+    @Override
+    public void flush() {
+        synchronized (lock) {
+            queued = 0;
+            packet.clear().position(HEADER);
+        }
+    }
+
+    /**
+     * @return The number of packets sent.
+     */
+    public long getPackets() {
+        return packets;
+    }
+
+    /**
+     * @return The number of packets that could not be sent, for example because nothing
+     * listens on the target port.
+     */
+    public long getSendErrors() {
+        return sendErrors;
+    }
+}
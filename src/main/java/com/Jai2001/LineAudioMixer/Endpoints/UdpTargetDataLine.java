@@ -0,0 +1,484 @@
+package com.Jai2001.LineAudioMixer.Endpoints;
+
+import com.Jai2001.LineAudioMixer.AudioConsumer;
+import com.Jai2001.LineAudioMixer.SampleCodec;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * UdpTargetDataLine receives the packets of a {@link UdpSourceDataLine} on another machine and
+ * plays them out as if they were captured by a device, so a remote feed can be routed through
+ * the {@link com.Jai2001.LineAudioMixer.AudioExchanger} like any input.
+ * <p>
+ * A receiver thread places every packet in a jitter buffer of {@link #SLOTS} preallocated
+ * slots indexed by its sequence number, so packets that arrive out of order are put back in
+ * order and packets that arrive after their turn are discarded. Playout is paced by the local
+ * clock at the frame rate of the format, the same way as {@link FileTargetDataLine}.
+ * <p>
+ * The buffer adapts its depth: it starts playing once {@link #getTargetDepth()} packets are
+ * queued, waits one packet longer every time the next packet has not arrived in time, and
+ * never goes below twice the measured interarrival jitter. After {@link #STABLE_PERIOD}
+ * without a glitch the target shrinks by a packet, and when more than two packets above the
+ * target are queued the oldest is dropped, which also absorbs clock drift between sender and
+ * receiver.
+ * <p>
+ * A packet that is lost or late is concealed by repeating the last packet with a gain that
+ * halves every packet, fading to silence if the feed stops. The format must match the
+ * sender's, it is not negotiated.
+ */
+public class UdpTargetDataLine extends AbstractDataLine implements TargetDataLine {
+
+    /**Number of packets the jitter buffer can hold, a power of two.*/
+    public static final int SLOTS = 64;
+
+    /**Lower bound of the target depth in packets.*/
+    public static final int MIN_DEPTH = 2;
+
+    /**Upper bound of the target depth in packets.*/
+    public static final int MAX_DEPTH = SLOTS / 2;
+
+    /**Time without a glitch after which the target depth shrinks, 2 seconds.*/
+    public static final long STABLE_PERIOD = 2_000_000_000L;
+
+    /**Number of consecutive concealed packets after which only silence is played.*/
+    private static final int MAX_CONCEALED = 5;
+
+    private static final int MASK = SLOTS - 1;
+
+    /**
+     * A slot of the jitter buffer.
+     */
+    private static final class Slot {
+        final byte[] data = new byte[UdpSourceDataLine.MAX_PAYLOAD];
+        int length;
+        /**The sequence number of the packet held, published last. Only valid if {@link #filled}.*/
+        volatile int sequence;
+        volatile boolean filled;
+    }
+
+    private final InetSocketAddress bind;
+    private final int frameSize;
+    private final double framesPerNano;
+    private final SampleCodec codec;
+    private final Slot[] slots = new Slot[SLOTS];
+
+    /**Encoded silence played while buffering.*/
+    private final byte[] silence;
+
+    /**The last packet played, kept to conceal the next one if it goes missing.*/
+    private final byte[] last = new byte[UdpSourceDataLine.MAX_PAYLOAD];
+
+    /**The block being played out, the last packet or its concealment.*/
+    private final byte[] playout = new byte[UdpSourceDataLine.MAX_PAYLOAD];
+
+    private DatagramChannel channel;
+    private Thread receiver;
+
+    /**Highest sequence number received.*/
+    private volatile int highest;
+
+    /**Whether a packet was received since the buffer was last synchronised.*/
+    private volatile boolean synced;
+
+    /**Set by the receiver when the sequence jumped outside the buffer, for example because the sender restarted.*/
+    private volatile boolean resync;
+
+    /**Sequence number of the next packet to play, owned by the reader.*/
+    private volatile int next;
+
+    /**Whether the buffer filled up to the target depth and is playing.*/
+    private boolean playing;
+
+    private volatile int target = MIN_DEPTH;
+
+    /**Smoothed interarrival jitter in nanoseconds.*/
+    private volatile long jitter;
+
+    /**Transit time of the previous packet, see {@link #jitter}.*/
+    private long transit;
+
+    private byte[] current;
+    private int cursor;
+    private int length;
+    private int lastLength;
+    private int concealed;
+    private int concealGain;
+    private long stableSince;
+
+    /**Time playout was started at.*/
+    private long startNanos;
+
+    /**Frames handed out or skipped since {@link #startNanos}.*/
+    private long delivered;
+
+    private volatile long received;
+    private volatile long lost;
+    private volatile long late;
+    private volatile long dropped;
+    private volatile long underruns;
+    private volatile long concealments;
+
+    /**
+     * Constructs a UdpTargetDataLine with a buffer of {@link UdpSourceDataLine#DEFAULT_BUFFER_MILLIS}.
+     *
+     * @param bind The address to listen on.
+     * @param format The format of the audio received.
+     */
+    public UdpTargetDataLine(InetSocketAddress bind, AudioFormat format) {
+        this(bind, format, (int) (format.getFrameRate() * UdpSourceDataLine.DEFAULT_BUFFER_MILLIS / 1000) * Math.max(1, format.getFrameSize()));
+    }
+
+    /**
+     * Constructs a UdpTargetDataLine.
+     *
+     * @param bind The address to listen on.
+     * @param format The format of the audio received.
+     * @param bufferSize The buffer size in bytes, how far behind a reader may fall before audio is skipped.
+     */
+    public UdpTargetDataLine(InetSocketAddress bind, AudioFormat format, int bufferSize) {
+        super(TargetDataLine.class, format, bufferSize, "udp:" + bind.getPort());
+        this.bind = bind;
+        this.frameSize = Math.max(1, format.getFrameSize());
+        this.framesPerNano = format.getFrameRate() / 1e9;
+        this.codec = SampleCodec.forFormat(format);
+        for (int i = 0; i < SLOTS; i++) slots[i] = new Slot();
+        int frames = Math.max(1, Math.min((int) (format.getFrameRate() * UdpSourceDataLine.PACKET_MILLIS / 1000),
+                UdpSourceDataLine.MAX_PAYLOAD / frameSize));
+        int samples = frames * format.getChannels();
+        silence = new byte[frames * frameSize];
+        codec.encode(new long[samples], samples, silence);
+    }
+
+    @Override
+    protected void onOpen() throws LineUnavailableException {
+        try {
+            channel = DatagramChannel.open();
+            channel.bind(bind);
+        } catch (IOException e) {
+            LineUnavailableException unavailable = new LineUnavailableException("Cannot listen on " + bind + ": " + e.getMessage());
+            unavailable.initCause(e);
+            throw unavailable;
+        }
+        for (Slot slot : slots) slot.filled = false;
+        synced = false;
+        resync = false;
+        playing = false;
+        current = silence;
+        cursor = length = lastLength = 0;
+        receiver = new Thread(new receive(), "Receive " + getLineInfo());
+        receiver.setDaemon(true);
+        receiver.setPriority(Thread.MAX_PRIORITY);
+        receiver.start();
+    }
+
+    @Override
+    protected void onClose() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        receiver.interrupt();
+    }
+
+    @Override
+    protected void onStart() {
+        startNanos = System.nanoTime();
+        delivered = 0;
+        stableSince = startNanos;
+    }
+
+    /**
+     * @return The address the line listens on, with the actual port if it was bound to port 0.
+     */
+    public InetSocketAddress getLocalAddress() {
+        try {
+            DatagramChannel open = channel;
+            return open == null ? bind : (InetSocketAddress) open.getLocalAddress();
+        } catch (IOException e) {
+            return bind;
+        }
+    }
+
+    /**
+     * @return The number of frames due since playout started that have not been read, after
+     * skipping anything more than a buffer behind.
+     */
+    private long due() {
+        long frames = (long) ((System.nanoTime() - startNanos) * framesPerNano) - delivered;
+        long bufferFrames = bufferSize / frameSize;
+        if(frames > bufferFrames){
+            skip((frames - bufferFrames) * frameSize);
+            delivered += frames - bufferFrames;
+            frames = bufferFrames;
+        }
+        return frames;
+    }
+
+    /**
+     * Advances the playout without copying, for a reader that fell behind.
+     *
+     * @param bytes The number of bytes to skip.
+     */
+    private void skip(long bytes) {
+        while (bytes > 0){
+            if(cursor == length) nextPacket();
+            int count = (int) Math.min(bytes, length - cursor);
+            cursor += count;
+            bytes -= count;
+        }
+    }
+
+    @Override
+    public int available() {
+        if(!isRunning()) return 0;
+        return (int) due() * frameSize;
+    }
+
+    /**
+     * Reads whole frames of audio, blocking until all of them are due or the line is stopped.
+     *
+     * @param b The array to read into.
+     * @param off The offset in the array.
+     * @param len The number of bytes requested, rounded down to whole frames.
+     * @return The number of bytes read.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int frames = len / frameSize;
+        int done = 0;
+        while (done < frames && isRunning()){
+            long ready = Math.min(due(), frames - done);
+            if(ready == 0){
+                LockSupport.parkNanos((long) ((frames - done) / framesPerNano));
+                continue;
+            }
+            int bytes = (int) ready * frameSize;
+            int position = off + done * frameSize;
+            while (bytes > 0){
+                if(cursor == length) nextPacket();
+                int count = Math.min(bytes, length - cursor);
+                System.arraycopy(current, cursor, b, position, count);
+                cursor += count;
+                position += count;
+                bytes -= count;
+            }
+            delivered += ready;
+            framePosition += ready;
+            done += ready;
+        }
+        return done * frameSize;
+    }
+
+    /**
+     * Moves playout to the next packet, deciding between playing it, concealing it, buffering
+     * and dropping packets to bring the depth back down.
+     */
+    private void nextPacket() {
+        cursor = 0;
+        long now = System.nanoTime();
+        if(resync){
+            resync = false;
+            next = highest;
+            playing = false;
+        }
+        if(!synced){
+            play(silence, silence.length);
+            return;
+        }
+        int floor = (int) Math.min(MAX_DEPTH, 2 * jitter / Math.max(1, packetNanos()) + 1);
+        if(target < floor) target = floor;
+        int depth = highest - next + 1;
+        if(!playing){
+            if(depth < target){
+                play(silence, silence.length);
+                return;
+            }
+            playing = true;
+            stableSince = now;
+        }
+        while (depth > 2 * target){
+            next++;
+            depth--;
+            dropped++;
+        }
+        Slot slot = slots[next & MASK];
+        if(slot.filled && slot.sequence == next){
+            lastLength = slot.length;
+            System.arraycopy(slot.data, 0, last, 0, lastLength);
+            slot.filled = false;
+            next++;
+            concealed = 0;
+            concealGain = AudioConsumer.UNITY_GAIN;
+            play(last, lastLength);
+            if(now - stableSince > STABLE_PERIOD){
+                target = Math.max(Math.max(MIN_DEPTH, floor), target - 1);
+                stableSince = now;
+            }
+            return;
+        }
+        if(depth > 1){
+            lost++;
+            next++;
+        }else{
+            underruns++;
+            target = Math.min(MAX_DEPTH, target + 1);
+        }
+        stableSince = now;
+        conceal();
+    }
+
+    /**
+     * Plays the last packet again with a gain halving across it, or silence once too many
+     * packets in a row were concealed or nothing was received yet.
+     */
+    private void conceal() {
+        concealments++;
+        if(lastLength == 0 || concealed >= MAX_CONCEALED){
+            play(silence, silence.length);
+            return;
+        }
+        concealed++;
+        int to = concealed == MAX_CONCEALED ? 0 : concealGain / 2;
+        codec.applyGain(last, playout, 0, lastLength, concealGain, to);
+        concealGain = to;
+        play(playout, lastLength);
+    }
+
+    private void play(byte[] block, int bytes) {
+        current = block;
+        length = bytes - bytes % frameSize;
+        if(length == 0){
+            current = silence;
+            length = silence.length;
+        }
+    }
+
+    /**
+     * @return The duration of the last packet played, or of a silent block if none was.
+     */
+    private long packetNanos() {
+        int bytes = lastLength == 0 ? silence.length : lastLength;
+        return (long) (bytes / frameSize / framesPerNano);
+    }
+
+    /**
+     * @return The number of packets received.
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * @return The number of packets that never arrived and were concealed.
+     */
+    public long getLost() {
+        return lost;
+    }
+
+    /**
+     * @return The number of packets discarded because they arrived after their turn.
+     */
+    public long getLate() {
+        return late;
+    }
+
+    /**
+     * @return The number of packets dropped because too many were queued.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return The number of times the next packet had not arrived in time to be played.
+     */
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * @return The number of packets replaced by concealment.
+     */
+    public long getConcealments() {
+        return concealments;
+    }
+
+    /**
+     * @return The number of packets the buffer currently aims to hold.
+     */
+    public int getTargetDepth() {
+        return target;
+    }
+
+    /**
+     * @return The smoothed interarrival jitter in nanoseconds.
+     */
+    public long getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Inner class that runs the receiver thread.
+     */
+    private class receive implements Runnable {
+        /**
+         * Receives packets into a preallocated buffer and copies each into its slot, until the
+         * channel is closed.
+         */
+        public void run(){
+            ByteBuffer packet = ByteBuffer.allocateDirect(UdpSourceDataLine.HEADER + UdpSourceDataLine.MAX_PAYLOAD);
+            DatagramChannel open = channel;
+            while (!Thread.currentThread().isInterrupted()){
+                packet.clear();
+                try {
+                    if(open.receive(packet) == null) continue;
+                } catch (ClosedChannelException e) {
+                    return;
+                } catch (IOException e) {
+                    continue;
+                }
+                long now = System.nanoTime();
+                packet.flip();
+                if(packet.remaining() < UdpSourceDataLine.HEADER) continue;
+                int sequence = packet.getInt();
+                int bytes = packet.remaining();
+                received++;
+                if(!synced){
+                    highest = sequence;
+                    next = sequence;
+                    synced = true;
+                }else{
+                    int ahead = sequence - next;
+                    if(ahead < -SLOTS || ahead >= SLOTS){
+                        highest = sequence;
+                        resync = true;
+                    }else if(ahead < 0){
+                        late++;
+                        continue;
+                    }else if(sequence - highest > 0){
+                        highest = sequence;
+                    }
+                }
+                Slot slot = slots[sequence & MASK];
+                slot.filled = false;
+                packet.get(slot.data, 0, bytes);
+                slot.length = bytes;
+                slot.sequence = sequence;
+                slot.filled = true;
+                long arrival = (long) (now * framesPerNano);
+                long sent = (long) sequence * (bytes / frameSize);
+                long delta = Math.abs((arrival - sent) - transit);
+                transit = arrival - sent;
+                if(received > 1) jitter += ((long) (delta / framesPerNano) - jitter) / 16;
+            }
+        }
+    }
+}
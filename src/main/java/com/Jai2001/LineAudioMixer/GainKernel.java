@@ -0,0 +1,52 @@
+package com.Jai2001.LineAudioMixer;
+
+/**
+ * GainKernel applies the fixed point gain of an {@link AudioConsumer} to a block of 16 bit
+ * little endian samples, saturating the result.
+ * <p>
+ * The scalar loop of {@link SampleCodec.Pcm16LittleEndian} is always available. When the
+ * {@code jdk.incubator.vector} module is present a vectorized kernel is loaded instead, see
+ * {@link #vectorized()}. Every kernel must produce output identical to the scalar loop.
+ */
+interface GainKernel {
+
+    /**Name of the vectorized implementation, compiled only when building on a JDK that ships the Vector API.*/
+    String VECTOR_KERNEL = "com.Jai2001.LineAudioMixer.VectorGainKernel";
+
+    /**
+     * Scales a block of samples.
+     *
+     * @param source The raw samples.
+     * @param target The array the scaled samples are written to.
+     * @param targetOffset The offset in target to start writing at.
+     * @param bytes The number of bytes to process.
+     * @param gain The Q16 fixed point gain, see {@link AudioConsumer#toFixedPoint(double)}.
+     */
+    void scale(byte[] source, byte[] target, int targetOffset, int bytes, int gain);
+
+    /**
+     * Loads the vectorized kernel if the Vector API module is present and the kernel produces
+     * the same output as the scalar loop on a test block.
+     *
+     * @return The vectorized kernel, or null if the scalar loop should be used.
+     */
+    static GainKernel vectorized() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return null;
+        try {
+            GainKernel kernel = (GainKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+            byte[] source = new byte[1026];
+            for (int i = 0; i < source.length; i++) source[i] = (byte) (i * 31 + (i >> 3));
+            byte[] expected = new byte[source.length + 2];
+            byte[] actual = new byte[source.length + 2];
+            for (double volume : new double[]{0.3, 31.6}) {
+                int gain = AudioConsumer.toFixedPoint(volume);
+                SampleCodec.Pcm16LittleEndian.scale(source, expected, 2, source.length, gain, gain);
+                kernel.scale(source, actual, 2, source.length, gain);
+                if (!java.util.Arrays.equals(expected, actual)) return null;
+            }
+            return kernel;
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.Jai2001.LineAudioMixer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * HeadlessLauncher runs the mixer from a routing file, without the window.
+ * <p>
+ * The routes are opened straight on an {@link AudioExchanger}, all lines in parallel, whose
+ * loop then runs on the calling thread until the process is stopped. JavaFX is never initialized on this path.
+ * <pre>
+ * java -jar MicListener.jar --headless routing.properties
+ * </pre>
+ * See {@link Routing} for the format of the file.
+ * <p>
+ * Only a file that can't be read or configures the exchanger wrongly stops the launch. A route
+ * that fails to open, for example because its device is missing, is reported and the other
+ * routes keep running.
+ */
+public class HeadlessLauncher {
+
+    public static void main(String[] args) {
+        if(args.length < 1){
+            System.err.println("Usage: --headless <routing file>");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        Routing routing;
+        AudioExchanger exchanger;
+        long start = System.nanoTime();
+        try {
+            routing = Routing.read(file);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not read " + file + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        try {
+            exchanger = routing.createExchanger();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid exchanger settings in " + file + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        List<CompletableFuture<Routing.Connection>> opening = routing.openAsync(exchanger);
+        int opened = 0;
+        for (int i = 0; i < opening.size(); i++) {
+            Routing.Route route = routing.routes.get(i);
+            try {
+                opening.get(i).join();
+                opened++;
+            } catch (CompletionException e) {
+                System.err.println("Could not open the route from " + route.input + " to " + route.output + ": "
+                        + e.getCause().getMessage());
+            }
+        }
+        System.out.println("Started " + opened + " of " + routing.routes.size() + " route(s) from " + file + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        if(opened == 0 && !routing.routes.isEmpty()){
+            exchanger.close();
+            System.exit(1);
+        }
+        exchanger.start(false, false);
+    }
+}
@@ -0,0 +1,138 @@
+package com.Jai2001.LineAudioMixer;
+
+import com.Jai2001.LineAudioMixer.Monitoring.OutputLatency;
+
+/**
+ * LatencyController steers how much audio is queued in an output towards a target latency.
+ * <p>
+ * Before every write the queue depth of the output is measured through
+ * {@code SourceDataLine.available()}. If the output ran empty since the last write, that is
+ * an underrun: the target grows by half and the queue is padded with silence up to it, so
+ * the next late block has something to play out of. If the queue holds more than one and a
+ * half times the target, that is an overrun: the oldest part of the block is dropped to bring
+ * the queue back down, which also takes care of clock drift between input and output.
+ * <p>
+ * After {@link #STABLE_PERIOD} without a glitch the target shrinks by an eighth, so each
+ * device settles on the lowest latency it can sustain. The target always stays within the
+ * bounds given to the constructor.
+ * <p>
+ * Only the audio thread calls {@link #adjust(int, int, long)}, the statistics may be read
+ * from any thread.
+ */
+public class LatencyController implements OutputLatency {
+
+    /**Default lower bound of the target, 5 milliseconds.*/
+    public static final long DEFAULT_MIN_LATENCY = 5_000_000L;
+
+    /**Default upper bound of the target, 200 milliseconds.*/
+    public static final long DEFAULT_MAX_LATENCY = 200_000_000L;
+
+    /**Time without a glitch after which the target shrinks, 2 seconds.*/
+    public static final long STABLE_PERIOD = 2_000_000_000L;
+
+    private final int frameSize;
+    private final double bytesPerNano;
+    private final int minimum;
+    private final int maximum;
+
+    /**Target queue depth in bytes.*/
+    private volatile int target;
+
+    /**Queue depth before the last write in bytes.*/
+    private volatile int queued;
+
+    private volatile long underruns;
+    private volatile long overruns;
+
+    /**Whether anything was written yet, an empty queue before that is not an underrun.*/
+    private boolean primed;
+
+    /**The {@link System#nanoTime()} of the last glitch or shrink.*/
+    private long stableSince;
+
+    /**
+     * Constructs a LatencyController.
+     *
+     * @param frameSize The size of one frame of the output in bytes.
+     * @param frameRate The frame rate of the output.
+     * @param bufferSize The buffer size of the output in bytes, the queue can not grow past it.
+     * @param minLatency The lowest target latency in nanoseconds.
+     * @param maxLatency The highest target latency in nanoseconds.
+     */
+    public LatencyController(int frameSize, float frameRate, int bufferSize, long minLatency, long maxLatency) {
+        this.frameSize = Math.max(1, frameSize);
+        this.bytesPerNano = this.frameSize * (double) Math.max(1, frameRate) / 1e9;
+        int limit = align(bufferSize);
+        this.maximum = Math.max(this.frameSize, Math.min(limit, align((int) (maxLatency * bytesPerNano))));
+        this.minimum = Math.max(this.frameSize, Math.min(maximum, align((int) (minLatency * bytesPerNano))));
+        this.target = Math.max(minimum, Math.min(maximum, align(limit / 4)));
+    }
+
+    /**
+     * Measures the queue of the output before a write and decides how to correct it.
+     *
+     * @param queued The number of bytes queued in the output.
+     * @param bytes The number of bytes about to be written.
+     * @param now The current {@link System#nanoTime()}.
+     * @return The number of bytes of silence to write before the block if positive, the number
+     * of bytes to drop from the start of the block if negative, or zero to write it unchanged.
+     */
+    public int adjust(int queued, int bytes, long now) {
+        this.queued = queued;
+        if(!primed){
+            primed = bytes > 0;
+            stableSince = now;
+            return 0;
+        }
+        int current = target;
+        if(queued == 0){
+            underruns++;
+            current = Math.min(maximum, align(current + current / 2));
+            target = current;
+            stableSince = now;
+            return Math.max(0, current - bytes);
+        }
+        if(now - stableSince > STABLE_PERIOD){
+            current = Math.max(minimum, align(current - current / 8));
+            target = current;
+            stableSince = now;
+        }
+        int level = queued + bytes;
+        if(level > current + current / 2){
+            overruns++;
+            return -Math.min(align(bytes), align(level - current));
+        }
+        return 0;
+    }
+
+    private int align(int bytes) {
+        return bytes - bytes % frameSize;
+    }
+
+    /**
+     * @return The target queue depth in bytes.
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    @Override
+    public long getTargetLatency() {
+        return (long) (target / bytesPerNano);
+    }
+
+    @Override
+    public long getQueuedLatency() {
+        return (long) (queued / bytesPerNano);
+    }
+
+    @Override
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    @Override
+    public long getOverruns() {
+        return overruns;
+    }
+}
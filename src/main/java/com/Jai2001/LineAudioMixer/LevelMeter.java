@@ -0,0 +1,92 @@
+package com.Jai2001.LineAudioMixer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LevelMeter carries the peak and RMS level of a route from the audio thread to whoever
+ * displays it.
+ * <p>
+ * Both levels are fractions of full scale stored as float bits in the two halves of one
+ * {@link AtomicLong}, so a reader always sees a peak and an RMS of the same blocks and never
+ * needs a lock. The audio thread merges every block into the slot, keeping the highest peak
+ * and the highest block RMS, and {@link #collect()} takes the levels of every block since
+ * the last collect. Levels are never negative, and the bits of non-negative floats order
+ * like the floats, so merging only compares ints.
+ * <p>
+ * Levels are measured by the {@link SampleCodec} in the same pass that applies the gain, see
+ * {@link AudioConsumer#setMeter(LevelMeter)}.
+ */
+public final class LevelMeter {
+
+    private final AtomicLong slot = new AtomicLong();
+
+    /**
+     * Packs a peak and an RMS level.
+     *
+     * @param peak The peak level as a fraction of full scale.
+     * @param rms The RMS level as a fraction of full scale.
+     * @return The packed levels.
+     */
+    public static long pack(float peak, float rms) {
+        return ((long) Float.floatToRawIntBits(Math.max(0, peak)) << 32) | (Float.floatToRawIntBits(Math.max(0, rms)) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Packs the levels of a block.
+     *
+     * @param peak The largest magnitude of a sample.
+     * @param sumOfSquares The sum of the squared samples.
+     * @param samples The number of samples.
+     * @param fullScale The magnitude of a full scale sample.
+     * @return The packed levels.
+     */
+    static long levels(double peak, double sumOfSquares, int samples, double fullScale) {
+        if(samples == 0) return 0;
+        return pack((float) (peak / fullScale), (float) (Math.sqrt(sumOfSquares / samples) / fullScale));
+    }
+
+    /**
+     * @param levels Packed levels.
+     * @return The peak level as a fraction of full scale.
+     */
+    public static float peak(long levels) {
+        return Float.intBitsToFloat((int) (levels >>> 32));
+    }
+
+    /**
+     * @param levels Packed levels.
+     * @return The RMS level as a fraction of full scale.
+     */
+    public static float rms(long levels) {
+        return Float.intBitsToFloat((int) levels);
+    }
+
+    /**
+     * @param levels Two sets of packed levels.
+     * @param other The other set.
+     * @return The higher peak and the higher RMS of both.
+     */
+    static long merge(long levels, long other) {
+        int peak = Math.max((int) (levels >>> 32), (int) (other >>> 32));
+        int rms = Math.max((int) levels, (int) other);
+        return ((long) peak << 32) | (rms & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Merges the levels of a block, called by the audio thread.
+     *
+     * @param levels The packed levels of the block.
+     */
+    public void add(long levels) {
+        slot.accumulateAndGet(levels, LevelMeter::merge);
+    }
+
+    /**
+     * Takes the levels of every block since the last call.
+     *
+     * @return The packed levels, zero if no block was measured.
+     */
+    public long collect() {
+        return slot.getAndSet(0);
+    }
+}
@@ -0,0 +1,394 @@
+package com.Jai2001.LineAudioMixer;
+
+import com.Jai2001.LineAudioMixer.Monitoring.Jmx;
+import com.Jai2001.LineAudioMixer.Monitoring.LatencyHistogram;
+import com.Jai2001.LineAudioMixer.Monitoring.ShortWriteEvent;
+import com.Jai2001.LineAudioMixer.Monitoring.StarvationEvent;
+import com.Jai2001.LineAudioMixer.Processing.ProcessorChain;
+
+import javax.sound.sampled.LineUnavailableException;
+import javax.management.ObjectName;
+import javax.sound.sampled.SourceDataLine;
+import java.util.Arrays;
+
+/**
+ * MixBus sums every {@link AudioConsumer} routed to the same output device.
+ * <p>
+ * Instead of each consumer writing its own block to its own {@link SourceDataLine}, the
+ * volume adjusted blocks are added into a wide {@code long} accumulator by the
+ * {@link SampleCodec} of each consumer. Once per loop iteration {@link #flush(AudioConsumer[])} saturates
+ * the sum to the output's format and hands it to the {@link OutputWriter} of the output, whose
+ * own thread performs the write. A device that blocks in its write therefore only holds up its
+ * own queue, never the audio thread or the other outputs.
+ * <p>
+ * The output is opened in the format of the first input routed to it when the device
+ * supports it, otherwise in its default format. Inputs at another sample rate are
+ * resampled to the output's rate. Inputs with another channel count get a {@link ChannelMatrix}
+ * fitting their channels to the output's, unless their route sets its own.
+ * <p>
+ * Inputs do not deliver the same number of bytes every iteration, so each contributor keeps
+ * its own cursor into the accumulator. Only the samples every contributor has reached are
+ * written. If one contributor falls too far behind the others, it is treated as silent so
+ * it cannot hold the output back.
+ * <p>
+ * How much audio is queued in the output is steered by a {@link LatencyController}, which
+ * pads the output with silence after an underrun and drops audio when too much is queued.
+ * Audio still waiting in the writer's queue counts as queued.
+ */
+public class MixBus {
+
+    /**The line the mixed samples are written to.*/
+    protected SourceDataLine line;
+
+    /**Consumers attached to this bus, used to open and stop the output. The audio thread
+     * mixes the consumers of its {@link RoutingSnapshot} instead.*/
+    protected volatile AudioConsumer[] contributors;
+
+    /**Time spent writing the mix to the output per iteration.*/
+    public final LatencyHistogram writeTime = new LatencyHistogram();
+
+    /**Format specialized kernels of the output, known once the line is open.*/
+    protected SampleCodec codec;
+
+    /**Sum of all contributions not yet written, one entry per sample.*/
+    private long[] accumulator;
+
+    /**Block the saturated mix is encoded into before writing.*/
+    private byte[] block;
+
+    /**Number of samples a contributor may get ahead before the others are treated as silent.*/
+    private int maxLag;
+
+    /**Steers the queue depth of the output, created when the output is started.*/
+    private volatile LatencyController latency;
+
+    /**Encoded silence the output is padded with after an underrun.*/
+    private byte[] silence;
+
+    /**Taps recording every block written to the output.*/
+    private volatile RecordingTap[] taps = RecordingTap.NONE;
+
+    /**Writes the mix to the line on its own thread, created when the output is started.*/
+    private volatile OutputWriter writer;
+
+    /**What the writer does when its queue is full.*/
+    private OutputWriter.OverflowPolicy overflowPolicy = OutputWriter.OverflowPolicy.DROP_OLDEST;
+
+    /**Name the statistics of the writer are published under.*/
+    private ObjectName writerName;
+
+    /**Bounds of the target latency in nanoseconds.*/
+    private long minLatency = LatencyController.DEFAULT_MIN_LATENCY;
+    private long maxLatency = LatencyController.DEFAULT_MAX_LATENCY;
+
+    /**
+     * Constructs a MixBus.
+     *
+     * @param line The line mixed samples should be written to. It is opened and started when
+     * the first consumer is attached.
+     */
+    public MixBus(SourceDataLine line) {
+        this.line = line;
+        this.contributors = new AudioConsumer[0];
+        this.accumulator = new long[0];
+        this.block = new byte[0];
+        this.silence = new byte[0];
+    }
+
+    /**
+     * Attaches a consumer to this bus, opening and starting the output and its
+     * {@link OutputWriter} if this is the first.
+     *
+     * @param consumer The consumer whose blocks should be mixed into this bus.
+     * @throws LineUnavailableException If the output line cannot be opened.
+     */
+    public synchronized void attach(AudioConsumer consumer) throws LineUnavailableException {
+        if(contributors.length == 0){
+            if(!line.isOpen()){
+                try {
+                    line.open(consumer.codec.format);
+                } catch (LineUnavailableException | IllegalArgumentException e) {
+                    line.open();
+                }
+            }
+            line.start();
+            Arrays.fill(accumulator, 0);
+            if(codec == null || !codec.format.matches(line.getFormat())){
+                codec = SampleCodec.forFormat(line.getFormat());
+                maxLag = Math.max(1, line.getBufferSize() / codec.sampleBytes / 2);
+                accumulator = new long[maxLag * 2];
+                block = new byte[accumulator.length * codec.sampleBytes];
+                int samples = line.getBufferSize() / codec.sampleBytes;
+                silence = new byte[samples * codec.sampleBytes];
+                codec.encode(new long[samples], samples, silence);
+            }
+            latency = createLatencyController();
+            writer = new OutputWriter(line, line.getBufferSize(), overflowPolicy);
+            writerName = Jmx.register("Output", writer.stats);
+        }
+        int inputChannels = consumer.codec.format.getChannels();
+        int outputChannels = codec.format.getChannels();
+        if(inputChannels != outputChannels && consumer.getChannels() != outputChannels){
+            consumer.setMatrix(ChannelMatrix.fit(inputChannels, outputChannels));
+        }
+        float inputRate = consumer.codec.format.getSampleRate();
+        float outputRate = codec.format.getSampleRate();
+        if(inputRate != outputRate){
+            int frames = consumer.original.length / consumer.codec.sampleBytes / inputChannels;
+            int capacity = frames * Math.max(inputChannels, outputChannels);
+            if(consumer.decoded == null || consumer.decoded.length < capacity) consumer.decoded = new long[capacity];
+            consumer.resampler = new Resampler(Math.round(inputRate), Math.round(outputRate),
+                    outputChannels, frames);
+        }
+        consumer.bus = this;
+        consumer.busCursor = 0;
+        AudioConsumer[] next = Arrays.copyOf(contributors, contributors.length + 1);
+        next[contributors.length] = consumer;
+        contributors = next;
+    }
+
+    private LatencyController createLatencyController() {
+        return new LatencyController(codec.format.getFrameSize(), codec.format.getFrameRate(),
+                line.getBufferSize(), minLatency, maxLatency);
+    }
+
+    /**
+     * Sets the bounds the target latency of the output is kept within.
+     *
+     * @param minLatency The lowest target latency in nanoseconds.
+     * @param maxLatency The highest target latency in nanoseconds, also limited by the
+     * buffer size of the output.
+     */
+    public synchronized void setLatencyBounds(long minLatency, long maxLatency) {
+        this.minLatency = minLatency;
+        this.maxLatency = maxLatency;
+        if(latency != null) latency = createLatencyController();
+    }
+
+    /**
+     * @return The controller steering the queue depth of the output, or null if no consumer
+     * was attached yet.
+     */
+    public LatencyController getLatency() {
+        return latency;
+    }
+
+    /**
+     * Sets what happens to the mix when the queue of the output is full.
+     *
+     * @param policy The new policy, takes effect on the next write.
+     */
+    public synchronized void setOverflowPolicy(OutputWriter.OverflowPolicy policy) {
+        overflowPolicy = policy;
+        OutputWriter current = writer;
+        if(current != null) current.setOverflowPolicy(policy);
+    }
+
+    /**
+     * @return What happens to the mix when the queue of the output is full.
+     */
+    public synchronized OutputWriter.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return The writer of the output, or null if no consumer is attached.
+     */
+    public OutputWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Starts recording every block written to the output to a tap.
+     *
+     * @param tap A tap in the format of the output, see {@link #getCodec()}, not attached anywhere else.
+     */
+    public synchronized void addTap(RecordingTap tap) {
+        taps = RecordingTap.add(taps, tap);
+    }
+
+    /**
+     * Stops recording the output to a tap. The tap can be closed afterwards.
+     *
+     * @param tap The tap to detach.
+     */
+    public synchronized void removeTap(RecordingTap tap) {
+        taps = RecordingTap.remove(taps, tap);
+    }
+
+    /**
+     * Detaches a consumer from this bus, flushing and stopping the output if it was the last.
+     * The writer of the output is stopped first, dropping what it still queued, and flushing the
+     * line cuts short a write it may be blocked in.
+     *
+     * @param consumer The consumer to detach.
+     * @return true if no consumers are left on this bus.
+     */
+    public synchronized boolean detach(AudioConsumer consumer) {
+        AudioConsumer[] next = Arrays.stream(contributors).filter(c -> c != consumer).toArray(AudioConsumer[]::new);
+        contributors = next;
+        consumer.bus = null;
+        if(next.length == 0){
+            OutputWriter stopped = writer;
+            writer = null;
+            if(stopped != null) stopped.close();
+            Jmx.unregister(writerName);
+            writerName = null;
+            line.flush();
+            line.stop();
+            if(stopped != null){
+                try {
+                    stopped.join(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return next.length == 0;
+    }
+
+    /**
+     * Lets the output play out everything queued, first in the writer and then in the line.
+     *
+     * @param timeout The longest time to wait for the writer's queue in nanoseconds.
+     */
+    public void drain(long timeout) {
+        OutputWriter current = writer;
+        if(current != null) current.awaitEmpty(timeout);
+        line.drain();
+    }
+
+    /**
+     * Adds a block from a consumer into the accumulator, decoded with the consumer's codec.
+     * <p>
+     * If the consumer's block was produced with a {@link ChannelMatrix.Kind#SPARSE} matrix, the
+     * block is decoded and multiplied by it first. If the consumer has a {@link ProcessorChain},
+     * the block is decoded and run through it. If the consumer runs at a different sample rate than the output, the decoded
+     * block goes through the consumer's {@link Resampler} on its way into the accumulator.
+     *
+     * @param consumer The consumer the block belongs to.
+     * @param samples The array holding the block, in the consumer's format.
+     * @param bytes The number of bytes of the block.
+     */
+    public void mix(AudioConsumer consumer, byte[] samples, int bytes) {
+        int count = bytes / consumer.codec.sampleBytes;
+        int start = consumer.busCursor;
+        Resampler resampler = consumer.resampler;
+        ProcessorChain chain = consumer.chain;
+        ChannelMatrix matrix = consumer.blockMatrix;
+        boolean sparse = matrix != null && matrix.kind == ChannelMatrix.Kind.SPARSE;
+        if(resampler != null || chain != null || sparse){
+            long[] decoded = consumer.decoded;
+            int channels = matrix == null ? consumer.codec.format.getChannels() : sparse ? matrix.inputs : matrix.outputs;
+            int frames = count / channels;
+            Arrays.fill(decoded, 0, count, 0);
+            consumer.codec.accumulate(samples, bytes, decoded, 0);
+            if(sparse){
+                matrix.mix(decoded, frames, consumer.remixed);
+                decoded = consumer.remixed;
+                channels = matrix.outputs;
+                count = frames * channels;
+            }
+            if(chain != null) chain.process(decoded, frames);
+            if(resampler != null){
+                int limit = start + resampler.maxOutputFrames(frames) * channels;
+                if(limit > accumulator.length) grow(limit);
+                count = resampler.process(decoded, frames, accumulator, start) * channels;
+            }else{
+                if(start + count > accumulator.length) grow(start + count);
+                long[] sum = accumulator;
+                for (int i = 0; i < count; i++) sum[start + i] += decoded[i];
+            }
+        }else{
+            if(start + count > accumulator.length) grow(start + count);
+            consumer.codec.accumulate(samples, bytes, accumulator, start);
+        }
+        consumer.busCursor = start + count;
+    }
+
+    /**
+     * Hands every sample all contributors have reached to the output's writer in a single block.
+     * <p>
+     * Samples are clamped to the range of the output format, the written samples are removed
+     * from the accumulator and every contributor's cursor is moved back accordingly.
+     * <p>
+     * The queue depth of the output is measured before the write and handed to the
+     * {@link LatencyController}, which may pad the write with silence or drop the start of the
+     * block. An output that ran empty is also reported as a {@link StarvationEvent}. A write the
+     * output only partly accepts is reported by the writer as a {@link ShortWriteEvent}. The
+     * block is also offered to every {@link RecordingTap} of the output.
+     *
+     * @param current The consumers mixed into this bus by the current routing.
+     * @return The number of bytes queued for the output.
+     */
+    public int flush(AudioConsumer[] current) {
+        if(current.length == 0) return 0;
+        int lowest = Integer.MAX_VALUE;
+        int highest = 0;
+        for (AudioConsumer consumer : current) {
+            lowest = Math.min(lowest, consumer.busCursor);
+            highest = Math.max(highest, consumer.busCursor);
+        }
+        int ready = highest - lowest > maxLag ? highest : lowest;
+        if(ready == 0) return 0;
+        long[] sum = accumulator;
+        byte[] out = block;
+        codec.encode(sum, ready, out);
+        System.arraycopy(sum, ready, sum, 0, highest - ready);
+        Arrays.fill(sum, highest - ready, highest, 0);
+        for (AudioConsumer consumer : current) {
+            consumer.busCursor = Math.max(0, consumer.busCursor - ready);
+        }
+        int requested = ready * codec.sampleBytes;
+        OutputWriter output = writer;
+        if(output == null) return 0;
+        int bufferSize = line.getBufferSize();
+        int available = line.available();
+        int queued = output.queued();
+        int offset = 0;
+        LatencyController controller = latency;
+        if(controller != null){
+            int adjustment = controller.adjust(Math.max(0, bufferSize - available) + queued, requested, System.nanoTime());
+            if(adjustment > 0) output.offer(silence, 0, Math.min(adjustment, silence.length));
+            else offset = -adjustment;
+        }
+        if(available >= bufferSize && queued == 0){
+            StarvationEvent starvation = new StarvationEvent();
+            if(starvation.shouldCommit()){
+                starvation.line = line.getLineInfo().toString();
+                starvation.available = available;
+                starvation.bufferSize = bufferSize;
+                starvation.commit();
+            }
+        }
+        requested -= offset;
+        RecordingTap[] recording = taps;
+        for (int i = 0; i < recording.length; i++) recording[i].offer(out, offset, requested);
+        return requested == 0 ? 0 : output.offer(out, offset, requested);
+    }
+
+    /**
+     * Grows the accumulator so it can hold at least the given number of samples.
+     *
+     * @param samples The number of samples needed.
+     */
+    private void grow(int samples) {
+        int capacity = Math.max(samples, accumulator.length * 2);
+        accumulator = Arrays.copyOf(accumulator, capacity);
+        block = new byte[capacity * codec.sampleBytes];
+    }
+
+    /**
+     * @return The codec of the output format, or null if no consumer was attached yet.
+     */
+    public SampleCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return The line this bus writes to.
+     */
+    public SourceDataLine getLine() {
+        return line;
+    }
+}
@@ -0,0 +1,28 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A block a capture thread had to drop because the exchange loop did not drain its ring
+ * in time.
+ */
+@Name("com.Jai2001.LineAudioMixer.CaptureOverrun")
+@Label("Capture Overrun")
+@Category("Line Audio Mixer")
+@Description("A captured block was dropped because the ring buffer was full")
+@StackTrace(false)
+public class CaptureOverrunEvent extends Event {
+
+    @Label("Line")
+    public String line;
+
+    @Label("Dropped")
+    @DataAmount
+    public int dropped;
+}
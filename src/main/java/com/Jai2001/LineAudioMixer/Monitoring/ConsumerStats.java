@@ -0,0 +1,80 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import java.util.function.Supplier;
+
+/**
+ * ConsumerStats holds the histograms of one route, recorded by the audio thread.
+ * <p>
+ * Writes happen once per output for every route mixed into it, so the write time is read
+ * from the histogram of the output the route currently goes to. The same goes for the
+ * latency of the output.
+ */
+public class ConsumerStats implements ConsumerStatsMXBean {
+
+    /**Time spent adjusting the volume of and mixing one block.*/
+    public final LatencyHistogram processTime = new LatencyHistogram();
+
+    private final String input;
+    private final String output;
+    private final Supplier<LatencyHistogram> writeTime;
+    private final Supplier<OutputLatency> latency;
+
+    /**
+     * @param input A description of the input line.
+     * @param output A description of the output line.
+     * @param writeTime Supplies the write histogram of the output, or null if not routed.
+     * @param latency Supplies the latency of the output, or null if not routed.
+     */
+    public ConsumerStats(String input, String output, Supplier<LatencyHistogram> writeTime,
+                         Supplier<OutputLatency> latency) {
+        this.input = input;
+        this.output = output;
+        this.writeTime = writeTime;
+        this.latency = latency;
+    }
+
+    @Override
+    public String getInput() {
+        return input;
+    }
+
+    @Override
+    public String getOutput() {
+        return output;
+    }
+
+    @Override
+    public LatencySnapshot getProcessTime() {
+        return processTime.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getWriteTime() {
+        LatencyHistogram histogram = writeTime.get();
+        return histogram == null ? new LatencySnapshot(0, 0, 0, 0, 0) : histogram.snapshot();
+    }
+
+    @Override
+    public long getTargetLatency() {
+        OutputLatency current = latency.get();
+        return current == null ? 0 : current.getTargetLatency();
+    }
+
+    @Override
+    public long getQueuedLatency() {
+        OutputLatency current = latency.get();
+        return current == null ? 0 : current.getQueuedLatency();
+    }
+
+    @Override
+    public long getUnderruns() {
+        OutputLatency current = latency.get();
+        return current == null ? 0 : current.getUnderruns();
+    }
+
+    @Override
+    public long getOverruns() {
+        OutputLatency current = latency.get();
+        return current == null ? 0 : current.getOverruns();
+    }
+}
@@ -0,0 +1,31 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+/**
+ * Latency statistics of one route from an input to an output, published through JMX.
+ */
+public interface ConsumerStatsMXBean {
+
+    /**@return A description of the input line.*/
+    String getInput();
+
+    /**@return A description of the output line.*/
+    String getOutput();
+
+    /**@return Time spent adjusting the volume of and mixing one block.*/
+    LatencySnapshot getProcessTime();
+
+    /**@return Time spent writing the mix of the output this route goes to.*/
+    LatencySnapshot getWriteTime();
+
+    /**@return The latency the output of this route is steered towards in nanoseconds.*/
+    long getTargetLatency();
+
+    /**@return The audio queued in the output of this route before its last write in nanoseconds.*/
+    long getQueuedLatency();
+
+    /**@return The number of times the output of this route ran empty.*/
+    long getUnderruns();
+
+    /**@return The number of times audio was dropped because the output of this route queued too much.*/
+    long getOverruns();
+}
@@ -0,0 +1,40 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * ExchangerStats holds the loop period histogram of an exchanger, recorded by the audio thread.
+ */
+public class ExchangerStats implements ExchangerStatsMXBean {
+
+    /**Time between the start of two iterations of the exchange loop.*/
+    public final LatencyHistogram loopPeriod = new LatencyHistogram();
+
+    private final Supplier<Object> waitStrategy;
+    private final IntSupplier streams;
+
+    /**
+     * @param waitStrategy Supplies the current wait strategy.
+     * @param streams Supplies the number of inputs read by the loop.
+     */
+    public ExchangerStats(Supplier<Object> waitStrategy, IntSupplier streams) {
+        this.waitStrategy = waitStrategy;
+        this.streams = streams;
+    }
+
+    @Override
+    public LatencySnapshot getLoopPeriod() {
+        return loopPeriod.snapshot();
+    }
+
+    @Override
+    public String getWaitStrategy() {
+        return waitStrategy.get().getClass().getSimpleName();
+    }
+
+    @Override
+    public int getStreamCount() {
+        return streams.getAsInt();
+    }
+}
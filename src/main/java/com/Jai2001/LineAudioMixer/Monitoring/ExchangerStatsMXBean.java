@@ -0,0 +1,16 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+/**
+ * Statistics of the exchange loop as a whole, published through JMX.
+ */
+public interface ExchangerStatsMXBean {
+
+    /**@return Time between the start of two iterations of the exchange loop.*/
+    LatencySnapshot getLoopPeriod();
+
+    /**@return The name of the current wait strategy.*/
+    String getWaitStrategy();
+
+    /**@return The number of inputs currently read by the loop.*/
+    int getStreamCount();
+}
@@ -0,0 +1,29 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A run of zero byte reads from an input, spanning from the first empty read to the next
+ * read that returned data. Only runs longer than the threshold, 10 ms by default, are kept.
+ */
+@Name("com.Jai2001.LineAudioMixer.InputStall")
+@Label("Input Stall")
+@Category("Line Audio Mixer")
+@Description("Consecutive zero byte reads from an input")
+@Threshold("10 ms")
+@StackTrace(false)
+public class InputStallEvent extends Event {
+
+    @Label("Line")
+    public String line;
+
+    @Label("Empty Reads")
+    @Description("Number of reads that returned no data")
+    public long emptyReads;
+}
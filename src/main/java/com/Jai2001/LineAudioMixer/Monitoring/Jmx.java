@@ -0,0 +1,58 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Jmx registers the statistics beans on the platform MBean server under the
+ * {@value #DOMAIN} domain.
+ * <p>
+ * Line descriptions are not unique, so every bean gets a numeric id. Failing to register
+ * never affects audio, the error is only printed.
+ */
+public final class Jmx {
+
+    /**Domain every bean is registered under.*/
+    public static final String DOMAIN = "com.Jai2001.LineAudioMixer";
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private Jmx() {
+    }
+
+    /**
+     * Registers a bean.
+     *
+     * @param type The type key of the object name, for example Stream.
+     * @param bean The bean to register.
+     * @return The name it was registered under, or null if registration failed.
+     */
+    public static ObjectName register(String type, Object bean) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=" + type + ",id=" + IDS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, name);
+            return name;
+        } catch (JMException | SecurityException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Unregisters a bean registered by {@link #register(String, Object)}.
+     *
+     * @param name The name returned on registration, null is ignored.
+     */
+    public static void unregister(ObjectName name) {
+        if (name == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (JMException | SecurityException e) {
+            e.printStackTrace();
+        }
+    }
+}
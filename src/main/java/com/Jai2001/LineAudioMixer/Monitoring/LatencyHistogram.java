@@ -0,0 +1,105 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram records durations in nanoseconds into a fixed set of log-linear buckets.
+ * <p>
+ * Every power of two is split into {@link #SUB_BUCKETS} buckets, so any recorded value is
+ * reported with an error of at most about 3%, from single nanoseconds up to roughly
+ * eighteen minutes. The memory used never grows.
+ * <p>
+ * Recording is lock-free and meant for a single writer, usually the audio thread. Any number
+ * of threads may read percentiles at the same time; they see a slightly stale but never
+ * corrupted view.
+ */
+public class LatencyHistogram {
+
+    /**Number of buckets each power of two is split into.*/
+    public static final int SUB_BUCKETS = 32;
+
+    private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    /**Highest power of two tracked, larger values land in the last bucket.*/
+    private static final int MAX_EXPONENT = 40;
+
+    private final AtomicLongArray counts;
+
+    private volatile long total;
+
+    private volatile long max;
+
+    /**
+     * Constructs an empty LatencyHistogram.
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray((MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS);
+    }
+
+    /**
+     * Records one duration. Only to be called from a single thread at a time.
+     *
+     * @param nanos The duration in nanoseconds, negative values are recorded as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int index = indexOf(value);
+        counts.lazySet(index, counts.get(index) + 1);
+        if (value > max) max = value;
+        total = total + 1;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        value = Math.min(value, (1L << (MAX_EXPONENT + 1)) - 1);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Gets the value below which the given fraction of recorded durations fall.
+     *
+     * @param quantile The fraction between 0 and 1, for example 0.99 for the 99th percentile.
+     * @return The duration in nanoseconds, capped at the maximum recorded, or 0 if empty.
+     */
+    public long percentile(double quantile) {
+        long count = total;
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBoundOf(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * @return The number of durations recorded.
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * @return The longest duration recorded in nanoseconds.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return The count, p50, p99, p99.9 and maximum as one {@link LatencySnapshot}.
+     */
+    public LatencySnapshot snapshot() {
+        return new LatencySnapshot(getCount(), percentile(0.5), percentile(0.99), percentile(0.999), getMax());
+    }
+}
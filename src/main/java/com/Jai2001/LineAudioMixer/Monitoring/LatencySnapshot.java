@@ -0,0 +1,50 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * LatencySnapshot is an immutable summary of a {@link LatencyHistogram}, published through
+ * JMX as a composite value. All durations are in nanoseconds.
+ */
+public class LatencySnapshot {
+
+    private final long count;
+    private final long p50;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    @ConstructorProperties({"count", "p50", "p99", "p999", "max"})
+    public LatencySnapshot(long count, long p50, long p99, long p999, long max) {
+        this.count = count;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "p50 " + p50 + ", p99 " + p99 + ", p99.9 " + p999 + ", max " + max + " (" + count + ")";
+    }
+}
@@ -0,0 +1,31 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A period of the exchange loop, the wait before an iteration and the iteration itself, that
+ * took longer than the threshold, 5 ms by default. Covering the wait means an idle strategy
+ * that oversleeps shows up too.
+ */
+@Name("com.Jai2001.LineAudioMixer.LoopOverrun")
+@Label("Exchange Loop Overrun")
+@Category("Line Audio Mixer")
+@Description("A period of the exchange loop that took longer than the threshold")
+@Threshold("5 ms")
+@StackTrace(false)
+public class LoopOverrunEvent extends Event {
+
+    @Label("Streams")
+    @Description("Number of inputs read in the period")
+    public int streams;
+
+    @Label("Outputs")
+    @Description("Number of outputs written in the period")
+    public int outputs;
+}
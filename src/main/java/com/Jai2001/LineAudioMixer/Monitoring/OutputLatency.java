@@ -0,0 +1,19 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+/**
+ * The queue depth of an output and the latency it is being steered towards.
+ */
+public interface OutputLatency {
+
+    /**@return The latency the output is steered towards in nanoseconds.*/
+    long getTargetLatency();
+
+    /**@return The audio queued in the output before the last write in nanoseconds.*/
+    long getQueuedLatency();
+
+    /**@return The number of times the output ran empty.*/
+    long getUnderruns();
+
+    /**@return The number of times audio was dropped because the output queued too much.*/
+    long getOverruns();
+}
@@ -0,0 +1,86 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * OutputStats holds the counters of one output's queue and the write times of its writer thread.
+ * <p>
+ * Drops are only counted by the audio thread and short writes only by the writer thread, so
+ * every counter has a single writer.
+ */
+public class OutputStats implements OutputStatsMXBean {
+
+    /**Time spent in each write to the line, recorded by the writer thread.*/
+    public final LatencyHistogram writeTime = new LatencyHistogram();
+
+    private final String line;
+    private final Supplier<String> policy;
+    private final IntSupplier queued;
+    private volatile long drops;
+    private volatile long droppedBytes;
+    private volatile long shortWrites;
+
+    /**
+     * @param line A description of the output line.
+     * @param policy Supplies the name of the current overflow policy.
+     * @param queued Supplies the number of bytes queued for the output.
+     */
+    public OutputStats(String line, Supplier<String> policy, IntSupplier queued) {
+        this.line = line;
+        this.policy = policy;
+        this.queued = queued;
+    }
+
+    /**
+     * Counts audio dropped because the queue was full. Only called by the audio thread.
+     *
+     * @param bytes The number of bytes dropped.
+     */
+    public void recordDrop(int bytes) {
+        drops++;
+        droppedBytes += bytes;
+    }
+
+    /**
+     * Counts a write the line only partly accepted. Only called by the writer thread.
+     */
+    public void recordShortWrite() {
+        shortWrites++;
+    }
+
+    @Override
+    public String getLine() {
+        return line;
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return policy.get();
+    }
+
+    @Override
+    public int getQueuedBytes() {
+        return queued.getAsInt();
+    }
+
+    @Override
+    public long getDrops() {
+        return drops;
+    }
+
+    @Override
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    @Override
+    public long getShortWrites() {
+        return shortWrites;
+    }
+
+    @Override
+    public LatencySnapshot getLineWriteTime() {
+        return writeTime.snapshot();
+    }
+}
@@ -0,0 +1,28 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+/**
+ * Queue statistics of one output and its writer thread, published through JMX.
+ */
+public interface OutputStatsMXBean {
+
+    /**@return A description of the output line.*/
+    String getLine();
+
+    /**@return What happens to blocks offered while the queue of the output is full.*/
+    String getOverflowPolicy();
+
+    /**@return The number of bytes queued for the output and not yet accepted by it.*/
+    int getQueuedBytes();
+
+    /**@return The number of times audio was dropped because the queue of the output was full.*/
+    long getDrops();
+
+    /**@return The number of bytes dropped because the queue of the output was full.*/
+    long getDroppedBytes();
+
+    /**@return The number of writes the output only partly accepted.*/
+    long getShortWrites();
+
+    /**@return Time the writer thread spent in each write to the output.*/
+    LatencySnapshot getLineWriteTime();
+}
@@ -0,0 +1,31 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A write to an output that accepted fewer bytes than were mixed.
+ */
+@Name("com.Jai2001.LineAudioMixer.ShortWrite")
+@Label("Short Write")
+@Category("Line Audio Mixer")
+@Description("An output accepted fewer bytes than were written to it")
+@StackTrace(false)
+public class ShortWriteEvent extends Event {
+
+    @Label("Line")
+    public String line;
+
+    @Label("Requested")
+    @DataAmount
+    public int requested;
+
+    @Label("Written")
+    @DataAmount
+    public int written;
+}
@@ -0,0 +1,32 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An output whose buffer ran empty before the next mix was written, detected through
+ * {@code SourceDataLine.available()}.
+ */
+@Name("com.Jai2001.LineAudioMixer.Starvation")
+@Label("Output Starvation")
+@Category("Line Audio Mixer")
+@Description("An output buffer ran empty before the next block was written")
+@StackTrace(false)
+public class StarvationEvent extends Event {
+
+    @Label("Line")
+    public String line;
+
+    @Label("Available")
+    @DataAmount
+    public int available;
+
+    @Label("Buffer Size")
+    @DataAmount
+    public int bufferSize;
+}
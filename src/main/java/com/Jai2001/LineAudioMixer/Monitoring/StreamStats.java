@@ -0,0 +1,47 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+import java.util.function.LongSupplier;
+
+/**
+ * StreamStats holds the histograms of one input stream, recorded by the audio thread.
+ */
+public class StreamStats implements StreamStatsMXBean {
+
+    /**Time spent reading the input per iteration.*/
+    public final LatencyHistogram readTime = new LatencyHistogram();
+
+    /**Time spent on every consumer of the stream per iteration.*/
+    public final LatencyHistogram processTime = new LatencyHistogram();
+
+    private final String line;
+    private final LongSupplier overruns;
+
+    /**
+     * @param line A description of the input line.
+     * @param overruns Supplies the number of blocks dropped by the capture thread.
+     */
+    public StreamStats(String line, LongSupplier overruns) {
+        this.line = line;
+        this.overruns = overruns;
+    }
+
+    @Override
+    public String getLine() {
+        return line;
+    }
+
+    @Override
+    public LatencySnapshot getReadTime() {
+        return readTime.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getProcessTime() {
+        return processTime.snapshot();
+    }
+
+    @Override
+    public long getCaptureOverruns() {
+        return overruns.getAsLong();
+    }
+}
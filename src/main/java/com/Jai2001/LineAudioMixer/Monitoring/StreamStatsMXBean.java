@@ -0,0 +1,19 @@
+package com.Jai2001.LineAudioMixer.Monitoring;
+
+/**
+ * Latency statistics of one input stream, published through JMX.
+ */
+public interface StreamStatsMXBean {
+
+    /**@return A description of the input line.*/
+    String getLine();
+
+    /**@return Time spent reading the input, or draining its capture ring, per iteration.*/
+    LatencySnapshot getReadTime();
+
+    /**@return Time spent processing and mixing the block for every consumer per iteration.*/
+    LatencySnapshot getProcessTime();
+
+    /**@return Blocks the capture thread dropped because its ring was full.*/
+    long getCaptureOverruns();
+}
@@ -0,0 +1,265 @@
+package com.Jai2001.LineAudioMixer;
+
+import com.Jai2001.LineAudioMixer.Monitoring.OutputStats;
+import com.Jai2001.LineAudioMixer.Monitoring.ShortWriteEvent;
+
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * OutputWriter writes the blocks of one output on its own thread.
+ * <p>
+ * {@link SourceDataLine#write(byte[], int, int)} blocks while the device buffer is full, so a
+ * slow or suspended device written to by the audio thread holds up every input and every other
+ * output. Instead the audio thread only copies each block into a bounded queue of preallocated
+ * slots through {@link #offer(byte[], int, int)}, and a writer thread per output moves them to
+ * the line. A device that stops accepting audio then only fills its own queue.
+ * <p>
+ * What happens to a block offered to a full queue is decided by the {@link OverflowPolicy},
+ * which can be changed at any time. Dropped blocks and writes the line only partly accepted are
+ * counted in the {@link OutputStats} of the output.
+ * <p>
+ * The queue has a single producer, the audio thread, and a single consumer, the writer thread.
+ * Both only advance free running positions. To drop the oldest block the producer advances the
+ * read position itself, so the writer copies a slot out before claiming it and discards the
+ * copy if the claim fails.
+ */
+public class OutputWriter {
+
+    /**
+     * What {@link #offer(byte[], int, int)} does when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**Drop the oldest queued blocks to make room, keeping the latency bounded.*/
+        DROP_OLDEST,
+        /**Drop the offered block, keeping what is queued.*/
+        DROP_NEWEST,
+        /**Wait for the writer to make room. A stalled output then stalls the audio thread.*/
+        BLOCK
+    }
+
+    /**Number of slots of the queue.*/
+    public static final int SLOTS = 32;
+
+    /**How long the audio thread sleeps between checks while blocked on a full queue.*/
+    private static final long BLOCK_PARK = 100_000L;
+
+    /**How long an idle writer sleeps before checking the queue without being woken.*/
+    private static final long IDLE_PARK = 10_000_000L;
+
+    private final SourceDataLine line;
+
+    /**Slot storage, {@link #slotBytes} per slot.*/
+    private final byte[] data;
+
+    /**Number of bytes held by every slot.*/
+    private final int[] lengths;
+
+    private final int slotBytes;
+    private final int mask;
+
+    /**Blocks ever claimed by the writer or dropped by the producer.*/
+    private final AtomicLong head = new AtomicLong();
+
+    /**Blocks ever queued, only advanced by the producer.*/
+    private final AtomicLong tail = new AtomicLong();
+
+    /**Bytes ever queued, only advanced by the producer.*/
+    private volatile long queuedBytes;
+
+    /**Bytes ever claimed or dropped.*/
+    private final AtomicLong takenBytes = new AtomicLong();
+
+    /**Bytes the writer claimed and is still writing.*/
+    private volatile int inFlight;
+
+    /**The block being written, copied out of its slot.*/
+    private final byte[] current;
+
+    private final Thread writer;
+    private volatile boolean running;
+    private volatile boolean waiting;
+    private volatile OverflowPolicy policy;
+
+    /**Counters and write times of the output.*/
+    public final OutputStats stats;
+
+    /**
+     * Constructs an OutputWriter and starts its thread.
+     *
+     * @param line The line to write to, opened and started.
+     * @param capacity The minimum number of bytes the queue holds.
+     * @param policy What to do when the queue is full.
+     */
+    public OutputWriter(SourceDataLine line, int capacity, OverflowPolicy policy) {
+        this.line = line;
+        this.policy = policy;
+        int frameSize = Math.max(1, line.getFormat().getFrameSize());
+        int frames = Math.max(1, (capacity / SLOTS + frameSize - 1) / frameSize);
+        this.slotBytes = frames * frameSize;
+        this.data = new byte[slotBytes * SLOTS];
+        this.lengths = new int[SLOTS];
+        this.mask = SLOTS - 1;
+        this.current = new byte[slotBytes];
+        this.stats = new OutputStats(line.getLineInfo().toString(), () -> this.policy.name(), this::queued);
+        this.running = true;
+        this.writer = new Thread(new drain(), "Writer " + line.getLineInfo());
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MAX_PRIORITY);
+        writer.start();
+    }
+
+    /**
+     * Queues a block for the line. Only to be called from the one thread feeding this output.
+     * <p>
+     * Blocks larger than a slot are split over several slots at frame boundaries.
+     *
+     * @param block The array holding the block.
+     * @param offset The offset of the block.
+     * @param bytes The number of bytes of the block.
+     * @return The number of bytes queued, less than bytes if some were dropped.
+     */
+    public int offer(byte[] block, int offset, int bytes) {
+        int queued = 0;
+        while (queued < bytes) {
+            int length = Math.min(slotBytes, bytes - queued);
+            if(!reserve()){
+                stats.recordDrop(bytes - queued);
+                break;
+            }
+            long position = tail.get();
+            int slot = (int) (position & mask);
+            System.arraycopy(block, offset + queued, data, slot * slotBytes, length);
+            lengths[slot] = length;
+            queuedBytes += length;
+            tail.set(position + 1);
+            queued += length;
+        }
+        if(waiting) LockSupport.unpark(writer);
+        return queued;
+    }
+
+    /**
+     * Makes sure a slot is free, applying the overflow policy if none is.
+     *
+     * @return false if the block should be dropped.
+     */
+    private boolean reserve() {
+        while (tail.get() - head.get() >= SLOTS) {
+            switch (policy) {
+                case DROP_NEWEST:
+                    return false;
+                case DROP_OLDEST:
+                    long oldest = head.get();
+                    int length = lengths[(int) (oldest & mask)];
+                    if(tail.get() - oldest >= SLOTS && head.compareAndSet(oldest, oldest + 1)){
+                        takenBytes.addAndGet(length);
+                        stats.recordDrop(length);
+                    }
+                    break;
+                case BLOCK:
+                    if(!running) return false;
+                    LockSupport.unpark(writer);
+                    LockSupport.parkNanos(this, BLOCK_PARK);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of bytes queued or being written, not yet accepted by the line.
+     */
+    public int queued() {
+        return (int) (queuedBytes - takenBytes.get()) + inFlight;
+    }
+
+    /**
+     * Waits until the writer has handed everything queued to the line.
+     *
+     * @param timeout The longest time to wait in nanoseconds.
+     * @return true if the queue ran empty in time.
+     */
+    public boolean awaitEmpty(long timeout) {
+        long deadline = System.nanoTime() + timeout;
+        while (head.get() != tail.get() || inFlight != 0) {
+            if(!running || System.nanoTime() - deadline > 0) return false;
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, BLOCK_PARK);
+        }
+        return true;
+    }
+
+    /**
+     * Sets what happens to blocks offered while the queue is full. Takes effect on the next offer.
+     *
+     * @param policy The new policy.
+     */
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return What happens to blocks offered while the queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * Stops the writer thread, dropping whatever is still queued. A write in progress finishes
+     * first, so flush or stop the line to cut it short.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Waits for the writer thread to end after {@link #close()}.
+     *
+     * @param millis The longest time to wait.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void join(long millis) throws InterruptedException {
+        writer.join(millis);
+    }
+
+    /**
+     * Inner class that moves queued blocks to the line.
+     */
+    private class drain implements Runnable {
+        public void run(){
+            while (running){
+                long position = head.get();
+                if(position == tail.get()){
+                    waiting = true;
+                    if(head.get() == tail.get() && running) LockSupport.parkNanos(this, IDLE_PARK);
+                    waiting = false;
+                    continue;
+                }
+                int slot = (int) (position & mask);
+                int length = lengths[slot];
+                System.arraycopy(data, slot * slotBytes, current, 0, length);
+                if(!head.compareAndSet(position, position + 1)) continue;
+                inFlight = length;
+                takenBytes.addAndGet(length);
+                long start = System.nanoTime();
+                int written = line.write(current, 0, length);
+                stats.writeTime.record(System.nanoTime() - start);
+                inFlight = 0;
+                if(written < length){
+                    stats.recordShortWrite();
+                    ShortWriteEvent shortWrite = new ShortWriteEvent();
+                    if(shortWrite.shouldCommit()){
+                        shortWrite.line = line.getLineInfo().toString();
+                        shortWrite.requested = length;
+                        shortWrite.written = written;
+                        shortWrite.commit();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.Jai2001.LineAudioMixer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ParkingWaitStrategy parks the exchange thread so iterations start on a fixed period.
+ * <p>
+ * Rather than sleeping for a fixed time after each iteration, it tracks a deadline that
+ * advances by one period per iteration, so the time spent transferring is not added on top
+ * of the wait. If the loop falls behind by more than a period the deadline is resynchronised
+ * instead of running a burst of back to back iterations.
+ * <p>
+ * CPU usage is low and latency is bounded by the period plus the timer slack of the OS.
+ */
+public class ParkingWaitStrategy implements WaitStrategy {
+
+    /**Default period of one millisecond.*/
+    public static final long DEFAULT_PERIOD = 1_000_000L;
+
+    /**Time between the start of two iterations in nanoseconds.*/
+    private final long period;
+
+    /**The {@link System#nanoTime()} the next iteration should start at.*/
+    private long deadline;
+
+    /**
+     * Constructs a ParkingWaitStrategy with the {@link #DEFAULT_PERIOD}.
+     */
+    public ParkingWaitStrategy() {
+        this(DEFAULT_PERIOD);
+    }
+
+    /**
+     * Constructs a ParkingWaitStrategy.
+     *
+     * @param period The time between the start of two iterations in nanoseconds.
+     */
+    public ParkingWaitStrategy(long period) {
+        this.period = period;
+        this.deadline = 0;
+    }
+
+    @Override
+    public void idle(long loopStart) throws InterruptedException {
+        long now = System.nanoTime();
+        if (deadline == 0 || now - deadline > period) deadline = now;
+        deadline += period;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    /**
+     * @return The time between the start of two iterations in nanoseconds.
+     */
+    public long getPeriod() {
+        return period;
+    }
+}
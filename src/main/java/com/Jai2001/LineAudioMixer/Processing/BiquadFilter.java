@@ -0,0 +1,126 @@
+package com.Jai2001.LineAudioMixer.Processing;
+
+/**
+ * BiquadFilter is a second order IIR filter, one band of an equalizer.
+ * <p>
+ * The coefficients follow the well known audio EQ cookbook. They are computed by the
+ * setters on the calling thread and handed to the audio thread as one immutable object, so
+ * a band can be retuned while it runs without the audio thread ever seeing half an update.
+ * The filter runs in transposed direct form II with one pair of state variables per channel,
+ * flushed to zero once it decays into the denormal range.
+ */
+public class BiquadFilter implements Processor {
+
+    /**The response of the filter.*/
+    public enum Type { LOW_PASS, HIGH_PASS, PEAKING, LOW_SHELF, HIGH_SHELF }
+
+    /**Normalised coefficients, a0 being 1.*/
+    private static final class Coefficients {
+        final float b0, b1, b2, a1, a2;
+
+        Coefficients(double b0, double b1, double b2, double a0, double a1, double a2) {
+            this.b0 = (float) (b0 / a0);
+            this.b1 = (float) (b1 / a0);
+            this.b2 = (float) (b2 / a0);
+            this.a1 = (float) (a1 / a0);
+            this.a2 = (float) (a2 / a0);
+        }
+    }
+
+    private volatile Type type;
+    private volatile double frequency;
+    private volatile double q;
+    private volatile double gainDb;
+    private volatile Coefficients coefficients;
+
+    private float sampleRate = 48000;
+    private int channels = 1;
+    private float[] z1 = new float[1];
+    private float[] z2 = new float[1];
+
+    /**
+     * Constructs a BiquadFilter.
+     *
+     * @param type The response of the filter.
+     * @param frequency The cutoff or centre frequency in Hz.
+     * @param q The quality factor, 0.707 for a flat pass or shelf.
+     * @param gainDb The gain of a peaking or shelf filter in dB, ignored by the others.
+     */
+    public BiquadFilter(Type type, double frequency, double q, double gainDb) {
+        set(type, frequency, q, gainDb);
+    }
+
+    /**
+     * Retunes the filter. Safe to call while it runs, takes effect on the next block.
+     *
+     * @param type The response of the filter.
+     * @param frequency The cutoff or centre frequency in Hz.
+     * @param q The quality factor.
+     * @param gainDb The gain of a peaking or shelf filter in dB.
+     */
+    public void set(Type type, double frequency, double q, double gainDb) {
+        this.type = type;
+        this.frequency = frequency;
+        this.q = q;
+        this.gainDb = gainDb;
+        coefficients = design(type, frequency, q, gainDb, sampleRate);
+    }
+
+    private static Coefficients design(Type type, double frequency, double q, double gainDb, double sampleRate) {
+        double w0 = 2 * Math.PI * Math.min(frequency, sampleRate * 0.49) / sampleRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * q);
+        double a = Math.pow(10, gainDb / 40);
+        switch (type) {
+            case LOW_PASS:
+                return new Coefficients((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+            case HIGH_PASS:
+                return new Coefficients((1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+            case PEAKING:
+                return new Coefficients(1 + alpha * a, -2 * cos, 1 - alpha * a, 1 + alpha / a, -2 * cos, 1 - alpha / a);
+            case LOW_SHELF: {
+                double root = 2 * Math.sqrt(a) * alpha;
+                return new Coefficients(a * ((a + 1) - (a - 1) * cos + root), 2 * a * ((a - 1) - (a + 1) * cos),
+                        a * ((a + 1) - (a - 1) * cos - root), (a + 1) + (a - 1) * cos + root,
+                        -2 * ((a - 1) + (a + 1) * cos), (a + 1) + (a - 1) * cos - root);
+            }
+            case HIGH_SHELF: {
+                double root = 2 * Math.sqrt(a) * alpha;
+                return new Coefficients(a * ((a + 1) + (a - 1) * cos + root), -2 * a * ((a - 1) + (a + 1) * cos),
+                        a * ((a + 1) + (a - 1) * cos - root), (a + 1) - (a - 1) * cos + root,
+                        2 * ((a - 1) - (a + 1) * cos), (a + 1) - (a - 1) * cos - root);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown filter type " + type);
+        }
+    }
+
+    @Override
+    public void prepare(float sampleRate, int channels, int maxFrames) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.z1 = new float[channels];
+        this.z2 = new float[channels];
+        coefficients = design(type, frequency, q, gainDb, sampleRate);
+    }
+
+    @Override
+    public void process(float[] samples, int frames) {
+        Coefficients c = coefficients;
+        float b0 = c.b0, b1 = c.b1, b2 = c.b2, a1 = c.a1, a2 = c.a2;
+        int stride = channels;
+        for (int channel = 0; channel < stride; channel++) {
+            float s1 = z1[channel];
+            float s2 = z2[channel];
+            for (int i = channel, end = frames * stride; i < end; i += stride) {
+                float in = samples[i];
+                float out = b0 * in + s1;
+                s1 = b1 * in - a1 * out + s2;
+                s2 = b2 * in - a2 * out;
+                samples[i] = out;
+            }
+            z1[channel] = Math.abs(s1) < 1e-20f ? 0 : s1;
+            z2[channel] = Math.abs(s2) < 1e-20f ? 0 : s2;
+        }
+    }
+}
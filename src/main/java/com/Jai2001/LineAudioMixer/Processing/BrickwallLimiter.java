@@ -0,0 +1,109 @@
+package com.Jai2001.LineAudioMixer.Processing;
+
+/**
+ * BrickwallLimiter keeps every sample at or below a ceiling without clipping.
+ * <p>
+ * The signal is delayed by a short look ahead. The gain needed to keep each incoming frame
+ * under the ceiling is tracked over the whole look ahead window with a monotonic queue, so
+ * the gain is already down by the time a peak leaves the delay line. Once the peak has
+ * passed the gain recovers with the release time. A final clamp catches rounding.
+ * <p>
+ * The look ahead is fixed in {@link #prepare(float, int, int)}, the ceiling and release can be
+ * changed while it runs.
+ */
+public class BrickwallLimiter implements Processor {
+
+    private volatile float ceilingDb;
+    private volatile float releaseMs;
+    private final float lookAheadMs;
+
+    private float sampleRate = 48000;
+    private int channels = 1;
+
+    /**Delayed samples, interleaved, {@link #delay} frames long.*/
+    private float[] delayLine = new float[1];
+    private int delay = 1;
+    private int delayPosition;
+
+    /**Monotonic queue of the lowest required gain in the window, stored as a ring.*/
+    private float[] queueGain = new float[2];
+    private long[] queueFrame = new long[2];
+    private int queueHead;
+    private int queueSize;
+
+    /**Number of frames processed so far.*/
+    private long frame;
+
+    /**Gain applied to the last frame.*/
+    private float gain = 1;
+
+    /**
+     * Constructs a BrickwallLimiter.
+     *
+     * @param ceilingDb The highest level any sample may reach, in dB below full scale.
+     * @param lookAheadMs How far ahead peaks are seen, which is also the latency added.
+     * @param releaseMs The time the gain takes to recover after a peak.
+     */
+    public BrickwallLimiter(float ceilingDb, float lookAheadMs, float releaseMs) {
+        this.ceilingDb = ceilingDb;
+        this.lookAheadMs = lookAheadMs;
+        this.releaseMs = releaseMs;
+    }
+
+    public void setCeiling(float ceilingDb) {
+        this.ceilingDb = ceilingDb;
+    }
+
+    public void setRelease(float releaseMs) {
+        this.releaseMs = releaseMs;
+    }
+
+    @Override
+    public void prepare(float sampleRate, int channels, int maxFrames) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.delay = Math.max(1, Math.round(lookAheadMs * sampleRate / 1000));
+        this.delayLine = new float[delay * channels];
+        this.delayPosition = 0;
+        this.queueGain = new float[delay + 1];
+        this.queueFrame = new long[delay + 1];
+        this.queueHead = 0;
+        this.queueSize = 0;
+        this.frame = 0;
+        this.gain = 1;
+    }
+
+    @Override
+    public void process(float[] samples, int frames) {
+        float ceiling = (float) Math.pow(10, ceilingDb / 20);
+        float release = releaseMs <= 0 ? 0 : (float) Math.exp(-1000.0 / (releaseMs * sampleRate));
+        int stride = channels;
+        int capacity = queueGain.length;
+        float current = gain;
+        for (int i = 0, end = frames * stride; i < end; i += stride, frame++) {
+            float peak = 0;
+            for (int c = 0; c < stride; c++) peak = Math.max(peak, Math.abs(samples[i + c]));
+            float required = peak > ceiling ? ceiling / peak : 1;
+            if(queueSize > 0 && queueFrame[queueHead] <= frame - capacity){
+                queueHead = (queueHead + 1) % capacity;
+                queueSize--;
+            }
+            while (queueSize > 0 && queueGain[(queueHead + queueSize - 1) % capacity] >= required) queueSize--;
+            int tail = (queueHead + queueSize) % capacity;
+            queueGain[tail] = required;
+            queueFrame[tail] = frame;
+            queueSize++;
+            float target = queueGain[queueHead];
+            current = target < current ? target : target + release * (current - target);
+            int slot = delayPosition * stride;
+            for (int c = 0; c < stride; c++) {
+                float delayed = delayLine[slot + c];
+                delayLine[slot + c] = samples[i + c];
+                float out = delayed * current;
+                samples[i + c] = out > ceiling ? ceiling : Math.max(out, -ceiling);
+            }
+            if(++delayPosition == delay) delayPosition = 0;
+        }
+        gain = current;
+    }
+}
@@ -0,0 +1,98 @@
+package com.Jai2001.LineAudioMixer.Processing;
+
+/**
+ * Compressor is a feed forward dynamic range compressor with linked channels.
+ * <p>
+ * The loudest channel of each frame drives a peak envelope with separate attack and release
+ * times. Wherever the envelope is above the threshold the level is reduced by the ratio, and
+ * the make up gain is applied to the result. Every setting can be changed while it runs.
+ */
+public class Compressor implements Processor {
+
+    private volatile float thresholdDb;
+    private volatile float ratio;
+    private volatile float attackMs;
+    private volatile float releaseMs;
+    private volatile float makeUpDb;
+
+    private float sampleRate = 48000;
+    private int channels = 1;
+
+    /**Current level of the envelope, 1 being full scale.*/
+    private float envelope;
+
+    /**
+     * Constructs a Compressor.
+     *
+     * @param thresholdDb The level above which the signal is compressed, in dB below full scale.
+     * @param ratio How many dB the input has to rise above the threshold for the output to rise one.
+     * @param attackMs The time the envelope takes to follow a rising level.
+     * @param releaseMs The time the envelope takes to follow a falling level.
+     * @param makeUpDb The gain applied after compression in dB.
+     */
+    public Compressor(float thresholdDb, float ratio, float attackMs, float releaseMs, float makeUpDb) {
+        this.thresholdDb = thresholdDb;
+        this.ratio = ratio;
+        this.attackMs = attackMs;
+        this.releaseMs = releaseMs;
+        this.makeUpDb = makeUpDb;
+    }
+
+    public void setThreshold(float thresholdDb) {
+        this.thresholdDb = thresholdDb;
+    }
+
+    public void setRatio(float ratio) {
+        this.ratio = ratio;
+    }
+
+    public void setAttack(float attackMs) {
+        this.attackMs = attackMs;
+    }
+
+    public void setRelease(float releaseMs) {
+        this.releaseMs = releaseMs;
+    }
+
+    public void setMakeUp(float makeUpDb) {
+        this.makeUpDb = makeUpDb;
+    }
+
+    /**
+     * @return The coefficient of a one pole smoother reaching 63% of a step in the given time.
+     */
+    private float coefficient(float ms) {
+        return ms <= 0 ? 0 : (float) Math.exp(-1000.0 / (ms * sampleRate));
+    }
+
+    @Override
+    public void prepare(float sampleRate, int channels, int maxFrames) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.envelope = 0;
+    }
+
+    @Override
+    public void process(float[] samples, int frames) {
+        float threshold = thresholdDb;
+        float slope = 1 - 1 / Math.max(1, ratio);
+        float attack = coefficient(attackMs);
+        float release = coefficient(releaseMs);
+        float makeUp = (float) Math.pow(10, makeUpDb / 20);
+        float level = envelope;
+        int stride = channels;
+        for (int i = 0, end = frames * stride; i < end; i += stride) {
+            float peak = 0;
+            for (int c = 0; c < stride; c++) peak = Math.max(peak, Math.abs(samples[i + c]));
+            float coefficient = peak > level ? attack : release;
+            level = peak + coefficient * (level - peak);
+            float gain = makeUp;
+            if(level > 1e-6f){
+                float over = (float) (20 * Math.log10(level)) - threshold;
+                if(over > 0) gain *= (float) Math.pow(10, -over * slope / 20);
+            }
+            for (int c = 0; c < stride; c++) samples[i + c] *= gain;
+        }
+        envelope = level < 1e-20f ? 0 : level;
+    }
+}
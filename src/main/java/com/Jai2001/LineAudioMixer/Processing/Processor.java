@@ -0,0 +1,32 @@
+package com.Jai2001.LineAudioMixer.Processing;
+
+/**
+ * Processor is one stage of a {@link ProcessorChain}.
+ * <p>
+ * Samples are interleaved floats where 1 is full scale, and are processed in place.
+ * {@link #process(float[], int)} runs on the audio thread, so it must not allocate, lock or
+ * block. Everything it needs is set up in {@link #prepare(float, int, int)}, which runs on
+ * the thread installing the chain before the audio thread sees it.
+ * <p>
+ * A processor keeps state between blocks, so one instance must only be used by one chain.
+ */
+public interface Processor {
+
+    /**
+     * Sets the processor up for a stream. May allocate. Called again if the chain is moved
+     * to a stream of another format.
+     *
+     * @param sampleRate The sample rate of the samples.
+     * @param channels The number of interleaved channels.
+     * @param maxFrames The largest block in frames that will be processed.
+     */
+    void prepare(float sampleRate, int channels, int maxFrames);
+
+    /**
+     * Processes a block in place.
+     *
+     * @param samples Interleaved samples, 1 being full scale.
+     * @param frames The number of frames in the block.
+     */
+    void process(float[] samples, int frames);
+}
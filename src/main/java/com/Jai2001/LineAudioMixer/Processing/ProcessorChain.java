@@ -0,0 +1,87 @@
+package com.Jai2001.LineAudioMixer.Processing;
+
+/**
+ * ProcessorChain runs a fixed list of {@link Processor}s on blocks of samples.
+ * <p>
+ * Chains are attached to an input or to a single route, and are replaced as a whole through
+ * a volatile field to change the processing while audio keeps running. The new chain starts
+ * with fresh filter state.
+ * <p>
+ * Samples arrive left justified to 32 bits in a {@code long} block, the way the mix bus
+ * accumulates them. They are converted to floats in a scratch block sized in
+ * {@link #prepare(float, int, int)}, run through every stage and converted back, so
+ * {@link #process(long[], int)} never allocates.
+ */
+public final class ProcessorChain {
+
+    private static final float TO_FLOAT = 1f / (1L << 31);
+    private static final float FROM_FLOAT = 1L << 31;
+
+    private final Processor[] stages;
+    private float[] work;
+    private int channels;
+
+    /**
+     * Constructs a ProcessorChain.
+     *
+     * @param stages The processors in the order they run. None may be part of another chain.
+     */
+    public ProcessorChain(Processor... stages) {
+        this.stages = stages.clone();
+        this.work = new float[0];
+        this.channels = 1;
+    }
+
+    /**
+     * Sets every stage up for a stream. Must be called before the chain is installed.
+     *
+     * @param sampleRate The sample rate of the samples.
+     * @param channels The number of interleaved channels.
+     * @param maxFrames The largest block in frames that will be processed.
+     * @return This chain.
+     */
+    public ProcessorChain prepare(float sampleRate, int channels, int maxFrames) {
+        this.channels = channels;
+        this.work = new float[channels * maxFrames];
+        for (Processor stage : stages) {
+            stage.prepare(sampleRate, channels, maxFrames);
+        }
+        return this;
+    }
+
+    /**
+     * Processes a block in place.
+     *
+     * @param samples Interleaved samples, left justified to 32 bits.
+     * @param frames The number of frames in the block, at most the prepared maximum.
+     */
+    public void process(long[] samples, int frames) {
+        int count = Math.min(frames * channels, work.length);
+        float[] scratch = work;
+        for (int i = 0; i < count; i++) {
+            scratch[i] = samples[i] * TO_FLOAT;
+        }
+        int processed = count / channels;
+        for (Processor stage : stages) {
+            stage.process(scratch, processed);
+        }
+        for (int i = 0; i < count; i++) {
+            samples[i] = (long) (scratch[i] * FROM_FLOAT);
+        }
+    }
+
+    /**
+     * @return The number of stages.
+     */
+    public int size() {
+        return stages.length;
+    }
+
+    /**
+     * @param index The position of the stage.
+     * @return The stage at that position.
+     */
+    public Processor get(int index) {
+        return stages[index];
+    }
+}
@@ -0,0 +1,235 @@
+package com.Jai2001.LineAudioMixer;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RecordingTap records the blocks passing through an input, a route or an output to a WAV file.
+ * <p>
+ * The audio thread only copies each block into a lock-free {@link AudioRingBuffer} through
+ * {@link #offer(byte[], int, int)}. A writer thread drains the ring into a {@link FileChannel}
+ * and rewrites the sizes in the WAV header every second, so a recording cut short by a crash
+ * is still readable up to the last update. If the disk stalls the ring fills up and further
+ * blocks are dropped and counted, the audio thread never waits for the disk.
+ * <p>
+ * WAV files are little endian, so big endian samples are swapped and signed 8 bit samples
+ * are made unsigned by the writer thread, never by the audio thread.
+ * <p>
+ * A tap must only be attached at one point, since the ring has a single producer.
+ */
+public class RecordingTap implements Closeable {
+
+    /**Size of the WAV header written before the samples.*/
+    private static final int HEADER_SIZE = 44;
+
+    /**How often the header is rewritten with the current sizes, in nanoseconds.*/
+    private static final long HEADER_INTERVAL = 1_000_000_000L;
+
+    /**An empty set of taps.*/
+    static final RecordingTap[] NONE = new RecordingTap[0];
+
+    private final AudioFormat format;
+    private final AudioRingBuffer ring;
+    private final FileChannel channel;
+    private final Thread writer;
+    private volatile boolean open;
+    private boolean closed;
+    private volatile long written;
+
+    /**
+     * Creates a tap recording to a new file, with a ring holding two seconds of audio.
+     *
+     * @param file The file to record to, replaced if it exists.
+     * @param format The format of the blocks that will be offered.
+     * @return The tap, already writing.
+     * @throws IOException If the file cannot be created.
+     */
+    public static RecordingTap open(Path file, AudioFormat format) throws IOException {
+        int bytesPerSecond = (int) (format.getFrameRate() * format.getFrameSize());
+        return new RecordingTap(file, format, Math.max(1 << 16, bytesPerSecond * 2));
+    }
+
+    /**
+     * Constructs a RecordingTap.
+     *
+     * @param file The file to record to, replaced if it exists.
+     * @param format The format of the blocks that will be offered.
+     * @param ringSize The minimum number of bytes the ring holds before blocks are dropped.
+     * @throws IOException If the file cannot be created.
+     */
+    public RecordingTap(Path file, AudioFormat format, int ringSize) throws IOException {
+        this.format = format;
+        this.ring = new AudioRingBuffer(ringSize);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader();
+        this.open = true;
+        this.writer = new Thread(new drain(), "Recorder " + file.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a block for recording. Only to be called from the one thread feeding this tap.
+     *
+     * @param block The array holding the block.
+     * @param offset The offset of the block.
+     * @param bytes The number of bytes of the block.
+     * @return false if the block was dropped because the writer fell behind.
+     */
+    public boolean offer(byte[] block, int offset, int bytes) {
+        return bytes <= 0 || ring.write(block, offset, bytes);
+    }
+
+    /**
+     * @return The format of the recording.
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return The number of blocks dropped because the writer fell behind.
+     */
+    public long getDropped() {
+        return ring.getOverruns();
+    }
+
+    /**
+     * @return The number of sample bytes written to the file so far.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Stops recording, writes whatever is still queued and closes the file with a final header.
+     * Detach the tap first, blocks offered after this are dropped.
+     *
+     * @throws IOException If the file cannot be completed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        open = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writeHeader();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the WAV header with the number of bytes written so far.
+     */
+    private void writeHeader() throws IOException {
+        boolean floating = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding());
+        int channels = format.getChannels();
+        int bits = format.getSampleSizeInBits();
+        int frameSize = format.getFrameSize();
+        int sampleRate = Math.round(format.getSampleRate());
+        long data = Math.min(written, 0xFFFFFFFFL - HEADER_SIZE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'}).putInt((int) (data + HEADER_SIZE - 8))
+                .put(new byte[]{'W', 'A', 'V', 'E'})
+                .put(new byte[]{'f', 'm', 't', ' '}).putInt(16)
+                .putShort((short) (floating ? 3 : 1)).putShort((short) channels)
+                .putInt(sampleRate).putInt(sampleRate * frameSize)
+                .putShort((short) frameSize).putShort((short) bits)
+                .put(new byte[]{'d', 'a', 't', 'a'}).putInt((int) data);
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    /**
+     * Converts a run of whole frames to the byte order and signedness of WAV in place.
+     */
+    private void toWav(byte[] samples, int bytes) {
+        int sampleBytes = format.getSampleSizeInBits() / 8;
+        if(sampleBytes == 1){
+            if(AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())){
+                for (int i = 0; i < bytes; i++) samples[i] ^= (byte) 0x80;
+            }
+        }else if(format.isBigEndian()){
+            for (int i = 0; i + sampleBytes <= bytes; i += sampleBytes) {
+                for (int a = i, b = i + sampleBytes - 1; a < b; a++, b--) {
+                    byte swap = samples[a];
+                    samples[a] = samples[b];
+                    samples[b] = swap;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a tap to a set of taps.
+     */
+    static RecordingTap[] add(RecordingTap[] taps, RecordingTap tap) {
+        RecordingTap[] next = Arrays.copyOf(taps, taps.length + 1);
+        next[taps.length] = tap;
+        return next;
+    }
+
+    /**
+     * Removes a tap from a set of taps.
+     */
+    static RecordingTap[] remove(RecordingTap[] taps, RecordingTap tap) {
+        return Arrays.stream(taps).filter(t -> t != tap).toArray(RecordingTap[]::new);
+    }
+
+    /**
+     * Inner class that runs the writer thread.
+     */
+    private class drain implements Runnable {
+        /**
+         * Moves whole frames from the ring to the file until the tap is closed and the ring is
+         * empty, rewriting the header every {@link #HEADER_INTERVAL}. If the file can not be
+         * written the thread ends, and the full ring makes the tap drop every further block.
+         */
+        public void run(){
+            int frameSize = Math.max(1, format.getFrameSize());
+            byte[] chunk = new byte[Math.max(frameSize, (1 << 16) - (1 << 16) % frameSize)];
+            ByteBuffer view = ByteBuffer.wrap(chunk);
+            long position = HEADER_SIZE;
+            long lastHeader = System.nanoTime();
+            try {
+                while (true){
+                    int available = ring.available();
+                    int request = Math.min(available - available % frameSize, chunk.length);
+                    if(request == 0){
+                        if(!open) break;
+                        LockSupport.parkNanos(this, 5_000_000L);
+                    }else{
+                        int bytes = ring.read(chunk, 0, request);
+                        toWav(chunk, bytes);
+                        view.clear().limit(bytes);
+                        while (view.hasRemaining()) position += channel.write(view, position);
+                        written += bytes;
+                    }
+                    long now = System.nanoTime();
+                    if(now - lastHeader > HEADER_INTERVAL){
+                        writeHeader();
+                        lastHeader = now;
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.Jai2001.LineAudioMixer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resampler is a streaming polyphase sample rate converter.
+ * <p>
+ * The conversion ratio is reduced to {@code up / down}. Every output sample is computed
+ * from {@link #TAPS} input samples weighted by one of {@code up} phases of a windowed sinc
+ * filter, whose cutoff is placed below the lower of the two Nyquist frequencies. The filter
+ * tables only depend on the rate pair, so they are built once and shared through
+ * {@link #filterFor(int, int)}.
+ * <p>
+ * Samples go in and out left justified to 32 bits, the way the {@link MixBus} accumulates
+ * them. Each channel keeps its own history so blocks of any size can be fed in, and no
+ * allocation happens per block once the history is large enough for the biggest block.
+ */
+public class Resampler {
+
+    /**Number of input samples each output sample is computed from.*/
+    public static final int TAPS = 16;
+
+    /**Largest number of phases a filter table is built with. Rarer ratios are approximated.*/
+    public static final int MAX_PHASES = 1024;
+
+    /**Filter tables keyed by the reduced up and down factors.*/
+    private static final ConcurrentHashMap<Long, float[][]> FILTERS = new ConcurrentHashMap<>();
+
+    private final int up;
+    private final int down;
+    private final int channels;
+    private final float[][] filter;
+
+    /**Per channel input history, the first {@link #TAPS} - 1 entries carry over between blocks.*/
+    private float[][] history;
+
+    /**Number of valid samples per channel in {@link #history}.*/
+    private int buffered;
+
+    /**Phase of the next output sample, in units of 1 / up input samples.*/
+    private int phase;
+
+    /**
+     * Constructs a Resampler.
+     *
+     * @param inputRate The sample rate of the input.
+     * @param outputRate The sample rate of the output.
+     * @param channels The number of interleaved channels.
+     * @param maxFrames The largest block in frames expected, used to size the history up front.
+     */
+    public Resampler(int inputRate, int outputRate, int channels, int maxFrames) {
+        int divisor = gcd(inputRate, outputRate);
+        int up = outputRate / divisor;
+        int down = inputRate / divisor;
+        if (up > MAX_PHASES) {
+            down = (int) Math.round((double) down * MAX_PHASES / up);
+            up = MAX_PHASES;
+        }
+        this.up = up;
+        this.down = Math.max(1, down);
+        this.channels = channels;
+        this.filter = filterFor(this.up, this.down);
+        this.history = new float[channels][TAPS - 1 + maxFrames];
+        this.buffered = TAPS - 1;
+        this.phase = 0;
+    }
+
+    /**
+     * Gets the shared filter table for a ratio, building it on first use.
+     *
+     * @param up The interpolation factor, which is also the number of phases.
+     * @param down The decimation factor.
+     * @return The filter table indexed by phase, then tap.
+     */
+    static float[][] filterFor(int up, int down) {
+        return FILTERS.computeIfAbsent(((long) up << 32) | down, key -> buildFilter(up, down));
+    }
+
+    /**
+     * Builds a Blackman windowed sinc filter split into phases, each normalised to unity gain.
+     */
+    private static float[][] buildFilter(int up, int down) {
+        double cutoff = 0.45 * Math.min(1.0, (double) up / down);
+        float[][] table = new float[up][TAPS];
+        int half = TAPS / 2;
+        for (int p = 0; p < up; p++) {
+            double sum = 0;
+            double[] taps = new double[TAPS];
+            for (int t = 0; t < TAPS; t++) {
+                double x = t - (half - 1) - (double) p / up;
+                double sinc = x == 0 ? 1 : Math.sin(2 * Math.PI * cutoff * x) / (2 * Math.PI * cutoff * x);
+                double position = (x + half) / TAPS;
+                double window = position <= 0 || position >= 1 ? 0
+                        : 0.42 - 0.5 * Math.cos(2 * Math.PI * position) + 0.08 * Math.cos(4 * Math.PI * position);
+                taps[t] = sinc * window;
+                sum += taps[t];
+            }
+            for (int t = 0; t < TAPS; t++) {
+                table[p][t] = (float) (taps[t] / sum);
+            }
+        }
+        return table;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int next = a % b;
+            a = b;
+            b = next;
+        }
+        return Math.max(1, a);
+    }
+
+    /**
+     * @param frames A number of input frames.
+     * @return The most output frames that number of input frames can produce.
+     */
+    public int maxOutputFrames(int frames) {
+        return (int) (((long) frames + TAPS) * up / down) + 1;
+    }
+
+    /**
+     * Resamples a block and adds the result into an accumulator.
+     *
+     * @param input Interleaved input samples, left justified to 32 bits.
+     * @param frames The number of input frames.
+     * @param sum The accumulator the interleaved output samples are added to.
+     * @param start The index in the accumulator of the first output sample.
+     * @return The number of output frames produced.
+     */
+    public int process(long[] input, int frames, long[] sum, int start) {
+        if (buffered + frames > history[0].length) {
+            float[][] larger = new float[channels][buffered + frames];
+            for (int c = 0; c < channels; c++) System.arraycopy(history[c], 0, larger[c], 0, buffered);
+            history = larger;
+        }
+        for (int c = 0; c < channels; c++) {
+            float[] channel = history[c];
+            for (int i = 0, j = c; i < frames; i++, j += channels) {
+                channel[buffered + i] = input[j];
+            }
+        }
+        buffered += frames;
+        int index = 0;
+        int produced = 0;
+        int out = start;
+        while (index + TAPS <= buffered) {
+            float[] taps = filter[phase];
+            for (int c = 0; c < channels; c++) {
+                float[] channel = history[c];
+                float value = 0;
+                for (int t = 0; t < TAPS; t++) {
+                    value += taps[t] * channel[index + t];
+                }
+                sum[out++] += (long) value;
+            }
+            produced++;
+            phase += down;
+            index += phase / up;
+            phase %= up;
+        }
+        int remaining = buffered - index;
+        for (int c = 0; c < channels; c++) {
+            System.arraycopy(history[c], index, history[c], 0, remaining);
+        }
+        buffered = remaining;
+        return produced;
+    }
+}
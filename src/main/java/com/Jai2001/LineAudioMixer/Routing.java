@@ -0,0 +1,529 @@
+package com.Jai2001.LineAudioMixer;
+
+import com.Jai2001.LineAudioMixer.Endpoints.FileTargetDataLine;
+import com.Jai2001.LineAudioMixer.Endpoints.UdpSourceDataLine;
+import com.Jai2001.LineAudioMixer.Endpoints.UdpTargetDataLine;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+import javax.sound.sampled.DataLine;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Routing describes a set of routes from inputs to outputs, read from a properties file.
+ * <p>
+ * The file looks like:
+ * <pre>
+ * exchanger.waitStrategy=parking
+ * exchanger.period=1000000
+ * exchanger.threadedCapture=false
+ * exchanger.overflow=drop-oldest
+ * exchanger.quantum=0
+ *
+ * route.0.input=Microphone
+ * route.0.output=Speakers
+ * route.0.volume=1.0
+ * route.0.swap=false
+ * route.0.matrix=0:1, 1:0
+ * </pre>
+ * Devices are matched by name through {@link AudioLines#findMixer(String, Class)}. The volume
+ * uses the same scale as the sliders of the window, and defaults to 1. The wait strategy is
+ * one of {@code parking}, {@code blocking}, {@code yielding} or {@code busy-spin}, the period
+ * only applies to parking and is given in nanoseconds. The overflow policy of the outputs'
+ * queues is one of {@code drop-oldest}, {@code drop-newest} or {@code block}, see
+ * {@link OutputWriter.OverflowPolicy}. A quantum above 0 makes every input hand on exactly
+ * that many frames per iteration, see {@link AudioExchanger#AudioExchanger(WaitStrategy, boolean, int)}.
+ * <p>
+ * The optional matrix routes input channels to output channels in the format read by
+ * {@link ChannelMatrix#parse(String, int, int)} and replaces swap when given.
+ * <p>
+ * An input named {@code file:<path>} plays a file in a loop instead of capturing from a device,
+ * see {@link FileTargetDataLine}. Files not ending in {@code .wav} are read as raw 16 bit
+ * little endian stereo PCM at 48 kHz.
+ * <p>
+ * An input named {@code udp:<port>} plays what a {@link UdpSourceDataLine} sends to that port,
+ * and an output named {@code udp:<host>:<port>} sends to such an input on another machine.
+ * Network streams use the same format as raw files.
+ * <p>
+ * Lines are opened in parallel on a small pool of threads, since some devices take hundreds of
+ * milliseconds to open, and every route starts as soon as both of its lines are open. Starting
+ * a routing therefore takes about as long as its slowest device. A routing can also be written
+ * back in the same format, leaving out every value that is at its default, so the window saves
+ * its routes as a session and restores them on the next start.
+ * <p>
+ * Nothing here touches JavaFX, so a routing can be started without the window.
+ */
+public class Routing {
+
+    /**Prefix of inputs that play a file.*/
+    public static final String FILE_PREFIX = "file:";
+
+    /**Prefix of inputs and outputs that stream over UDP.*/
+    public static final String UDP_PREFIX = "udp:";
+
+    /**Format of raw PCM files and network streams.*/
+    public static final AudioFormat RAW_FORMAT = new AudioFormat(48000, 16, 2, true, false);
+
+    /**Most lines opened at the same time by {@link #openAsync(AudioExchanger)}.*/
+    public static final int OPEN_THREADS = 8;
+
+    /**
+     * A single route from an input device to an output device.
+     */
+    public static class Route {
+        /**Name of the input device.*/
+        public final String input;
+        /**Name of the output device.*/
+        public final String output;
+        /**Volume on the scale of the window's sliders.*/
+        public final double volume;
+        /**Whether the channels are swapped.*/
+        public final boolean swap;
+        /**Channel matrix entries, or null to fit the input's channels to the output's.*/
+        public final String matrix;
+
+        public Route(String input, String output, double volume, boolean swap) {
+            this(input, output, volume, swap, null);
+        }
+
+        public Route(String input, String output, double volume, boolean swap, String matrix) {
+            this.input = input;
+            this.output = output;
+            this.volume = volume;
+            this.swap = swap;
+            this.matrix = matrix;
+        }
+    }
+
+    /**
+     * A route that was opened, with the lines it was opened on.
+     */
+    public static class Connection {
+        /**The route that was opened.*/
+        public final Route route;
+        /**The stream of the route's input.*/
+        public final AudioDataStream stream;
+        /**The line of the route's input, shared by every route from the same input.*/
+        public final TargetDataLine input;
+        /**The line of the route's output, shared by every route to the same output.*/
+        public final SourceDataLine output;
+
+        public Connection(Route route, AudioDataStream stream, TargetDataLine input, SourceDataLine output) {
+            this.route = route;
+            this.stream = stream;
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    /**Name of the wait strategy of the exchanger.*/
+    public String waitStrategy = "parking";
+
+    /**Period of the parking wait strategy in nanoseconds.*/
+    public long period = ParkingWaitStrategy.DEFAULT_PERIOD;
+
+    /**Whether every input captures on its own thread.*/
+    public boolean threadedCapture = false;
+
+    /**Name of the overflow policy of every output's queue.*/
+    public String overflow = "drop-oldest";
+
+    /**Frames every input hands on per iteration, or 0 for whatever is available.*/
+    public int quantum = 0;
+
+    /**The routes, in the order they are opened.*/
+    public final List<Route> routes = new ArrayList<>();
+
+    /**
+     * Reads a routing file.
+     *
+     * @param file The path of the file.
+     * @return The routing it describes.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If the file is malformed.
+     */
+    public static Routing read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * Reads a routing in the properties format described above.
+     *
+     * @param reader The reader the routing is read from.
+     * @return The routing it describes.
+     * @throws IOException If reading fails.
+     * @throws IllegalArgumentException If the routing is malformed.
+     */
+    public static Routing read(Reader reader) throws IOException {
+        Properties properties = new Properties();
+        properties.load(reader);
+        Routing routing = new Routing();
+        routing.waitStrategy = properties.getProperty("exchanger.waitStrategy", routing.waitStrategy).trim();
+        routing.period = Long.parseLong(properties.getProperty("exchanger.period", Long.toString(routing.period)).trim());
+        routing.threadedCapture = Boolean.parseBoolean(properties.getProperty("exchanger.threadedCapture", "false").trim());
+        routing.overflow = properties.getProperty("exchanger.overflow", routing.overflow).trim();
+        routing.quantum = Integer.parseInt(properties.getProperty("exchanger.quantum", "0").trim());
+        if(routing.quantum < 0) throw new IllegalArgumentException("Negative quantum " + routing.quantum);
+        TreeSet<Integer> indices = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            if(!key.startsWith("route.")) continue;
+            int end = key.indexOf('.', 6);
+            try {
+                indices.add(Integer.parseInt(key.substring(6, end < 0 ? key.length() : end)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed route key " + key);
+            }
+        }
+        for (int index : indices) {
+            String prefix = "route." + index + ".";
+            String input = properties.getProperty(prefix + "input");
+            String output = properties.getProperty(prefix + "output");
+            if(input == null || output == null) throw new IllegalArgumentException("Route " + index + " needs an input and an output");
+            double volume = Double.parseDouble(properties.getProperty(prefix + "volume", "1").trim());
+            boolean swap = Boolean.parseBoolean(properties.getProperty(prefix + "swap", "false").trim());
+            String matrix = properties.getProperty(prefix + "matrix");
+            routing.routes.add(new Route(input.trim(), output.trim(), volume, swap, matrix == null ? null : matrix.trim()));
+        }
+        return routing;
+    }
+
+    /**
+     * Writes this routing to a file, creating its directory if needed.
+     *
+     * @param file The path of the file, replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if(directory != null) Files.createDirectories(directory);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(writer);
+        }
+    }
+
+    /**
+     * Writes this routing in the properties format described above, readable by
+     * {@link #read(Reader)}. Values at their default are left out.
+     *
+     * @param writer The writer the routing is written to.
+     * @throws IOException If writing fails.
+     */
+    public void write(Writer writer) throws IOException {
+        Routing defaults = new Routing();
+        if(!waitStrategy.equals(defaults.waitStrategy)) property(writer, "exchanger.waitStrategy", waitStrategy);
+        if(period != defaults.period) property(writer, "exchanger.period", Long.toString(period));
+        if(threadedCapture) property(writer, "exchanger.threadedCapture", "true");
+        if(!overflow.equals(defaults.overflow)) property(writer, "exchanger.overflow", overflow);
+        if(quantum != defaults.quantum) property(writer, "exchanger.quantum", Integer.toString(quantum));
+        for (int i = 0; i < routes.size(); i++) {
+            Route route = routes.get(i);
+            String prefix = "route." + i + ".";
+            property(writer, prefix + "input", route.input);
+            property(writer, prefix + "output", route.output);
+            if(route.volume != 1) property(writer, prefix + "volume", Double.toString(route.volume));
+            if(route.swap) property(writer, prefix + "swap", "true");
+            if(route.matrix != null) property(writer, prefix + "matrix", route.matrix);
+        }
+    }
+
+    /**
+     * Writes a single property, escaping the value the way {@link Properties#load(Reader)} expects.
+     */
+    private static void property(Writer writer, String key, String value) throws IOException {
+        StringBuilder line = new StringBuilder(key.length() + value.length() + 2).append(key).append('=');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': line.append("\\\\"); break;
+                case '\n': line.append("\\n"); break;
+                case '\r': line.append("\\r"); break;
+                case '\t': line.append("\\t"); break;
+                case '\f': line.append("\\f"); break;
+                case ' ': line.append(i == 0 ? "\\ " : " "); break;
+                default: line.append(c);
+            }
+        }
+        writer.write(line.append('\n').toString());
+    }
+
+    /**
+     * @return A new instance of the wait strategy named by {@link #waitStrategy}.
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    public WaitStrategy createWaitStrategy() {
+        switch (waitStrategy.toLowerCase()) {
+            case "parking": return new ParkingWaitStrategy(period);
+            case "blocking": return new BlockingWaitStrategy();
+            case "yielding": return new YieldingWaitStrategy();
+            case "busy-spin": return new BusySpinWaitStrategy();
+            default: throw new IllegalArgumentException("Unknown wait strategy " + waitStrategy);
+        }
+    }
+
+    /**
+     * @return The overflow policy named by {@link #overflow}.
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    public OutputWriter.OverflowPolicy createOverflowPolicy() {
+        switch (overflow.toLowerCase()) {
+            case "drop-oldest": return OutputWriter.OverflowPolicy.DROP_OLDEST;
+            case "drop-newest": return OutputWriter.OverflowPolicy.DROP_NEWEST;
+            case "block": return OutputWriter.OverflowPolicy.BLOCK;
+            default: throw new IllegalArgumentException("Unknown overflow policy " + overflow);
+        }
+    }
+
+    /**
+     * @return A new exchanger configured by this routing, not yet started.
+     */
+    public AudioExchanger createExchanger() {
+        AudioExchanger exchanger = new AudioExchanger(createWaitStrategy(), threadedCapture, quantum);
+        exchanger.setOverflowPolicy(createOverflowPolicy());
+        return exchanger;
+    }
+
+    /**
+     * Opens every route on an exchanger and starts its input, opening the lines in parallel.
+     * Returns once every route was opened or failed.
+     *
+     * @param exchanger The exchanger the routes are added to.
+     * @throws LineUnavailableException If a device cannot be found or a line cannot be opened.
+     * Every other route is still started.
+     */
+    public void open(AudioExchanger exchanger) throws LineUnavailableException {
+        Throwable failure = null;
+        for (CompletableFuture<Connection> route : openAsync(exchanger)) {
+            try {
+                route.join();
+            } catch (CompletionException e) {
+                if(failure == null) failure = e.getCause();
+            }
+        }
+        if(failure instanceof LineUnavailableException) throw (LineUnavailableException) failure;
+        if(failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if(failure instanceof Error) throw (Error) failure;
+    }
+
+    /**
+     * Opens every route on an exchanger without waiting, on a pool of at most
+     * {@link #OPEN_THREADS} threads that is shut down once every route was opened or failed.
+     *
+     * @param exchanger The exchanger the routes are added to.
+     * @return One future per route, in the order of {@link #routes}, see
+     * {@link #openAsync(AudioExchanger, Executor)}.
+     */
+    public List<CompletableFuture<Connection>> openAsync(AudioExchanger exchanger) {
+        Set<String> names = new HashSet<>();
+        for (Route route : routes) {
+            names.add("in " + route.input);
+            names.add("out " + route.output);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(OPEN_THREADS, names.size())), task -> {
+            Thread opener = new Thread(task, "Line opener");
+            opener.setDaemon(true);
+            return opener;
+        });
+        List<CompletableFuture<Connection>> opening = openAsync(exchanger, executor);
+        CompletableFuture.allOf(opening.toArray(new CompletableFuture<?>[0])).whenComplete((done, failure) -> executor.shutdown());
+        return opening;
+    }
+
+    /**
+     * Opens every route on an exchanger without waiting.
+     * <p>
+     * Every input and output named by the routes is looked up and opened once, as its own task.
+     * An output is opened in the format of the input of the first route to it when it supports
+     * it, like {@link MixBus#attach(AudioConsumer)} would, or in its default format if that input
+     * cannot be found. Each route is connected and its input
+     * started as soon as both of its lines are open, regardless of the other routes. Lines left
+     * unused because every route on them failed are closed again.
+     *
+     * @param exchanger The exchanger the routes are added to.
+     * @param executor Runs the lookups, opens and connections.
+     * @return One future per route, in the order of {@link #routes}, completed with the opened
+     * route or exceptionally with the {@link LineUnavailableException} or
+     * {@link IllegalArgumentException} that stopped it.
+     */
+    public List<CompletableFuture<Connection>> openAsync(AudioExchanger exchanger, Executor executor) {
+        Map<String, CompletableFuture<TargetDataLine>> inputs = new LinkedHashMap<>();
+        Map<String, CompletableFuture<TargetDataLine>> openInputs = new LinkedHashMap<>();
+        Map<String, CompletableFuture<SourceDataLine>> openOutputs = new LinkedHashMap<>();
+        List<CompletableFuture<Connection>> opening = new ArrayList<>();
+        for (Route route : routes) {
+            CompletableFuture<TargetDataLine> input = inputs.computeIfAbsent(route.input,
+                    name -> CompletableFuture.supplyAsync(() -> unchecked(() -> openInput(name)), executor));
+            CompletableFuture<TargetDataLine> openInput = openInputs.computeIfAbsent(route.input,
+                    name -> input.thenApplyAsync(line -> unchecked(() -> {
+                        if(!line.isOpen()) line.open();
+                        return line;
+                    }), executor));
+            CompletableFuture<SourceDataLine> openOutput = openOutputs.computeIfAbsent(route.output,
+                    name -> CompletableFuture.supplyAsync(() -> unchecked(() -> openOutput(name)), executor)
+                            .thenCombineAsync(input.handle((source, failure) -> source), (line, source) -> unchecked(() -> {
+                                if(!line.isOpen() && source != null){
+                                    try {
+                                        line.open(source.getFormat());
+                                    } catch (LineUnavailableException | IllegalArgumentException e) {
+                                        line.open();
+                                    }
+                                }else if(!line.isOpen()){
+                                    line.open();
+                                }
+                                return line;
+                            }), executor));
+            opening.add(openInput.thenCombineAsync(openOutput, (in, out) ->
+                    unchecked(() -> new Connection(route, connect(exchanger, route, in, out), in, out)), executor));
+        }
+        CompletableFuture.allOf(opening.toArray(new CompletableFuture<?>[0])).whenComplete((done, failure) -> {
+            Set<DataLine> used = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (CompletableFuture<Connection> route : opening) {
+                if(route.isCompletedExceptionally()) continue;
+                Connection connection = route.join();
+                used.add(connection.input);
+                used.add(connection.output);
+            }
+            List<CompletableFuture<? extends DataLine>> lines = new ArrayList<>(openInputs.values());
+            lines.addAll(openOutputs.values());
+            for (CompletableFuture<? extends DataLine> line : lines) {
+                if(!line.isCompletedExceptionally() && !used.contains(line.join())) line.join().close();
+            }
+        });
+        return opening;
+    }
+
+    /**
+     * A step of opening a route that may fail because a line is unavailable.
+     */
+    private interface LineTask<T> {
+        T run() throws LineUnavailableException;
+    }
+
+    /**
+     * Runs a step of opening a route inside a future, where checked exceptions are not allowed.
+     *
+     * @throws CompletionException Wrapping the {@link LineUnavailableException} of the step.
+     */
+    private static <T> T unchecked(LineTask<T> task) {
+        try {
+            return task.run();
+        } catch (LineUnavailableException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Opens a single route on an exchanger and starts its input.
+     *
+     * @param exchanger The exchanger the route is added to.
+     * @param route The route to open.
+     * @return The stream of the route's input.
+     * @throws LineUnavailableException If a device cannot be found or a line cannot be opened.
+     */
+    public static AudioDataStream open(AudioExchanger exchanger, Route route) throws LineUnavailableException {
+        return connect(exchanger, route, openInput(route.input), openOutput(route.output));
+    }
+
+    /**
+     * Adds a route to an exchanger on lines that were already looked up, and starts its input.
+     * The matrix is parsed before anything is attached. If the route still fails once its
+     * consumer was added, the consumer is removed again so no bus keeps it.
+     *
+     * @param exchanger The exchanger the route is added to.
+     * @param route The route to add.
+     * @param input The line of the route's input.
+     * @param output The line of the route's output.
+     * @return The stream of the route's input.
+     * @throws LineUnavailableException If a line cannot be opened.
+     * @throws IllegalArgumentException If the matrix is malformed or doesn't fit the lines.
+     */
+    private static AudioDataStream connect(AudioExchanger exchanger, Route route, TargetDataLine input,
+                                           SourceDataLine output) throws LineUnavailableException {
+        ChannelMatrix matrix = route.matrix == null ? null : ChannelMatrix.parse(route.matrix,
+                input.getFormat().getChannels(), output.getFormat().getChannels());
+        AudioDataStream stream = exchanger.getSyncedStream(input);
+        stream.addConsumer(output);
+        try {
+            stream.setConsumerVolume(output, route.volume);
+            stream.setSwapped(output, route.swap);
+            if(matrix != null) stream.setConsumerMatrix(output, matrix);
+            stream.start();
+        } catch (LineUnavailableException | RuntimeException e) {
+            stream.removeConsumer(output);
+            throw e;
+        }
+        return stream;
+    }
+
+    /**
+     * Gets the line of an input, either a device or a {@code file:} input.
+     *
+     * @param name The name of the input.
+     * @return The line, not yet opened.
+     * @throws LineUnavailableException If the device cannot be found or the file cannot be read.
+     */
+    private static TargetDataLine openInput(String name) throws LineUnavailableException {
+        if(name.startsWith(FILE_PREFIX)){
+            try {
+                return FileTargetDataLine.open(Path.of(name.substring(FILE_PREFIX.length())), RAW_FORMAT, true);
+            } catch (IOException e) {
+                LineUnavailableException unavailable = new LineUnavailableException("Cannot play " + name + ": " + e.getMessage());
+                unavailable.initCause(e);
+                throw unavailable;
+            }
+        }
+        if(name.startsWith(UDP_PREFIX)){
+            return new UdpTargetDataLine(new InetSocketAddress(port(name, name.substring(UDP_PREFIX.length()))), RAW_FORMAT);
+        }
+        return AudioLines.getLine(AudioLines.findMixer(name, TargetDataLine.class), TargetDataLine.class);
+    }
+
+    /**
+     * Gets the line of an output, either a device or a {@code udp:} output.
+     *
+     * @param name The name of the output.
+     * @return The line, not yet opened.
+     * @throws LineUnavailableException If the device cannot be found.
+     */
+    private static SourceDataLine openOutput(String name) throws LineUnavailableException {
+        if(name.startsWith(UDP_PREFIX)){
+            String address = name.substring(UDP_PREFIX.length());
+            int colon = address.lastIndexOf(':');
+            if(colon <= 0) throw new IllegalArgumentException("Expected udp:<host>:<port> but got " + name);
+            return new UdpSourceDataLine(new InetSocketAddress(address.substring(0, colon), port(name, address.substring(colon + 1))), RAW_FORMAT);
+        }
+        return AudioLines.getLine(AudioLines.findMixer(name, SourceDataLine.class), SourceDataLine.class);
+    }
+
+    private static int port(String name, String port) {
+        try {
+            return Integer.parseInt(port.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed port in " + name);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.Jai2001.LineAudioMixer;
+
+/**
+ * RoutingSnapshot is an immutable view of every route an {@link AudioExchanger} runs.
+ * <p>
+ * Every change to the routing builds a new snapshot and publishes it through a single
+ * volatile write. The audio thread reads the snapshot once per iteration and never takes a
+ * lock, so a change lands between two iterations and never in the middle of one.
+ * <p>
+ * Each snapshot carries an epoch, which lets resources that were dropped from the routing
+ * be closed only once the audio thread has moved on to a snapshot without them.
+ */
+final class RoutingSnapshot {
+
+    /**The snapshot of an exchanger without any routes.*/
+    static final RoutingSnapshot EMPTY = new RoutingSnapshot(0, new AudioDataStream[0],
+            new AudioConsumer[0][], new MixBus[0], new AudioConsumer[0][]);
+
+    /**Number of snapshots published before this one.*/
+    final long epoch;
+
+    /**Started streams that have at least one consumer.*/
+    final AudioDataStream[] producers;
+
+    /**Consumers of each producer, at the same index.*/
+    final AudioConsumer[][] consumers;
+
+    /**Buses at least one of the consumers is mixed into.*/
+    final MixBus[] buses;
+
+    /**Consumers mixed into each bus, at the same index.*/
+    final AudioConsumer[][] contributors;
+
+    RoutingSnapshot(long epoch, AudioDataStream[] producers, AudioConsumer[][] consumers,
+                    MixBus[] buses, AudioConsumer[][] contributors) {
+        this.epoch = epoch;
+        this.producers = producers;
+        this.consumers = consumers;
+        this.buses = buses;
+        this.contributors = contributors;
+    }
+}
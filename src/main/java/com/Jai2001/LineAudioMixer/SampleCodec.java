@@ -0,0 +1,593 @@
+package com.Jai2001.LineAudioMixer;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * SampleCodec holds the format specialized kernels for one {@link AudioFormat}.
+ * <p>
+ * Each implementation decodes, processes and encodes samples of a single sample size,
+ * encoding and byte order, so the inner loops never branch on the format. A codec is picked
+ * once through {@link #forFormat(AudioFormat)} when a consumer or bus is created.
+ * <p>
+ * Mixing happens in a {@code long} accumulator in which every format is left justified to
+ * 32 bits, so inputs and outputs of different sample sizes can share a {@link MixBus}.
+ */
+public abstract class SampleCodec {
+
+    /**The format this codec was created for.*/
+    public final AudioFormat format;
+
+    /**Number of bytes of one sample of one channel.*/
+    public final int sampleBytes;
+
+    /**
+     * Constructs a SampleCodec.
+     *
+     * @param format The format of the samples.
+     * @param sampleBytes The number of bytes of one sample of one channel.
+     */
+    protected SampleCodec(AudioFormat format, int sampleBytes) {
+        this.format = format;
+        this.sampleBytes = sampleBytes;
+    }
+
+    /**
+     * Picks the codec for a format.
+     *
+     * @param format The format of the line.
+     * @return The codec specialized for that format.
+     * @throws IllegalArgumentException If the format is not supported.
+     */
+    public static SampleCodec forFormat(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        boolean bigEndian = format.isBigEndian();
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding) && bits == 32) {
+            return new Float32(format, bigEndian);
+        }
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(encoding) || AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+            boolean unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding);
+            switch (bits) {
+                case 8:
+                    return new Pcm8(format, unsigned);
+                case 16:
+                    if (!unsigned) return bigEndian ? new Pcm16BigEndian(format) : new Pcm16LittleEndian(format);
+                    break;
+                case 24:
+                    if (!unsigned) return new Pcm24(format, bigEndian);
+                    break;
+                case 32:
+                    if (!unsigned) return new Pcm32(format, bigEndian);
+                    break;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported audio format: " + format);
+    }
+
+    /**
+     * Scales samples by a gain moving linearly from one Q16 fixed point value to another,
+     * saturating to the range of the format.
+     *
+     * @param source The raw samples.
+     * @param target The array the scaled samples are written to.
+     * @param targetOffset The offset in target to start writing at.
+     * @param bytes The number of bytes to process.
+     * @param from The fixed point gain at the start of the block.
+     * @param to The fixed point gain at the end of the block.
+     */
+    public abstract void applyGain(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to);
+
+    /**
+     * Scales samples like {@link #applyGain(byte[], byte[], int, int, int, int)} and measures
+     * the scaled samples in the same pass.
+     *
+     * @param source The raw samples.
+     * @param target The array the scaled samples are written to.
+     * @param targetOffset The offset in target to start writing at.
+     * @param bytes The number of bytes to process.
+     * @param from The fixed point gain at the start of the block.
+     * @param to The fixed point gain at the end of the block.
+     * @return The peak and RMS level of the scaled samples, packed by {@link LevelMeter#pack(float, float)}.
+     */
+    public abstract long applyGainAndMeasure(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to);
+
+    /**
+     * Measures samples without changing them.
+     *
+     * @param source The samples.
+     * @param bytes The number of bytes to measure.
+     * @return The peak and RMS level, packed by {@link LevelMeter#pack(float, float)}.
+     */
+    public abstract long measure(byte[] source, int bytes);
+
+    /**
+     * Adds samples into a mix accumulator, left justified to 32 bits.
+     *
+     * @param source The samples to add.
+     * @param bytes The number of bytes to add.
+     * @param sum The accumulator, one entry per sample.
+     * @param start The index in the accumulator of the first sample.
+     */
+    public abstract void accumulate(byte[] source, int bytes, long[] sum, int start);
+
+    /**
+     * Encodes accumulated samples, saturating them to the range of the format.
+     *
+     * @param sum The accumulator, one entry per sample, left justified to 32 bits.
+     * @param samples The number of samples to encode.
+     * @param target The array to encode into.
+     */
+    public abstract void encode(long[] sum, int samples, byte[] target);
+
+    /**
+     * @param step The number of samples the gain is ramped over.
+     * @param from The fixed point gain at the start of the ramp.
+     * @param to The fixed point gain at the end of the ramp.
+     * @return The per sample increment of a Q32 gain ramp.
+     */
+    static long rampStep(int step, int from, int to) {
+        return (((long) to - from) << 16) / Math.max(1, step);
+    }
+
+    static long clamp(long value, long min, long max) {
+        return value > max ? max : Math.max(value, min);
+    }
+
+    /**
+     * Signed or unsigned 8 bit samples. Unsigned samples are moved to signed by flipping the
+     * top bit, so both share one loop.
+     */
+    static final class Pcm8 extends SampleCodec {
+        private final int flip;
+
+        Pcm8(AudioFormat format, boolean unsigned) {
+            super(format, 1);
+            flip = unsigned ? 0x80 : 0;
+        }
+
+        @Override
+        public void applyGain(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            long ramp = (long) from << 16;
+            long step = rampStep(bytes, from, to);
+            for (int i = 0; i < bytes; i++) {
+                ramp += step;
+                long scaled = ((byte) (source[i] ^ flip) * (ramp >> 16)) >> AudioConsumer.GAIN_BITS;
+                target[targetOffset + i] = (byte) (clamp(scaled, Byte.MIN_VALUE, Byte.MAX_VALUE) ^ flip);
+            }
+        }
+
+        @Override
+        public long applyGainAndMeasure(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            long ramp = (long) from << 16;
+            long step = rampStep(bytes, from, to);
+            long peak = 0;
+            long squares = 0;
+            for (int i = 0; i < bytes; i++) {
+                ramp += step;
+                long scaled = clamp(((byte) (source[i] ^ flip) * (ramp >> 16)) >> AudioConsumer.GAIN_BITS, Byte.MIN_VALUE, Byte.MAX_VALUE);
+                target[targetOffset + i] = (byte) (scaled ^ flip);
+                peak = Math.max(peak, Math.abs(scaled));
+                squares += scaled * scaled;
+            }
+            return LevelMeter.levels(peak, squares, bytes, 0x80);
+        }
+
+        @Override
+        public long measure(byte[] source, int bytes) {
+            long peak = 0;
+            long squares = 0;
+            for (int i = 0; i < bytes; i++) {
+                long sample = (byte) (source[i] ^ flip);
+                peak = Math.max(peak, Math.abs(sample));
+                squares += sample * sample;
+            }
+            return LevelMeter.levels(peak, squares, bytes, 0x80);
+        }
+
+        @Override
+        public void accumulate(byte[] source, int bytes, long[] sum, int start) {
+            for (int i = 0; i < bytes; i++) {
+                sum[start + i] += (long) (byte) (source[i] ^ flip) << 24;
+            }
+        }
+
+        @Override
+        public void encode(long[] sum, int samples, byte[] target) {
+            for (int i = 0; i < samples; i++) {
+                target[i] = (byte) (clamp(sum[i] >> 24, Byte.MIN_VALUE, Byte.MAX_VALUE) ^ flip);
+            }
+        }
+    }
+
+    /**
+     * Signed 16 bit little endian samples, the format most devices open with. Constant gains
+     * go through the vectorized {@link GainKernel} when it is available.
+     */
+    static final class Pcm16LittleEndian extends SampleCodec {
+        Pcm16LittleEndian(AudioFormat format) {
+            super(format, 2);
+        }
+
+        @Override
+        public void applyGain(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            if (from == to && AudioConsumer.KERNEL != null) {
+                AudioConsumer.KERNEL.scale(source, target, targetOffset, bytes, from);
+            } else {
+                scale(source, target, targetOffset, bytes, from, to);
+            }
+        }
+
+        /**
+         * Scalar gain loop, also the reference the vectorized kernel is checked against.
+         */
+        static void scale(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            long ramp = (long) from << 16;
+            long step = rampStep(bytes >> 1, from, to);
+            for (int i = 0; i < bytes; i += 2) {
+                short combined = (short) ((source[i] & 0xff) | (source[i + 1] << 8));
+                ramp += step;
+                long scaled = clamp((combined * (ramp >> 16)) >> AudioConsumer.GAIN_BITS, Short.MIN_VALUE, Short.MAX_VALUE);
+                target[targetOffset + i] = (byte) scaled;
+                target[targetOffset + i + 1] = (byte) (scaled >> 8);
+            }
+        }
+
+        @Override
+        public long applyGainAndMeasure(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            long ramp = (long) from << 16;
+            long step = rampStep(bytes >> 1, from, to);
+            long peak = 0;
+            long squares = 0;
+            for (int i = 0; i < bytes; i += 2) {
+                short combined = (short) ((source[i] & 0xff) | (source[i + 1] << 8));
+                ramp += step;
+                long scaled = clamp((combined * (ramp >> 16)) >> AudioConsumer.GAIN_BITS, Short.MIN_VALUE, Short.MAX_VALUE);
+                target[targetOffset + i] = (byte) scaled;
+                target[targetOffset + i + 1] = (byte) (scaled >> 8);
+                peak = Math.max(peak, Math.abs(scaled));
+                squares += scaled * scaled;
+            }
+            return LevelMeter.levels(peak, squares, bytes >> 1, 0x8000);
+        }
+
+        @Override
+        public long measure(byte[] source, int bytes) {
+            long peak = 0;
+            long squares = 0;
+            for (int i = 0; i < bytes; i += 2) {
+                long sample = (short) ((source[i] & 0xff) | (source[i + 1] << 8));
+                peak = Math.max(peak, Math.abs(sample));
+                squares += sample * sample;
+            }
+            return LevelMeter.levels(peak, squares, bytes >> 1, 0x8000);
+        }
+
+        @Override
+        public void accumulate(byte[] source, int bytes, long[] sum, int start) {
+            for (int i = 0, j = start; i < bytes; i += 2, j++) {
+                sum[j] += (long) (short) ((source[i] & 0xff) | (source[i + 1] << 8)) << 16;
+            }
+        }
+
+        @Override
+        public void encode(long[] sum, int samples, byte[] target) {
+            for (int i = 0; i < samples; i++) {
+                long sample = clamp(sum[i] >> 16, Short.MIN_VALUE, Short.MAX_VALUE);
+                target[2 * i] = (byte) sample;
+                target[2 * i + 1] = (byte) (sample >> 8);
+            }
+        }
+    }
+
+    /**
+     * Signed 16 bit big endian samples.
+     */
+    static final class Pcm16BigEndian extends SampleCodec {
+        Pcm16BigEndian(AudioFormat format) {
+            super(format, 2);
+        }
+
+        @Override
+        public void applyGain(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            long ramp = (long) from << 16;
+            long step = rampStep(bytes >> 1, from, to);
+            for (int i = 0; i < bytes; i += 2) {
+                short combined = (short) ((source[i] << 8) | (source[i + 1] & 0xff));
+                ramp += step;
+                long scaled = clamp((combined * (ramp >> 16)) >> AudioConsumer.GAIN_BITS, Short.MIN_VALUE, Short.MAX_VALUE);
+                target[targetOffset + i] = (byte) (scaled >> 8);
+                target[targetOffset + i + 1] = (byte) scaled;
+            }
+        }
+
+        @Override
+        public long applyGainAndMeasure(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            long ramp = (long) from << 16;
+            long step = rampStep(bytes >> 1, from, to);
+            long peak = 0;
+            long squares = 0;
+            for (int i = 0; i < bytes; i += 2) {
+                short combined = (short) ((source[i] << 8) | (source[i + 1] & 0xff));
+                ramp += step;
+                long scaled = clamp((combined * (ramp >> 16)) >> AudioConsumer.GAIN_BITS, Short.MIN_VALUE, Short.MAX_VALUE);
+                target[targetOffset + i] = (byte) (scaled >> 8);
+                target[targetOffset + i + 1] = (byte) scaled;
+                peak = Math.max(peak, Math.abs(scaled));
+                squares += scaled * scaled;
+            }
+            return LevelMeter.levels(peak, squares, bytes >> 1, 0x8000);
+        }
+
+        @Override
+        public long measure(byte[] source, int bytes) {
+            long peak = 0;
+            long squares = 0;
+            for (int i = 0; i < bytes; i += 2) {
+                long sample = (short) ((source[i] << 8) | (source[i + 1] & 0xff));
+                peak = Math.max(peak, Math.abs(sample));
+                squares += sample * sample;
+            }
+            return LevelMeter.levels(peak, squares, bytes >> 1, 0x8000);
+        }
+
+        @Override
+        public void accumulate(byte[] source, int bytes, long[] sum, int start) {
+            for (int i = 0, j = start; i < bytes; i += 2, j++) {
+                sum[j] += (long) (short) ((source[i] << 8) | (source[i + 1] & 0xff)) << 16;
+            }
+        }
+
+        @Override
+        public void encode(long[] sum, int samples, byte[] target) {
+            for (int i = 0; i < samples; i++) {
+                long sample = clamp(sum[i] >> 16, Short.MIN_VALUE, Short.MAX_VALUE);
+                target[2 * i] = (byte) (sample >> 8);
+                target[2 * i + 1] = (byte) sample;
+            }
+        }
+    }
+
+    /**
+     * Signed 24 bit packed samples. The byte order is folded into fixed offsets of the low,
+     * middle and high byte, so it costs nothing per sample.
+     */
+    static final class Pcm24 extends SampleCodec {
+        private final int low;
+        private final int high;
+
+        Pcm24(AudioFormat format, boolean bigEndian) {
+            super(format, 3);
+            low = bigEndian ? 2 : 0;
+            high = bigEndian ? 0 : 2;
+        }
+
+        private int read(byte[] source, int i) {
+            return (source[i + high] << 16) | ((source[i + 1] & 0xff) << 8) | (source[i + low] & 0xff);
+        }
+
+        private void write(byte[] target, int i, long sample) {
+            target[i + low] = (byte) sample;
+            target[i + 1] = (byte) (sample >> 8);
+            target[i + high] = (byte) (sample >> 16);
+        }
+
+        @Override
+        public void applyGain(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            long ramp = (long) from << 16;
+            long step = rampStep(bytes / 3, from, to);
+            for (int i = 0; i + 2 < bytes; i += 3) {
+                ramp += step;
+                long scaled = (read(source, i) * (ramp >> 16)) >> AudioConsumer.GAIN_BITS;
+                write(target, targetOffset + i, clamp(scaled, -0x800000, 0x7fffff));
+            }
+        }
+
+        @Override
+        public long applyGainAndMeasure(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            long ramp = (long) from << 16;
+            long step = rampStep(bytes / 3, from, to);
+            long peak = 0;
+            double squares = 0;
+            for (int i = 0; i + 2 < bytes; i += 3) {
+                ramp += step;
+                long scaled = clamp((read(source, i) * (ramp >> 16)) >> AudioConsumer.GAIN_BITS, -0x800000, 0x7fffff);
+                write(target, targetOffset + i, scaled);
+                peak = Math.max(peak, Math.abs(scaled));
+                squares += (double) scaled * scaled;
+            }
+            return LevelMeter.levels(peak, squares, bytes / 3, 0x800000);
+        }
+
+        @Override
+        public long measure(byte[] source, int bytes) {
+            long peak = 0;
+            double squares = 0;
+            for (int i = 0; i + 2 < bytes; i += 3) {
+                long sample = read(source, i);
+                peak = Math.max(peak, Math.abs(sample));
+                squares += (double) sample * sample;
+            }
+            return LevelMeter.levels(peak, squares, bytes / 3, 0x800000);
+        }
+
+        @Override
+        public void accumulate(byte[] source, int bytes, long[] sum, int start) {
+            for (int i = 0, j = start; i + 2 < bytes; i += 3, j++) {
+                sum[j] += (long) read(source, i) << 8;
+            }
+        }
+
+        @Override
+        public void encode(long[] sum, int samples, byte[] target) {
+            for (int i = 0; i < samples; i++) {
+                write(target, 3 * i, clamp(sum[i] >> 8, -0x800000, 0x7fffff));
+            }
+        }
+    }
+
+    /**
+     * Signed 32 bit samples, with the byte order folded into fixed offsets.
+     */
+    static final class Pcm32 extends SampleCodec {
+        private final int b0;
+        private final int b1;
+        private final int b2;
+        private final int b3;
+
+        Pcm32(AudioFormat format, boolean bigEndian) {
+            super(format, 4);
+            b0 = bigEndian ? 3 : 0;
+            b1 = bigEndian ? 2 : 1;
+            b2 = bigEndian ? 1 : 2;
+            b3 = bigEndian ? 0 : 3;
+        }
+
+        private int read(byte[] source, int i) {
+            return (source[i + b3] << 24) | ((source[i + b2] & 0xff) << 16) | ((source[i + b1] & 0xff) << 8) | (source[i + b0] & 0xff);
+        }
+
+        private void write(byte[] target, int i, long sample) {
+            target[i + b0] = (byte) sample;
+            target[i + b1] = (byte) (sample >> 8);
+            target[i + b2] = (byte) (sample >> 16);
+            target[i + b3] = (byte) (sample >> 24);
+        }
+
+        @Override
+        public void applyGain(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            long ramp = (long) from << 16;
+            long step = rampStep(bytes >> 2, from, to);
+            for (int i = 0; i + 3 < bytes; i += 4) {
+                ramp += step;
+                long scaled = (read(source, i) * (ramp >> 16)) >> AudioConsumer.GAIN_BITS;
+                write(target, targetOffset + i, clamp(scaled, Integer.MIN_VALUE, Integer.MAX_VALUE));
+            }
+        }
+
+        @Override
+        public long applyGainAndMeasure(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            long ramp = (long) from << 16;
+            long step = rampStep(bytes >> 2, from, to);
+            long peak = 0;
+            double squares = 0;
+            for (int i = 0; i + 3 < bytes; i += 4) {
+                ramp += step;
+                long scaled = clamp((read(source, i) * (ramp >> 16)) >> AudioConsumer.GAIN_BITS, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                write(target, targetOffset + i, scaled);
+                peak = Math.max(peak, Math.abs(scaled));
+                squares += (double) scaled * scaled;
+            }
+            return LevelMeter.levels(peak, squares, bytes >> 2, 0x1p31);
+        }
+
+        @Override
+        public long measure(byte[] source, int bytes) {
+            long peak = 0;
+            double squares = 0;
+            for (int i = 0; i + 3 < bytes; i += 4) {
+                long sample = read(source, i);
+                peak = Math.max(peak, Math.abs(sample));
+                squares += (double) sample * sample;
+            }
+            return LevelMeter.levels(peak, squares, bytes >> 2, 0x1p31);
+        }
+
+        @Override
+        public void accumulate(byte[] source, int bytes, long[] sum, int start) {
+            for (int i = 0, j = start; i + 3 < bytes; i += 4, j++) {
+                sum[j] += read(source, i);
+            }
+        }
+
+        @Override
+        public void encode(long[] sum, int samples, byte[] target) {
+            for (int i = 0; i < samples; i++) {
+                write(target, 4 * i, clamp(sum[i], Integer.MIN_VALUE, Integer.MAX_VALUE));
+            }
+        }
+    }
+
+    /**
+     * 32 bit floating point samples. Gain is applied in float without clamping, so headroom
+     * above full scale is kept until the samples are encoded for an output.
+     */
+    static final class Float32 extends SampleCodec {
+        private static final float FULL_SCALE = 0x1p31f;
+        private final int b0;
+        private final int b1;
+        private final int b2;
+        private final int b3;
+
+        Float32(AudioFormat format, boolean bigEndian) {
+            super(format, 4);
+            b0 = bigEndian ? 3 : 0;
+            b1 = bigEndian ? 2 : 1;
+            b2 = bigEndian ? 1 : 2;
+            b3 = bigEndian ? 0 : 3;
+        }
+
+        private float read(byte[] source, int i) {
+            return Float.intBitsToFloat((source[i + b3] << 24) | ((source[i + b2] & 0xff) << 16) | ((source[i + b1] & 0xff) << 8) | (source[i + b0] & 0xff));
+        }
+
+        private void write(byte[] target, int i, float sample) {
+            int bits = Float.floatToRawIntBits(sample);
+            target[i + b0] = (byte) bits;
+            target[i + b1] = (byte) (bits >> 8);
+            target[i + b2] = (byte) (bits >> 16);
+            target[i + b3] = (byte) (bits >> 24);
+        }
+
+        @Override
+        public void applyGain(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            float gain = from / (float) AudioConsumer.UNITY_GAIN;
+            float step = (to - from) / (float) AudioConsumer.UNITY_GAIN / Math.max(1, bytes >> 2);
+            for (int i = 0; i + 3 < bytes; i += 4) {
+                gain += step;
+                write(target, targetOffset + i, read(source, i) * gain);
+            }
+        }
+
+        @Override
+        public long applyGainAndMeasure(byte[] source, byte[] target, int targetOffset, int bytes, int from, int to) {
+            float gain = from / (float) AudioConsumer.UNITY_GAIN;
+            float step = (to - from) / (float) AudioConsumer.UNITY_GAIN / Math.max(1, bytes >> 2);
+            float peak = 0;
+            double squares = 0;
+            for (int i = 0; i + 3 < bytes; i += 4) {
+                gain += step;
+                float scaled = read(source, i) * gain;
+                write(target, targetOffset + i, scaled);
+                peak = Math.max(peak, Math.abs(scaled));
+                squares += scaled * scaled;
+            }
+            return LevelMeter.levels(peak, squares, bytes >> 2, 1);
+        }
+
+        @Override
+        public long measure(byte[] source, int bytes) {
+            float peak = 0;
+            double squares = 0;
+            for (int i = 0; i + 3 < bytes; i += 4) {
+                float sample = read(source, i);
+                peak = Math.max(peak, Math.abs(sample));
+                squares += sample * sample;
+            }
+            return LevelMeter.levels(peak, squares, bytes >> 2, 1);
+        }
+
+        @Override
+        public void accumulate(byte[] source, int bytes, long[] sum, int start) {
+            for (int i = 0, j = start; i + 3 < bytes; i += 4, j++) {
+                sum[j] += (long) (read(source, i) * FULL_SCALE);
+            }
+        }
+
+        @Override
+        public void encode(long[] sum, int samples, byte[] target) {
+            for (int i = 0; i < samples; i++) {
+                write(target, 4 * i, clamp(sum[i], Integer.MIN_VALUE, Integer.MAX_VALUE) / FULL_SCALE);
+            }
+        }
+    }
+}
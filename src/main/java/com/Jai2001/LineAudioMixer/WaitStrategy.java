@@ -0,0 +1,35 @@
+package com.Jai2001.LineAudioMixer;
+
+/**
+ * WaitStrategy decides what the {@link AudioExchanger} main loop does between iterations.
+ * <p>
+ * Strategies trade CPU usage against how quickly new input is picked up:
+ * <ul>
+ *     <li>{@link BusySpinWaitStrategy} - a full core, lowest and most stable latency</li>
+ *     <li>{@link YieldingWaitStrategy} - a full core when idle, but gives way to other threads</li>
+ *     <li>{@link ParkingWaitStrategy} - little CPU, latency bounded by its period</li>
+ *     <li>{@link BlockingWaitStrategy} - least CPU, waits inside the driver for input</li>
+ * </ul>
+ * The strategy can be swapped at runtime with {@link AudioExchanger#setWaitStrategy(WaitStrategy)}.
+ * Instances may keep state between calls, so each exchanger should get its own.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits before the next iteration of the main loop.
+     *
+     * @param loopStart The {@link System#nanoTime()} the previous iteration started at.
+     * @throws InterruptedException If the exchange thread is interrupted while waiting.
+     */
+    void idle(long loopStart) throws InterruptedException;
+
+    /**
+     * Whether streams should block inside their input reads instead of only taking what is
+     * already available.
+     *
+     * @return true if reads should block for a minimum amount of input, false otherwise.
+     */
+    default boolean blocksOnRead(){
+        return false;
+    }
+}
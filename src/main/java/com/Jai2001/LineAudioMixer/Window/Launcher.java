@@ -1,7 +1,15 @@
 package com.Jai2001.LineAudioMixer.Window;
 
+import com.Jai2001.LineAudioMixer.HeadlessLauncher;
+
+import java.util.Arrays;
+
 public class Launcher {
     public static void main(String[] args) {
+        if(args.length > 0 && args[0].equals("--headless")){
+            HeadlessLauncher.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         MixerWindow.main(args);
     }
 }
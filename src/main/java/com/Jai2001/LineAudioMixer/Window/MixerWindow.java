@@ -1,6 +1,14 @@
 package com.Jai2001.LineAudioMixer.Window;
 
 import com.Jai2001.LineAudioMixer.AudioExchanger;
+import com.Jai2001.LineAudioMixer.BlockingWaitStrategy;
+import com.Jai2001.LineAudioMixer.BusySpinWaitStrategy;
+import com.Jai2001.LineAudioMixer.DeviceRegistry;
+import com.Jai2001.LineAudioMixer.OutputWriter;
+import com.Jai2001.LineAudioMixer.ParkingWaitStrategy;
+import com.Jai2001.LineAudioMixer.Routing;
+import com.Jai2001.LineAudioMixer.WaitStrategy;
+import com.Jai2001.LineAudioMixer.YieldingWaitStrategy;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.ConditionalFeature;
@@ -11,9 +19,13 @@ import javafx.scene.CacheHint;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.RadioMenuItem;
+import javafx.scene.control.ToggleGroup;
 import javafx.scene.image.Image;
 import javafx.scene.input.ContextMenuEvent;
+import javafx.scene.Node;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
@@ -21,7 +33,13 @@ import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 public class MixerWindow extends Application {
 
@@ -32,7 +50,10 @@ public class MixerWindow extends Application {
     static Stage pStage;
 
     static Text bottomText = new Text();
-    static AudioExchanger exchanger = new AudioExchanger(true);
+    static AudioExchanger exchanger = new AudioExchanger(new ParkingWaitStrategy());
+
+    /**Where the routes are saved on exit and restored from on start.*/
+    static final Path SESSION = Path.of(System.getProperty("user.home"), ".LineAudioMixer", "session.properties");
 
 
 
@@ -40,6 +61,7 @@ public class MixerWindow extends Application {
     @Override
     public void start(Stage stage) {
         pStage = stage;
+        DeviceRegistry.SHARED.start();
         try{
             Image icon = new Image(Objects.requireNonNull(ClassLoader.getSystemResourceAsStream("icon.png")));
             stage.getIcons().add(icon);
@@ -47,6 +69,7 @@ public class MixerWindow extends Application {
         stage.setTitle("Line Audio Mixer");
         System.out.println(Platform.isSupported(ConditionalFeature.SCENE3D));
         stage.setOnCloseRequest(t -> {
+            saveSession();
             Platform.exit();
             System.exit(0);
         });
@@ -56,12 +79,23 @@ public class MixerWindow extends Application {
         gridPane.addRow(0, boxList);
         gridPane.addRow(1, adder);
         gridPane.addRow(2, bottomText);
-        addConnectors();
-        MenuItem toggleSleepItem = new MenuItem("Disable sleep");
-        toggleSleepItem.setOnAction(toggleSleep);
+        if(!restoreSession()) addConnectors();
+        Menu waitStrategies = new Menu("Wait strategy");
+        ToggleGroup strategyGroup = new ToggleGroup();
+        waitStrategies.getItems().addAll(
+                strategyItem("Park", ParkingWaitStrategy::new, strategyGroup, true),
+                strategyItem("Block on read", BlockingWaitStrategy::new, strategyGroup, false),
+                strategyItem("Yield", YieldingWaitStrategy::new, strategyGroup, false),
+                strategyItem("Busy spin", BusySpinWaitStrategy::new, strategyGroup, false));
+        Menu overflowPolicies = new Menu("Output overflow");
+        ToggleGroup overflowGroup = new ToggleGroup();
+        overflowPolicies.getItems().addAll(
+                overflowItem("Drop oldest", OutputWriter.OverflowPolicy.DROP_OLDEST, overflowGroup),
+                overflowItem("Drop newest", OutputWriter.OverflowPolicy.DROP_NEWEST, overflowGroup),
+                overflowItem("Block", OutputWriter.OverflowPolicy.BLOCK, overflowGroup));
         MenuItem enableExtraInfo = new MenuItem("Enable extra info");
         enableExtraInfo.setOnAction(toggleExtraInfo);
-        ContextMenu debug = new ContextMenu(toggleSleepItem, enableExtraInfo);
+        ContextMenu debug = new ContextMenu(waitStrategies, overflowPolicies, enableExtraInfo);
         stage.addEventHandler(ContextMenuEvent.CONTEXT_MENU_REQUESTED, e->debug.show(stage, e.getScreenX(), e.getScreenY()));
         gridPane.setCache(false);
         gridPane.setCacheHint(CacheHint.SPEED);
@@ -69,8 +103,21 @@ public class MixerWindow extends Application {
         stage.show();
     }
 
-    static EventHandler<ActionEvent> toggleSleep =
-            (e) -> ((MenuItem) e.getSource()).setText(exchanger.toggleSleep(extraInfo) ? "Disable sleep" : "Enable sleep");
+    private static RadioMenuItem strategyItem(String name, Supplier<WaitStrategy> strategy, ToggleGroup group, boolean selected){
+        RadioMenuItem item = new RadioMenuItem(name);
+        item.setToggleGroup(group);
+        item.setSelected(selected);
+        item.setOnAction(e -> exchanger.setWaitStrategy(strategy.get()));
+        return item;
+    }
+
+    private static RadioMenuItem overflowItem(String name, OutputWriter.OverflowPolicy policy, ToggleGroup group){
+        RadioMenuItem item = new RadioMenuItem(name);
+        item.setToggleGroup(group);
+        item.setSelected(exchanger.getOverflowPolicy() == policy);
+        item.setOnAction(e -> exchanger.setOverflowPolicy(policy));
+        return item;
+    }
 
     static final AnimationTimer debugTimings = new AnimationTimer() {
         @Override
@@ -82,6 +129,7 @@ public class MixerWindow extends Application {
     };
     static EventHandler<ActionEvent> toggleExtraInfo = (e) -> {
         extraInfo = !extraInfo;
+        exchanger.setMeasure(extraInfo);
         if (extraInfo) {
             ((MenuItem) e.getSource()).setText("Disable extra info");
             debugTimings.start();
@@ -92,11 +140,53 @@ public class MixerWindow extends Application {
         }
     };
 
-    private static void addConnectors(){
+    private static PipeElement addConnectors(){
         PipeElement connector = new PipeElement(exchanger);
         HBox listing = connector.getBase();
         boxList.getChildren().add(listing);
         pStage.sizeToScene();
+        return connector;
+    }
+
+    /**
+     * Shows the routes of the last session and opens all of their lines in parallel, every
+     * route starting as soon as its own lines are open.
+     *
+     * @return Whether a session with routes was found.
+     */
+    private static boolean restoreSession(){
+        Routing session;
+        try {
+            if(!Files.exists(SESSION)) return false;
+            session = Routing.read(SESSION);
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return false;
+        }
+        if(session.routes.isEmpty()) return false;
+        if(!exchanger.isStarted()) exchanger.start(true, true);
+        List<CompletableFuture<Routing.Connection>> opening = session.openAsync(exchanger);
+        for (int i = 0; i < opening.size(); i++) {
+            addConnectors().restore(session.routes.get(i), opening.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * Saves every running route, and every restored route that did not open, replacing the last session.
+     */
+    private static void saveSession(){
+        Routing session = new Routing();
+        for (Node listing : boxList.getChildren()) {
+            if(!(listing.getUserData() instanceof PipeElement)) continue;
+            Routing.Route route = ((PipeElement) listing.getUserData()).toRoute();
+            if(route != null) session.routes.add(route);
+        }
+        try {
+            session.write(SESSION);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
 
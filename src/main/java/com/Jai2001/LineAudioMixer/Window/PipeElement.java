@@ -2,6 +2,12 @@ package com.Jai2001.LineAudioMixer.Window;
 
 import com.Jai2001.LineAudioMixer.AudioDataStream;
 import com.Jai2001.LineAudioMixer.AudioExchanger;
+import com.Jai2001.LineAudioMixer.AudioLines;
+import com.Jai2001.LineAudioMixer.ChannelMatrix;
+import com.Jai2001.LineAudioMixer.DeviceRegistry;
+import com.Jai2001.LineAudioMixer.LevelMeter;
+import com.Jai2001.LineAudioMixer.Routing;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
@@ -12,19 +18,20 @@ import javafx.scene.control.Slider;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.stage.Stage;
+import javafx.stage.Window;
 
-import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
-import javax.sound.sampled.Line;
 import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.Mixer;
 import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.TargetDataLine;
-import java.util.Arrays;
-import java.util.Optional;
+import java.util.List;
 import java.util.UUID;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
 
 public class PipeElement {
 
@@ -34,14 +41,34 @@ public class PipeElement {
 
     private SourceDataLine output;
 
-    private ComboBox<Mixer> inputBox;
+    private ComboBox<DeviceRegistry.Device> inputBox;
 
-    private ComboBox<Mixer> outputBox;
+    private ComboBox<DeviceRegistry.Device> outputBox;
+
+    private final DeviceRegistry.Listener deviceWatcher = new deviceWatcher();
+
+    private final LevelMeter levels = new LevelMeter();
+
+    private final levelDisplay meter = new levelDisplay();
 
     private Slider volumeSlider;
 
+    private ToggleButton swapperToggle;
+
     private Button remover;
 
+    /**The route this pipe was restored from, keeping names the window can't show.*/
+    private Routing.Route restored;
+
+    /**The saved route while it is opened or after it failed to open, written back unchanged
+     * until other lines are picked.*/
+    private Routing.Route pending;
+
+    /**Set while the lists are changed by code, so the selection isn't opened again.*/
+    private boolean restoring;
+
+    private boolean removed;
+
     private AudioDataStream stream;
     private AudioExchanger exchanger;
 
@@ -49,6 +76,7 @@ public class PipeElement {
     public PipeElement(AudioExchanger sharedExchanger){
         exchanger = sharedExchanger;
         base = new HBox();
+        base.setUserData(this);
         outputBox = list(SourceDataLine.class, new pairSelector());
         inputBox = list(TargetDataLine.class, new pairSelector());
         base.getChildren().add(inputBox);
@@ -57,12 +85,14 @@ public class PipeElement {
         volumeSlider.setDisable(true);
         volumeSlider.addEventHandler(MouseEvent.MOUSE_RELEASED, new volumeAdjuster());
         base.getChildren().add(volumeSlider);
-        ToggleButton swapperToggle = new ToggleButton("swap l/r");
+        base.getChildren().add(meter.pane);
+        swapperToggle = new ToggleButton("swap l/r");
         swapperToggle.addEventHandler(MouseEvent.MOUSE_CLICKED,new swapper());
         base.getChildren().add(swapperToggle);
         remover = new Button("-");
         remover.addEventHandler(MouseEvent.MOUSE_CLICKED, new pipeRemover());
         base.getChildren().add(remover);
+        DeviceRegistry.SHARED.addListener(deviceWatcher);
     }
 
     public HBox getBase(){
@@ -82,6 +112,7 @@ public class PipeElement {
             inputBox.setDisable(volume >= 0);
             outputBox.setDisable(volume >= 0);
             inputBox.getParent().getChildrenUnmodifiable().get(2).setDisable(volume < 0);
+            if(volume >= 0) meter.start();
             return volume;
         } catch (Exception e) {
             e.printStackTrace();
@@ -94,6 +125,83 @@ public class PipeElement {
         }
     }
 
+    /**
+     * Shows a route of a restored session while its lines are opened in the background, and
+     * takes it over once it was started.
+     *
+     * @param route The route, as it was saved.
+     * @param opening Completes once the route's lines are open and the route is started.
+     */
+    public void restore(Routing.Route route, CompletableFuture<Routing.Connection> opening){
+        restored = route;
+        pending = route;
+        restoring = true;
+        inputBox.setValue(find(inputBox, route.input, TargetDataLine.class));
+        outputBox.setValue(find(outputBox, route.output, SourceDataLine.class));
+        restoring = false;
+        inputBox.setDisable(true);
+        outputBox.setDisable(true);
+        volumeSlider.setValue(route.volume);
+        swapperToggle.setSelected(route.swap);
+        opening.whenComplete((connection, failure) -> Platform.runLater(() -> {
+            if(failure != null){
+                failure.printStackTrace();
+                restored = null;
+                restoring = true;
+                inputBox.setValue(null);
+                outputBox.setValue(null);
+                restoring = false;
+                inputBox.setDisable(false);
+                outputBox.setDisable(false);
+                return;
+            }
+            if(removed){
+                connection.stream.removeConsumer(connection.output);
+                return;
+            }
+            input = connection.input;
+            output = connection.output;
+            stream = connection.stream;
+            pending = null;
+            volumeSlider.setDisable(false);
+            meter.start();
+        }));
+    }
+
+    /**
+     * A restored route that is still opening or failed to open, for example because its device
+     * was unplugged, is returned as it was saved, so it is not lost from the session.
+     * <p>
+     * The matrix of a running route is saved as it currently is, unless it is what the swap
+     * toggle produces anyway.
+     *
+     * @return The route this pipe runs, to be saved with the session, or null if it runs none.
+     */
+    public Routing.Route toRoute(){
+        if(pending != null) return pending;
+        if(stream == null || output == null) return null;
+        ChannelMatrix matrix = stream.getConsumerMatrix(output);
+        if(matrix == null) return null;
+        boolean swap = swapperToggle.isSelected();
+        ChannelMatrix plain = swap ? ChannelMatrix.swap(matrix.inputs, matrix.outputs) : ChannelMatrix.fit(matrix.inputs, matrix.outputs);
+        String inputName = restored != null ? restored.input : inputBox.getValue().getName();
+        String outputName = restored != null ? restored.output : outputBox.getValue().getName();
+        return new Routing.Route(inputName, outputName, volumeSlider.getValue(), swap,
+                matrix.equals(plain) ? null : matrix.toString());
+    }
+
+    private static DeviceRegistry.Device find(ComboBox<DeviceRegistry.Device> box, String name, Class<? extends DataLine> lineClass){
+        try {
+            String key = DeviceRegistry.key(AudioLines.findMixer(name, lineClass).getMixerInfo());
+            for (DeviceRegistry.Device device : box.getItems()) {
+                if(device != null && device.key.equals(key)) return device;
+            }
+        } catch (LineUnavailableException e) {
+            // Files and network streams aren't listed
+        }
+        return null;
+    }
+
     private class swapper implements EventHandler<MouseEvent> {
         @Override
         public void handle(MouseEvent e) {
@@ -110,11 +218,14 @@ public class PipeElement {
          @Override
          public void handle(ActionEvent e) {
              try {
-                 Mixer inputMixer = inputBox.getValue();
-                 Mixer outputMixer = outputBox.getValue();
-                 if (inputMixer == null || outputMixer == null) return;
-                 input = getLine(inputMixer, TargetDataLine.class);
-                 output = getLine(outputMixer, SourceDataLine.class);
+                 if(restoring) return;
+                 DeviceRegistry.Device inputDevice = inputBox.getValue();
+                 DeviceRegistry.Device outputDevice = outputBox.getValue();
+                 if (inputDevice == null || outputDevice == null) return;
+                 pending = null;
+                 restored = null;
+                 input = AudioLines.getLine(inputDevice.mixer, TargetDataLine.class);
+                 output = AudioLines.getLine(outputDevice.mixer, SourceDataLine.class);
                  startPipe(exchanger);
              } catch (LineUnavailableException ex){
                  throw new RuntimeException(ex);
@@ -153,7 +264,10 @@ public class PipeElement {
         @Override
         public void handle(MouseEvent e) {
             try {
-                stream.removeConsumer(output);
+                DeviceRegistry.SHARED.removeListener(deviceWatcher);
+                removed = true;
+                meter.stop();
+                if (stream != null) stream.removeConsumer(output);
                 VBox boxList = (VBox) base.getParent();
                 boxList.getChildren().remove(base);
             } catch (Exception ex) {
@@ -161,28 +275,130 @@ public class PipeElement {
             }
         }
     };
-    private static <T extends DataLine> T getLine(Mixer device, Class<T> targetClass) throws LineUnavailableException {
-        device.open();
-        Line.Info[] inputs = device.getSourceLineInfo();
-        Line.Info[] outputs = device.getTargetLineInfo();
-        Stream<Line.Info> both = Stream.concat(Arrays.stream(inputs),Arrays.stream(outputs));
-        both = both.filter(o-> o.getLineClass() == targetClass);
-        Optional<Line.Info> potentialMatch = both.findFirst();
-        if(potentialMatch.isEmpty()) throw new LineUnavailableException();
-        T line = (T) device.getLine(potentialMatch.get());
-        return line;
-    }
 
-    private static ComboBox<Mixer> list(Class<?> lineClass, EventHandler<ActionEvent> listener){
-        ComboBox<Mixer> box = new ComboBox<>();
+    /**
+     * Keeps both lists in step with the {@link DeviceRegistry}: devices plugged in are added,
+     * devices removed disappear unless they are selected, and probed devices replace their
+     * entry so the extra info shows up.
+     */
+    private class deviceWatcher implements DeviceRegistry.Listener {
+        @Override
+        public void devicesChanged(List<DeviceRegistry.Device> added, List<DeviceRegistry.Device> removed,
+                                   List<DeviceRegistry.Device> probed) {
+            Platform.runLater(() -> {
+                update(inputBox, TargetDataLine.class, added, removed, probed);
+                update(outputBox, SourceDataLine.class, added, removed, probed);
+            });
+        }
+
+        private void update(ComboBox<DeviceRegistry.Device> box, Class<?> lineClass, List<DeviceRegistry.Device> added,
+                            List<DeviceRegistry.Device> removed, List<DeviceRegistry.Device> probed) {
+            List<DeviceRegistry.Device> items = box.getItems();
+            DeviceRegistry.Device selected = box.getValue();
+            for (DeviceRegistry.Device device : removed) {
+                if(device != selected) items.remove(device);
+            }
+            for (DeviceRegistry.Device device : added) {
+                if(device.supports(lineClass)) items.add(items.size() - 1, device);
+            }
+            for (DeviceRegistry.Device device : probed) {
+                for (int i = 0; i < items.size(); i++) {
+                    DeviceRegistry.Device item = items.get(i);
+                    if(item != null && item != selected && item.key.equals(device.key)) items.set(i, device);
+                }
+            }
+        }
+    };
+
+    /**
+     * Shows the peak and RMS level of the pipe on a decibel scale, read from its
+     * {@link LevelMeter} at most {@link #RATE} times a second.
+     * <p>
+     * The meter is only handed to the stream while the window is showing and not minimized,
+     * otherwise the audio thread does not measure anything.
+     */
+    private class levelDisplay extends AnimationTimer {
+        static final int RATE = 20;
+        static final double FLOOR_DB = -60;
+        static final double WIDTH = 80;
+        static final long PEAK_HOLD = 1_000_000_000L;
+
+        final Pane pane = new Pane();
+        final Rectangle rmsBar = new Rectangle(0, 4, 0, 8);
+        final Rectangle peakMark = new Rectangle(0, 2, 2, 12);
+        boolean metering;
+        long lastFrame;
+        double rms;
+        double peak;
+        long peakSince;
+
+        levelDisplay() {
+            Rectangle background = new Rectangle(0, 4, WIDTH, 8);
+            background.setFill(Color.gray(0.2));
+            rmsBar.setFill(Color.LIMEGREEN);
+            peakMark.setFill(Color.gray(0.9));
+            pane.getChildren().addAll(background, rmsBar, peakMark);
+            pane.setPrefSize(WIDTH, 16);
+            pane.setMinSize(WIDTH, 16);
+        }
+
+        @Override
+        public void handle(long now) {
+            if(now - lastFrame < 1_000_000_000L / RATE) return;
+            double elapsed = lastFrame == 0 ? 0 : (now - lastFrame) / 1e9;
+            lastFrame = now;
+            boolean visible = isShowing();
+            if(visible != metering){
+                metering = visible;
+                if(stream != null) stream.setConsumerMeter(output, visible ? levels : null);
+                levels.collect();
+            }
+            if(!visible) return;
+            long collected = levels.collect();
+            double blockRms = toPosition(LevelMeter.rms(collected));
+            double blockPeak = toPosition(LevelMeter.peak(collected));
+            rms = Math.max(blockRms, rms - elapsed * 1.5);
+            if(blockPeak >= peak || now - peakSince > PEAK_HOLD){
+                peak = blockPeak;
+                peakSince = now;
+            }
+            rmsBar.setWidth(rms * WIDTH);
+            peakMark.setX(Math.min(WIDTH - 2, peak * WIDTH));
+            peakMark.setFill(LevelMeter.peak(collected) >= 1 ? Color.RED : Color.gray(0.9));
+        }
+
+        /**
+         * @param level A level as a fraction of full scale.
+         * @return Its position on the meter between 0 and 1.
+         */
+        double toPosition(float level) {
+            if(level <= 0) return 0;
+            double db = 20 * Math.log10(level);
+            return Math.max(0, Math.min(1, 1 - db / FLOOR_DB));
+        }
+
+        boolean isShowing() {
+            if(pane.getScene() == null) return false;
+            Window window = pane.getScene().getWindow();
+            if(window == null || !window.isShowing()) return false;
+            return !(window instanceof Stage) || !((Stage) window).isIconified();
+        }
+
+        @Override
+        public void stop() {
+            super.stop();
+            if(metering && stream != null) stream.setConsumerMeter(output, null);
+            metering = false;
+        }
+    };
+
+    private static ComboBox<DeviceRegistry.Device> list(Class<?> lineClass, EventHandler<ActionEvent> listener){
+        ComboBox<DeviceRegistry.Device> box = new ComboBox<>();
         box.setId(UUID.randomUUID().toString());
-        box.setCellFactory((ListView<Mixer> view) -> new LineListCell());
+        box.setCellFactory((ListView<DeviceRegistry.Device> view) -> new LineListCell());
         box.setOnAction(listener);
         box.setButtonCell(new LineListCell());
-        Arrays.stream(AudioSystem.getMixerInfo())
-                .map(AudioSystem::getMixer)
-                .filter(info -> (info).isLineSupported(new Line.Info(lineClass)))
-                .forEach(m -> box.getItems().addAll(m));
+        box.getItems().addAll(DeviceRegistry.SHARED.getDevices(lineClass));
         box.getItems().add(null);
         return box;
     }
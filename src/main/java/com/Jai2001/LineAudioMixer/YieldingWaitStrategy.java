@@ -0,0 +1,15 @@
+package com.Jai2001.LineAudioMixer;
+
+/**
+ * YieldingWaitStrategy yields to the scheduler between iterations.
+ * <p>
+ * On an idle machine this still uses most of a core, but under load other threads get to
+ * run first, at the cost of occasional scheduling delays on the audio path.
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+    @Override
+    public void idle(long loopStart) {
+        Thread.yield();
+    }
+}